@@ -0,0 +1,102 @@
+package org.delaunay;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.delaunay.algorithm.MeshArena;
+import org.delaunay.algorithm.OffHeapTriangulation;
+import org.delaunay.algorithm.Triangulation;
+import org.delaunay.algorithm.Triangulation.VertexExceptionStrategy;
+import org.delaunay.algorithm.TriangulationCodec;
+import org.delaunay.algorithm.TriangulationCodec.EncodedSize;
+import org.delaunay.algorithm.Triangulations;
+import org.delaunay.model.Vertex;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Encodes and decodes triangulations with {@link TriangulationCodec} and
+ * reports the size of the encoded mesh against the size of the mesh in
+ * memory, the bytes per triangle of the coordinates and of the connectivity,
+ * and the throughput of each direction in megabytes of mesh per second. The
+ * skewed input is that of {@link Triangulations#randomVertices}, whose
+ * vertices crowd toward the origin.
+ *
+ * Usage: CodecBenchmark [vertex count]
+ */
+public class CodecBenchmark {
+	private static final int SIZE = 1000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		Map<String, List<Vertex>> inputs = Maps.newLinkedHashMap();
+		inputs.put("uniform", Triangulations.uniformVertices(n, SIZE, SIZE));
+		inputs.put("skewed", Triangulations.randomVertices(n, SIZE, SIZE));
+		inputs.put("integer grid", integerGrid(n));
+
+		System.out.println(String.format("%,d vertices, best of %d rounds", n, ROUNDS));
+		System.out.println(String.format("%-14s%14s%14s%12s%12s%12s%12s%12s%12s%12s",
+				"input", "mesh bytes", "coded bytes", "bytes/tri", "coords/tri", "conn/tri",
+				"encode ms", "MB/s", "decode ms", "MB/s"));
+		for (Map.Entry<String, List<Vertex>> input : inputs.entrySet()) {
+			Triangulation t = new Triangulation();
+			t.setIndexedEngine(true);
+			t.setVertexExceptionStrategy(VertexExceptionStrategy.CATCH_AND_DROP_VERTEX);
+			t.addAllVertices(input.getValue());
+			t.triangulate();
+
+			MeshArena arena = new MeshArena();
+			try {
+				OffHeapTriangulation mesh = t.freezeOffHeap(arena);
+				byte[] coded = null;
+				long encodeNanos = Long.MAX_VALUE;
+				long decodeNanos = Long.MAX_VALUE;
+				// The first rounds also warm up the JIT
+				for (int round = 0; round < ROUNDS; round++) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					long start = System.nanoTime();
+					TriangulationCodec.encode(mesh, out);
+					encodeNanos = Math.min(encodeNanos, System.nanoTime() - start);
+					coded = out.toByteArray();
+
+					MeshArena decoded = new MeshArena();
+					start = System.nanoTime();
+					TriangulationCodec.decode(new ByteArrayInputStream(coded), decoded);
+					decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+					decoded.close();
+				}
+
+				long bytes = mesh.getMemoryBytes();
+				EncodedSize size = TriangulationCodec.measure(mesh);
+				double triangles = mesh.getTriangleCount();
+				System.out.println(String.format("%-14s%,14d%,14d%12.2f%12.2f%12.2f%,12d%12.1f%,12d%12.1f",
+						input.getKey(), bytes, coded.length, coded.length / triangles,
+						size.coordinateBytes / triangles, size.connectivityBytes / triangles,
+						encodeNanos / 1000000, bytes * 1e3 / encodeNanos,
+						decodeNanos / 1000000, bytes * 1e3 / decodeNanos));
+			} finally {
+				arena.close();
+			}
+		}
+	}
+
+	/*
+	 * Random points with integer coordinates, whose low bytes the
+	 * coordinate coding drops.
+	 */
+	private static List<Vertex> integerGrid(int n) {
+		Random random = new Random(1);
+		int side = (int) Math.sqrt(n) * 4;
+		List<Vertex> verts = Lists.newArrayListWithCapacity(n);
+		for (int i = 0; i < n; i++) {
+			verts.add(new Vertex(random.nextInt(side), random.nextInt(side)));
+		}
+		return verts;
+	}
+}
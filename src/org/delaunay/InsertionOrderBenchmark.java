@@ -0,0 +1,104 @@
+package org.delaunay;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.delaunay.algorithm.InsertionOrders;
+import org.delaunay.algorithm.InsertionOrders.InsertionOrder;
+import org.delaunay.algorithm.Triangulation;
+import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+import org.delaunay.algorithm.Triangulation.VertexExceptionStrategy;
+import org.delaunay.algorithm.Triangulations;
+import org.delaunay.model.Vertex;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Triangulates the same inputs with each insertion order strategy and reports
+ * the wall time, the average hops per locate, and the average and largest
+ * cavity sizes.
+ *
+ * Usage: InsertionOrderBenchmark [vertex count] [objects]
+ */
+public class InsertionOrderBenchmark {
+	private static final int SIZE = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		boolean indexed = !(args.length > 1 && args[1].equals("objects"));
+
+		Map<String, List<Vertex>> inputs = Maps.newLinkedHashMap();
+		inputs.put("uniform", Triangulations.uniformVertices(n, SIZE, SIZE));
+		inputs.put("parallel lines", parallelLines(n, 8));
+		inputs.put("duplicates", snappedToGrid(n, (int) Math.sqrt(n) / 4));
+
+		Map<String, InsertionOrder> orders = Maps.newLinkedHashMap();
+		orders.put("hilbert", InsertionOrders.createHilbert(16));
+		orders.put("brio", InsertionOrders.createBiasedRandom(16, 0));
+		orders.put("morton", InsertionOrders.createMorton(16));
+		orders.put("input", InsertionOrders.createInputOrder());
+
+		// Warm up the JIT so that the first strategy is not penalized
+		triangulate(Triangulations.uniformVertices(n, SIZE, SIZE), indexed, orders.get("hilbert"));
+
+		System.out.println(String.format("%,d vertices, %s engine", n, indexed ? "indexed" : "object"));
+		System.out.println(String.format("%-16s%-10s%10s%14s%14s%12s",
+				"input", "order", "msec", "hops/locate", "avg cavity", "max cavity"));
+		for (Map.Entry<String, List<Vertex>> input : inputs.entrySet()) {
+			int distinct = Sets.newHashSet(input.getValue()).size();
+			for (Map.Entry<String, InsertionOrder> order : orders.entrySet()) {
+				long start = System.nanoTime();
+				Triangulation t = triangulate(input.getValue(), indexed, order.getValue());
+				long msec = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+				System.out.println(String.format("%-16s%-10s%,10d%14.2f%14.2f%,12d",
+						input.getKey(), order.getKey(), msec,
+						(double) t.getHopCount() / Math.max(t.getLocateCount(), 1),
+						(double) t.getCavityTriangleCount() / distinct,
+						t.getMaxCavitySize()));
+			}
+		}
+	}
+
+	private static Triangulation triangulate(List<Vertex> verts, boolean indexed, InsertionOrder order)
+			throws InvalidVertexException {
+		Triangulation t = new Triangulation();
+		t.setIndexedEngine(indexed);
+		t.setVertexExceptionStrategy(VertexExceptionStrategy.CATCH_AND_DROP_VERTEX);
+		t.setInsertionOrder(order);
+		t.addAllVertices(verts);
+		t.triangulate();
+		return t;
+	}
+
+	/*
+	 * Random points on a few horizontal lines.
+	 */
+	private static List<Vertex> parallelLines(int n, int lines) {
+		Random random = new Random(1);
+		List<Vertex> verts = Lists.newArrayListWithCapacity(n);
+		for (int i = 0; i < n; i++) {
+			verts.add(new Vertex(random.nextDouble() * SIZE, (i % lines) * SIZE / (double) lines));
+		}
+		return verts;
+	}
+
+	/*
+	 * Random points snapped to a coarse grid, so most of them are duplicates.
+	 */
+	private static List<Vertex> snappedToGrid(int n, int cells) {
+		Random random = new Random(2);
+		cells = Math.max(cells, 2);
+		List<Vertex> verts = Lists.newArrayListWithCapacity(n);
+		for (int i = 0; i < n; i++) {
+			verts.add(new Vertex(
+					random.nextInt(cells) * SIZE / (double) cells,
+					random.nextInt(cells) * SIZE / (double) cells));
+		}
+		return verts;
+	}
+}
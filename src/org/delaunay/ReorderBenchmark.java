@@ -0,0 +1,261 @@
+package org.delaunay;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.delaunay.algorithm.IndexedTriangulation;
+import org.delaunay.algorithm.Triangulation;
+import org.delaunay.algorithm.Triangulation.VertexExceptionStrategy;
+import org.delaunay.model.Triangle;
+import org.delaunay.model.Vertex;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs full passes over a mesh before and after
+ * {@link IndexedTriangulation#reorder()} and reports the time of each pass,
+ * and the misses of a modeled cache on the addresses it reads. The vertices
+ * are added in random order, and a tenth of them removed and added again, so
+ * the numbering is scattered the way a long lived mesh leaves it. The same
+ * passes are then timed over an object graph a tenth of the size, before and
+ * after {@link Triangulation#reorder()} creates its triangles again.
+ *
+ * The modeled cache holds 256KB in 64 byte lines, each line of memory
+ * hashed to one slot, and stands in for the hardware counters that Java
+ * cannot read.
+ *
+ * Usage: ReorderBenchmark [vertex count]
+ */
+public class ReorderBenchmark {
+	private static final int SIZE = 1000;
+	private static final int ROUNDS = 5;
+	private static final int LINE_SHIFT = 6;
+	private static final int CACHE_BITS = 12;
+	private static final int CACHE_LINES = 1 << CACHE_BITS;
+
+	public static void main(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		Random random = new Random(1);
+		IndexedTriangulation mesh = new IndexedTriangulation(n);
+		mesh.setVertexExceptionStrategy(VertexExceptionStrategy.CATCH_AND_DROP_VERTEX);
+		for (int i = 0; i < n; i++) {
+			mesh.addVertex(random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+		}
+		mesh.triangulate();
+		for (int i = 0; i < n / 10; i++) {
+			int v = random.nextInt(n);
+			if (mesh.removeVertex(v)) {
+				mesh.insertVertex(mesh.addVertex(random.nextDouble() * SIZE, random.nextDouble() * SIZE));
+			}
+		}
+
+		System.out.println(String.format("%,d vertices, %,d triangles, best of %d rounds",
+				mesh.getVertexCount(), mesh.getTriangleCount(), ROUNDS));
+		System.out.println(String.format("%-12s%-14s%12s%18s", "numbering", "pass", "msec", "misses/triangle"));
+		report("scattered", mesh);
+		mesh.reorder();
+		report("hilbert", mesh);
+
+		Triangulation objects = new Triangulation();
+		objects.setVertexExceptionStrategy(VertexExceptionStrategy.CATCH_AND_DROP_VERTEX);
+		for (int i = 0; i < n / 10; i++) {
+			objects.addVertex(random.nextDouble() * SIZE, random.nextDouble() * SIZE);
+		}
+		objects.triangulate();
+		List<Vertex> vertices = Lists.newArrayList(objects.getVertices());
+		for (int i = 0; i < n / 100; i++) {
+			Vertex v = vertices.get(random.nextInt(vertices.size()));
+			if (objects.removeVertex(v)) {
+				objects.addVertexToTriangulation(new Vertex(random.nextDouble() * SIZE, random.nextDouble() * SIZE));
+			}
+		}
+		System.out.println(String.format("%,d object graph vertices, %,d triangles",
+				objects.getVertices().size(), objects.getTriangles().size()));
+		report("scattered", objects);
+		objects.reorder();
+		report("hilbert", objects);
+	}
+
+	private static void report(String numbering, Triangulation objects) {
+		// The triangles that the reorder replaced are not collected during the passes
+		System.gc();
+		long areaNanos = Long.MAX_VALUE;
+		long edgeNanos = Long.MAX_VALUE;
+		double sink = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			sink += areaPass(objects);
+			areaNanos = Math.min(areaNanos, System.nanoTime() - start);
+			start = System.nanoTime();
+			sink += edgePass(objects);
+			edgeNanos = Math.min(edgeNanos, System.nanoTime() - start);
+		}
+		if (sink == 0) {
+			System.out.println("Empty mesh");
+		}
+		System.out.println(String.format("%-12s%-14s%,12d", numbering, "vertex areas", areaNanos / 1000000));
+		System.out.println(String.format("%-12s%-14s%,12d", numbering, "edge lengths", edgeNanos / 1000000));
+	}
+
+	/*
+	 * Sums the area of the triangles around each vertex, the way the DTFE
+	 * densities are computed from the object graph.
+	 */
+	private static double areaPass(Triangulation objects) {
+		double total = 0;
+		for (Vertex v : objects.getVertices()) {
+			for (Triangle t : v.getNeighborTriangles()) {
+				total += ((t.b.x - t.a.x) * (t.c.y - t.a.y) - (t.b.y - t.a.y) * (t.c.x - t.a.x)) / 2;
+			}
+		}
+		return total;
+	}
+
+	/*
+	 * Sums the length of the edges of each triangle, half of each shared
+	 * edge from either side.
+	 */
+	private static double edgePass(Triangulation objects) {
+		double total = 0;
+		for (Triangle t : objects.getTriangles()) {
+			total += Math.hypot(t.b.x - t.a.x, t.b.y - t.a.y)
+					+ Math.hypot(t.c.x - t.b.x, t.c.y - t.b.y)
+					+ Math.hypot(t.a.x - t.c.x, t.a.y - t.c.y);
+		}
+		return total / 2;
+	}
+
+	private static void report(String numbering, IndexedTriangulation mesh) {
+		double[] areas = new double[mesh.getVertexCount()];
+		long areaNanos = Long.MAX_VALUE;
+		long edgeNanos = Long.MAX_VALUE;
+		double sink = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			sink += areaPass(mesh, areas);
+			areaNanos = Math.min(areaNanos, System.nanoTime() - start);
+			start = System.nanoTime();
+			sink += edgePass(mesh);
+			edgeNanos = Math.min(edgeNanos, System.nanoTime() - start);
+		}
+		if (sink == 0) {
+			System.out.println("Empty mesh");
+		}
+		System.out.println(String.format("%-12s%-14s%,12d%18.2f", numbering, "vertex areas",
+				areaNanos / 1000000, (double) areaMisses(mesh) / mesh.getTriangleCount()));
+		System.out.println(String.format("%-12s%-14s%,12d%18.2f", numbering, "edge lengths",
+				edgeNanos / 1000000, (double) edgeMisses(mesh) / mesh.getTriangleCount()));
+	}
+
+	/*
+	 * Adds a third of the area of each triangle to each of its vertices, the
+	 * pass that the DTFE densities make.
+	 */
+	private static double areaPass(IndexedTriangulation mesh, double[] areas) {
+		double total = 0;
+		for (int t = 0; t < mesh.getTriangleSlots(); t++) {
+			if (!mesh.isTriangle(t) || mesh.touchesSuperVertex(t)) {
+				continue;
+			}
+			int a = mesh.getTriangleVertex(t, 0);
+			int b = mesh.getTriangleVertex(t, 1);
+			int c = mesh.getTriangleVertex(t, 2);
+			double area = ((mesh.getX(b) - mesh.getX(a)) * (mesh.getY(c) - mesh.getY(a))
+					- (mesh.getY(b) - mesh.getY(a)) * (mesh.getX(c) - mesh.getX(a))) / 6;
+			areas[a] += area;
+			areas[b] += area;
+			areas[c] += area;
+			total += area;
+		}
+		return total;
+	}
+
+	/*
+	 * Sums the length of each edge once, from the triangle with the smaller
+	 * index, the pass that drawing the edges makes.
+	 */
+	private static double edgePass(IndexedTriangulation mesh) {
+		double total = 0;
+		for (int t = 0; t < mesh.getTriangleSlots(); t++) {
+			if (!mesh.isTriangle(t)) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				int n = mesh.getNeighbor(t, i);
+				int a = mesh.getTriangleVertex(t, (i + 1) % 3);
+				int b = mesh.getTriangleVertex(t, (i + 2) % 3);
+				if (n > t || n == IndexedTriangulation.NONE && a >= 0 && b >= 0) {
+					total += Math.hypot(mesh.getX(b) - mesh.getX(a), mesh.getY(b) - mesh.getY(a));
+				}
+			}
+		}
+		return total;
+	}
+
+	/*
+	 * Replays the reads of the area pass on the modeled cache: the triangle,
+	 * then the coordinates and the area of each vertex.
+	 */
+	private static long areaMisses(IndexedTriangulation mesh) {
+		Cache cache = new Cache();
+		for (int t = 0; t < mesh.getTriangleSlots(); t++) {
+			cache.read(1, t * 12L);
+			if (!mesh.isTriangle(t) || mesh.touchesSuperVertex(t)) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				int v = mesh.getTriangleVertex(t, i);
+				cache.read(2, v * 16L);
+				cache.read(3, v * 8L);
+			}
+		}
+		return cache.misses;
+	}
+
+	/*
+	 * Replays the reads of the edge pass: the triangle and its neighbors,
+	 * then the coordinates of the vertices.
+	 */
+	private static long edgeMisses(IndexedTriangulation mesh) {
+		Cache cache = new Cache();
+		for (int t = 0; t < mesh.getTriangleSlots(); t++) {
+			cache.read(1, t * 12L);
+			if (!mesh.isTriangle(t)) {
+				continue;
+			}
+			cache.read(4, t * 12L);
+			for (int i = 0; i < 3; i++) {
+				int v = mesh.getTriangleVertex(t, i);
+				if (v >= 0) {
+					cache.read(2, v * 16L);
+				}
+			}
+		}
+		return cache.misses;
+	}
+
+	/*
+	 * A direct-mapped cache of the addresses of a few arrays, each given by
+	 * a number and an offset into it. Lines are placed by a hash, so that
+	 * arrays at the same offsets do not evict each other.
+	 */
+	private static class Cache {
+		private final long[] tags = new long[CACHE_LINES];
+		private long misses = 0;
+
+		public Cache() {
+			Arrays.fill(tags, -1);
+		}
+
+		public void read(int array, long offset) {
+			long line = ((long) array << 40 | offset) >>> LINE_SHIFT;
+			int slot = (int) ((line * 0x9E3779B97F4A7C15L) >>> (64 - CACHE_BITS));
+			if (tags[slot] != line) {
+				tags[slot] = line;
+				misses++;
+			}
+		}
+	}
+}
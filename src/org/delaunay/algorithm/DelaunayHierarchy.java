@@ -0,0 +1,221 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+import org.delaunay.algorithm.Triangulation.VertexExceptionStrategy;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A Delaunay hierarchy over an {@link IndexedTriangulation}: a stack of
+ * sparser and sparser triangulations, each of a random sample of about one in
+ * {@link #RATIO} of the vertices of the one below it. See O. Devillers, "The
+ * Delaunay Hierarchy", 2002.
+ *
+ * To locate a point, the nearest vertex of the top level is found by a walk,
+ * and the walk on each level below starts from the triangle of the nearest
+ * vertex of the level above. Each of these walks takes a constant number of
+ * hops on average, so a locate takes O(log n) hops whatever the distribution
+ * of the vertices, unlike a grid, which is too coarse for dense clusters and
+ * wastes cells on empty space.
+ *
+ * Each vertex is on a level above the mesh with probability 1 / (RATIO - 1),
+ * so the levels hold about 3% more vertices than the mesh itself. Vertices
+ * inserted into or removed from the mesh are inserted into or removed from
+ * the levels as well.
+ *
+ * @see IndexedTriangulation#buildLocatorHierarchy()
+ */
+public strictfp class DelaunayHierarchy {
+	public static final int RATIO = 30;
+	public static final int MAX_LEVELS = 8;
+
+	/*
+	 * A level with fewer vertices than this does not shorten the walks.
+	 */
+	private static final int MIN_LEVEL_SIZE = 16;
+	private static final int NONE = IndexedTriangulation.NONE;
+
+	private final IndexedTriangulation mesh;
+	private final Random random;
+	private final List<IndexedTriangulation> levels = Lists.newArrayList();
+
+	/*
+	 * down[k][u] is the vertex of level k - 1, or of the mesh for level 0,
+	 * that vertex u of level k was sampled from. up[k] is the inverse, or
+	 * NONE for the vertices that were not sampled.
+	 */
+	private int[][] down = new int[MAX_LEVELS][];
+	private int[][] up = new int[MAX_LEVELS][];
+
+	DelaunayHierarchy(IndexedTriangulation mesh, Rectangle2D bounds, long seed) {
+		this.mesh = mesh;
+		this.random = new Random(seed);
+
+		int[] below = new int[mesh.getVertexCount()];
+		int belowCount = 0;
+		for (int v = 0; v < mesh.getVertexCount(); v++) {
+			if (mesh.isInserted(v)) {
+				below[belowCount++] = v;
+			}
+		}
+		for (int k = 0; k < MAX_LEVELS; k++) {
+			int[] sample = new int[belowCount / RATIO * 2 + 16];
+			int sampleCount = 0;
+			for (int i = 0; i < belowCount; i++) {
+				if (random.nextInt(RATIO) == 0) {
+					if (sampleCount == sample.length) {
+						sample = Arrays.copyOf(sample, sampleCount * 2);
+					}
+					sample[sampleCount++] = below[i];
+				}
+			}
+			if (sampleCount < MIN_LEVEL_SIZE) {
+				break;
+			}
+			IndexedTriangulation level = new IndexedTriangulation(sampleCount);
+			down[k] = new int[sampleCount];
+			up[k] = new int[getLevelBelow(k).getVertexCount()];
+			Arrays.fill(up[k], NONE);
+			for (int i = 0; i < sampleCount; i++) {
+				int w = sample[i];
+				int u = level.addVertex(getLevelBelow(k).getX(w), getLevelBelow(k).getY(w));
+				down[k][u] = w;
+				up[k][w] = u;
+			}
+			level.setKeepSuperTriangle(true);
+			level.setGhostTriangles(mesh.isGhostTriangles());
+			level.setVertexExceptionStrategy(VertexExceptionStrategy.CATCH_AND_DROP_VERTEX);
+			try {
+				level.triangulate(bounds);
+			} catch (InvalidVertexException e) {
+				// not thrown when vertices are dropped
+			}
+			levels.add(level);
+
+			below = new int[sampleCount];
+			for (int i = 0; i < sampleCount; i++) {
+				below[i] = i;
+			}
+			belowCount = sampleCount;
+		}
+	}
+
+	/**
+	 * Returns the number of levels above the mesh.
+	 */
+	public int getLevelCount() {
+		return levels.size();
+	}
+
+	/**
+	 * Returns the number of vertices inserted into a level, counted from 0
+	 * for the level right above the mesh.
+	 */
+	public int getVertexCount(int level) {
+		IndexedTriangulation tri = levels.get(level);
+		int count = 0;
+		for (int v = 0; v < tri.getVertexCount(); v++) {
+			if (tri.isInserted(v)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the levels and the maps
+	 * between them, which is the memory overhead of the hierarchy.
+	 */
+	public long getMemoryBytes() {
+		long bytes = 0;
+		for (int k = 0; k < levels.size(); k++) {
+			bytes += levels.get(k).getMemoryBytes();
+			bytes += 4L * (down[k].length + up[k].length);
+		}
+		return bytes;
+	}
+
+	/*
+	 * Returns a vertex of the mesh near the point, or NONE, by descending
+	 * the levels from the top. The hops are counted in the context. Like a
+	 * walk, this only reads the levels.
+	 */
+	int findNearVertex(double x, double y, LocateContext context) {
+		int v = NONE;
+		for (int k = levels.size() - 1; k >= 0; k--) {
+			int nearest = levels.get(k).locateNearestVertexFrom(v, x, y, context);
+			v = nearest >= 0 ? down[k][nearest] : NONE;
+		}
+		return v;
+	}
+
+	/*
+	 * Inserts a vertex that was inserted into the mesh into each level with
+	 * probability 1 / RATIO, as long as it was inserted into the level below.
+	 */
+	void vertexInserted(int v) {
+		for (int k = 0; k < levels.size() && random.nextInt(RATIO) == 0; k++) {
+			IndexedTriangulation level = levels.get(k);
+			int u = level.addVertex(getLevelBelow(k).getX(v), getLevelBelow(k).getY(v));
+			try {
+				if (!level.insertVertex(u)) {
+					return;
+				}
+			} catch (InvalidVertexException e) {
+				return;
+			}
+			if (u >= down[k].length) {
+				down[k] = Arrays.copyOf(down[k], Math.max(16, u * 2));
+			}
+			down[k][u] = v;
+			if (v >= up[k].length) {
+				int length = up[k].length;
+				up[k] = Arrays.copyOf(up[k], Math.max(16, v * 2));
+				Arrays.fill(up[k], length, up[k].length, NONE);
+			}
+			up[k][v] = u;
+			v = u;
+		}
+	}
+
+	/*
+	 * Removes a vertex that was removed from the mesh from the levels it is
+	 * on.
+	 */
+	void vertexRemoved(int v) {
+		for (int k = 0; k < levels.size() && v < up[k].length && up[k][v] != NONE; k++) {
+			int u = up[k][v];
+			up[k][v] = NONE;
+			levels.get(k).removeVertex(u);
+			v = u;
+		}
+	}
+
+	/*
+	 * The levels keep their own copies of the coordinates, so a moved vertex
+	 * is taken out of them and sampled again.
+	 */
+	void vertexMoved(int v) {
+		vertexRemoved(v);
+		vertexInserted(v);
+	}
+
+	private IndexedTriangulation getLevelBelow(int k) {
+		return k == 0 ? mesh : levels.get(k - 1);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		str.append(String.format("%d levels, %,d bytes:", levels.size(), getMemoryBytes()));
+		for (int k = 0; k < levels.size(); k++) {
+			str.append(String.format(" %,d", getVertexCount(k)));
+		}
+		return str.toString();
+	}
+}
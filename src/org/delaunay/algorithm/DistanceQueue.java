@@ -0,0 +1,94 @@
+package org.delaunay.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of squared distances, each with two ints: a vertex and
+ * the triangle it was reached through. The arrays are reused, so nothing is
+ * allocated once they are large enough.
+ */
+final class DistanceQueue {
+	private double[] keys = new double[16];
+	private int[] vertices = new int[16];
+	private int[] triangles = new int[16];
+	private int size = 0;
+	private int polledVertex;
+	private int polledTriangle;
+
+	public void clear() {
+		size = 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void add(double key, int vertex, int triangle) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			vertices = Arrays.copyOf(vertices, size * 2);
+			triangles = Arrays.copyOf(triangles, size * 2);
+		}
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			set(i, keys[parent], vertices[parent], triangles[parent]);
+			i = parent;
+		}
+		set(i, key, vertex, triangle);
+	}
+
+	/**
+	 * Returns the smallest key.
+	 */
+	public double peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * Removes the entry with the smallest key. Its vertex and triangle are
+	 * then returned by {@link #getPolledVertex()} and
+	 * {@link #getPolledTriangle()}.
+	 */
+	public void poll() {
+		polledVertex = vertices[0];
+		polledTriangle = triangles[0];
+		size--;
+		double key = keys[size];
+		int vertex = vertices[size];
+		int triangle = triangles[size];
+		int i = 0;
+		while (true) {
+			int child = i * 2 + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && keys[child + 1] < keys[child]) {
+				child++;
+			}
+			if (key <= keys[child]) {
+				break;
+			}
+			set(i, keys[child], vertices[child], triangles[child]);
+			i = child;
+		}
+		set(i, key, vertex, triangle);
+	}
+
+	public int getPolledVertex() {
+		return polledVertex;
+	}
+
+	public int getPolledTriangle() {
+		return polledTriangle;
+	}
+
+	private void set(int i, double key, int vertex, int triangle) {
+		keys[i] = key;
+		vertices[i] = vertex;
+		triangles[i] = triangle;
+	}
+}
@@ -0,0 +1,239 @@
+package org.delaunay.algorithm;
+
+import java.math.BigDecimal;
+
+import org.delaunay.model.Predicates;
+
+/**
+ * Geometric predicates for meshes whose super vertices are points at
+ * infinity, see {@link IndexedTriangulation#setGhostTriangles(boolean)}.
+ *
+ * Super vertex {@code k} is the limit of {@code R + t * D[k]} as {@code t}
+ * grows, where {@code R} is its base point, the finite coordinates it is
+ * given, and {@code D[k]} one of three fixed directions that surround the
+ * origin. Each predicate returns the sign that it takes for every large enough
+ * {@code t}, which is the sign of the leading coefficient of its determinant
+ * as a polynomial in {@code t}. The mesh is then the Delaunay triangulation of
+ * a real set of points, so insertion and walks work unchanged, while the
+ * triangles that touch a super vertex become ghost triangles: the circumcircle
+ * of a triangle with one super vertex is the open half-plane beyond its finite
+ * edge, and the triangles with only finite vertices cover exactly the convex
+ * hull.
+ *
+ * A point is passed as its coordinates and its direction, which is -1 for a
+ * finite point. The common cases reduce to the exact predicates of
+ * {@link Predicates}; ties between the leading terms, and a super vertex as
+ * the tested point of incircle, are evaluated exactly with BigDecimal.
+ */
+strictfp final class GhostPredicates {
+	private static final double[] DX = { -2, 0, 2 };
+	private static final double[] DY = { -1, 1, -1 };
+
+	// Bounds the rounding error of the filtered leading terms below
+	private static final double ERROR_BOUND = 8 * 1.1102230246251565E-16;
+
+	private GhostPredicates() {
+	}
+
+	/**
+	 * Like {@link Predicates#orient2d}, where {@code ak}, {@code bk} and
+	 * {@code ck} are the directions of the points, or -1.
+	 */
+	public static double orient(double ax, double ay, int ak, double bx, double by, int bk, double cx, double cy, int ck) {
+		int supers = (ak >= 0 ? 1 : 0) + (bk >= 0 ? 1 : 0) + (ck >= 0 ? 1 : 0);
+		switch (supers) {
+		case 0:
+			return Predicates.orient2d(ax, ay, bx, by, cx, cy);
+		case 1:
+			// The orientation is the same for each rotation of the points
+			if (ak >= 0) {
+				return orientOne(bx, by, cx, cy, ax, ay, ak);
+			} else if (bk >= 0) {
+				return orientOne(cx, cy, ax, ay, bx, by, bk);
+			}
+			return orientOne(ax, ay, bx, by, cx, cy, ck);
+		case 2:
+			// Dominated by t^2 times the cross product of the two directions,
+			// in their order after the finite point
+			if (ak < 0) {
+				return cross(bk, ck);
+			} else if (bk < 0) {
+				return cross(ck, ak);
+			}
+			return cross(ak, bk);
+		default:
+			return (DX[bk] - DX[ak]) * (DY[ck] - DY[ak]) - (DY[bk] - DY[ak]) * (DX[ck] - DX[ak]);
+		}
+	}
+
+	/**
+	 * Like {@link Predicates#incircle}: positive if d lies inside the circle
+	 * through a, b and c, which must be counter-clockwise. The directions
+	 * follow the coordinates of each point.
+	 */
+	public static double incircle(
+			double ax, double ay, int ak,
+			double bx, double by, int bk,
+			double cx, double cy, int ck,
+			double dx, double dy, int dk) {
+		int supers = (ak >= 0 ? 1 : 0) + (bk >= 0 ? 1 : 0) + (ck >= 0 ? 1 : 0);
+		if (dk >= 0) {
+			return exactIncircle(ax, ay, ak, bx, by, bk, cx, cy, ck, dx, dy, dk);
+		}
+		switch (supers) {
+		case 0:
+			return Predicates.incircle(ax, ay, bx, by, cx, cy, dx, dy);
+		case 1:
+			// The circle tends to the half-plane left of the finite edge, along
+			// with the open segment of the edge itself
+			if (ak >= 0) {
+				return incircleOne(bx, by, cx, cy, dx, dy);
+			} else if (bk >= 0) {
+				return incircleOne(cx, cy, ax, ay, dx, dy);
+			}
+			return incircleOne(ax, ay, bx, by, dx, dy);
+		case 2:
+			double lead;
+			if (ak < 0) {
+				lead = incircleTwo(ax, ay, bk, ck, dx, dy);
+			} else if (bk < 0) {
+				lead = incircleTwo(bx, by, ck, ak, dx, dy);
+			} else {
+				lead = incircleTwo(cx, cy, ak, bk, dx, dy);
+			}
+			if (!Double.isNaN(lead)) {
+				return lead;
+			}
+			return exactIncircle(ax, ay, ak, bx, by, bk, cx, cy, ck, dx, dy, dk);
+		default:
+			// Every finite point is inside the circle through the three
+			return 1;
+		}
+	}
+
+	/*
+	 * The orientation of (u, v, S) for super vertex S = r + t * D[k] is
+	 * orient2d(u, v, r) + t * cross(v - u, D[k]).
+	 */
+	private static double orientOne(double ux, double uy, double vx, double vy, double rx, double ry, int k) {
+		double lx = (vx - ux) * DY[k];
+		double ly = (vy - uy) * DX[k];
+		double lead = lx - ly;
+		if (Math.abs(lead) <= ERROR_BOUND * (Math.abs(lx) + Math.abs(ly))) {
+			lead = new BigDecimal(vx).subtract(new BigDecimal(ux)).multiply(new BigDecimal(DY[k]))
+					.subtract(new BigDecimal(vy).subtract(new BigDecimal(uy)).multiply(new BigDecimal(DX[k])))
+					.signum();
+		}
+		return lead != 0 ? lead : Predicates.orient2d(ux, uy, vx, vy, rx, ry);
+	}
+
+	private static double cross(int i, int j) {
+		return DX[i] * DY[j] - DY[i] * DX[j];
+	}
+
+	/*
+	 * d is inside the circle through u, v and a super vertex to their left
+	 * if it is left of uv, or strictly between u and v.
+	 */
+	private static double incircleOne(double ux, double uy, double vx, double vy, double dx, double dy) {
+		double orient = Predicates.orient2d(ux, uy, vx, vy, dx, dy);
+		if (orient != 0) {
+			return orient;
+		}
+		boolean between = ux != vx
+				? (ux < dx && dx < vx) || (vx < dx && dx < ux)
+				: (uy < dy && dy < vy) || (vy < dy && dy < uy);
+		return between ? 1 : -1;
+	}
+
+	/*
+	 * The circle through a and super vertices i and j, in that order, is
+	 * dominated by t^3 * cross(a - d, w), where w = |D[j]|^2 D[i] - |D[i]|^2
+	 * D[j]. Returns NaN on a tie, which the lower terms decide.
+	 */
+	private static double incircleTwo(double ax, double ay, int i, int j, double dx, double dy) {
+		double ni = DX[i] * DX[i] + DY[i] * DY[i];
+		double nj = DX[j] * DX[j] + DY[j] * DY[j];
+		double wx = nj * DX[i] - ni * DX[j];
+		double wy = nj * DY[i] - ni * DY[j];
+		double lx = (ax - dx) * wy;
+		double ly = (ay - dy) * wx;
+		double lead = lx - ly;
+		if (Math.abs(lead) > ERROR_BOUND * (Math.abs(lx) + Math.abs(ly))) {
+			return lead;
+		}
+		int sign = new BigDecimal(ax).subtract(new BigDecimal(dx)).multiply(new BigDecimal(wy))
+				.subtract(new BigDecimal(ay).subtract(new BigDecimal(dy)).multiply(new BigDecimal(wx)))
+				.signum();
+		return sign != 0 ? sign : Double.NaN;
+	}
+
+	/*
+	 * Evaluates the incircle determinant as a polynomial in t with exact
+	 * coefficients, and returns the sign of the highest non-zero one.
+	 */
+	private static double exactIncircle(
+			double ax, double ay, int ak,
+			double bx, double by, int bk,
+			double cx, double cy, int ck,
+			double dx, double dy, int dk) {
+		BigDecimal[] px = point(dx, dk, DX);
+		BigDecimal[] py = point(dy, dk, DY);
+		BigDecimal[] adx = subtract(point(ax, ak, DX), px);
+		BigDecimal[] ady = subtract(point(ay, ak, DY), py);
+		BigDecimal[] bdx = subtract(point(bx, bk, DX), px);
+		BigDecimal[] bdy = subtract(point(by, bk, DY), py);
+		BigDecimal[] cdx = subtract(point(cx, ck, DX), px);
+		BigDecimal[] cdy = subtract(point(cy, ck, DY), py);
+
+		BigDecimal[] alift = add(multiply(adx, adx), multiply(ady, ady));
+		BigDecimal[] blift = add(multiply(bdx, bdx), multiply(bdy, bdy));
+		BigDecimal[] clift = add(multiply(cdx, cdx), multiply(cdy, cdy));
+		BigDecimal[] det = add(
+				add(multiply(alift, subtract(multiply(bdx, cdy), multiply(cdx, bdy))),
+						multiply(blift, subtract(multiply(cdx, ady), multiply(adx, cdy)))),
+				multiply(clift, subtract(multiply(adx, bdy), multiply(bdx, ady))));
+		for (int i = det.length - 1; i >= 0; i--) {
+			if (det[i].signum() != 0) {
+				return det[i].signum();
+			}
+		}
+		return 0;
+	}
+
+	/*
+	 * Polynomials in t are arrays of their coefficients, constant first.
+	 */
+	private static BigDecimal[] point(double base, int k, double[] directions) {
+		return new BigDecimal[] { new BigDecimal(base), k >= 0 ? new BigDecimal(directions[k]) : BigDecimal.ZERO };
+	}
+
+	private static BigDecimal[] add(BigDecimal[] p, BigDecimal[] q) {
+		BigDecimal[] sum = new BigDecimal[Math.max(p.length, q.length)];
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] = (i < p.length ? p[i] : BigDecimal.ZERO).add(i < q.length ? q[i] : BigDecimal.ZERO);
+		}
+		return sum;
+	}
+
+	private static BigDecimal[] subtract(BigDecimal[] p, BigDecimal[] q) {
+		BigDecimal[] difference = new BigDecimal[Math.max(p.length, q.length)];
+		for (int i = 0; i < difference.length; i++) {
+			difference[i] = (i < p.length ? p[i] : BigDecimal.ZERO).subtract(i < q.length ? q[i] : BigDecimal.ZERO);
+		}
+		return difference;
+	}
+
+	private static BigDecimal[] multiply(BigDecimal[] p, BigDecimal[] q) {
+		BigDecimal[] product = new BigDecimal[p.length + q.length - 1];
+		for (int i = 0; i < product.length; i++) {
+			product[i] = BigDecimal.ZERO;
+		}
+		for (int i = 0; i < p.length; i++) {
+			for (int j = 0; j < q.length; j++) {
+				product[i + j] = product[i + j].add(p[i].multiply(q[j]));
+			}
+		}
+		return product;
+	}
+}
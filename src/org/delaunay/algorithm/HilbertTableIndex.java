@@ -34,6 +34,17 @@ public class HilbertTableIndex {
 	private static final int[][] indexes = new int[4][];
 	private static final int[][] reverse = new int[4][];
 	private static final int[][] revsqrs = new int[4][];
+
+	/*
+	 * Several levels of the curve at once: for a square and CHUNK bits of x
+	 * and y, the entry holds the 2 * CHUNK bits of the index followed by the
+	 * 2 bits of the next square.
+	 */
+	private static final int CHUNK = 4;
+	private static final int[] chunks = new int[4 << (2 * CHUNK)];
+
+	public static final int MAX_ORDER = 31;
+
 	static{
 		// using i = xb<<1 | yb
 		squares[0] = new int[]{2,0,1,0};
@@ -55,9 +66,25 @@ public class HilbertTableIndex {
 		revsqrs[1] = new int[]{3,1,1,0};
 		revsqrs[2] = new int[]{0,2,2,3};
 		revsqrs[3] = new int[]{1,3,3,2};
+
+		for (int sq = 0; sq < 4; sq++) {
+			for (int x = 0; x < 1 << CHUNK; x++) {
+				for (int y = 0; y < 1 << CHUNK; y++) {
+					int index = 0;
+					int s = sq;
+					for (int o = CHUNK - 1; o >= 0; o--) {
+						int i = ((((x >> o) & 1) << 1) | ((y >> o) & 1));
+						index = (index << 2) | indexes[s][i];
+						s = squares[s][i];
+					}
+					chunks[(sq << (2 * CHUNK)) | (x << CHUNK) | y] = (index << 2) | s;
+				}
+			}
+		}
 	}
 
 	private final int order;
+	private final long side;
 	private final int startsquare;
 
 	public HilbertTableIndex(final int order) {
@@ -66,25 +93,45 @@ public class HilbertTableIndex {
 	
 	public HilbertTableIndex(final int order, final int startsquare) {
 		if(order <= 0) throw new IllegalArgumentException("order must be > 0");
+		if(order > MAX_ORDER) throw new IllegalArgumentException("order must be <= " + MAX_ORDER);
 		this.order = order;
+		this.side = 1L << order;
 		this.startsquare = startsquare;
 	}
 
+	/**
+	 * Returns the index as an int, which only holds the full index for orders
+	 * up to 15. Prefer {@link #getIndex(int, int)}.
+	 */
 	public int getIndex(Point p) {
-		final int x = p.x;
-		final int y = p.y;
-		if (x < 0 || x >= 1 << order || y < 0 || y >= 1 << order) return -1;
-		
-		int index = 0;
+		return (int) getIndex(p.x, p.y);
+	}
+
+	/**
+	 * Returns the index of the cell (x, y) along the curve, or -1 if the cell
+	 * is outside the 2^order by 2^order grid. The index has 2 * order bits,
+	 * so it is never negative for orders up to {@link #MAX_ORDER}.
+	 */
+	public long getIndex(int x, int y) {
+		if (x < 0 || x >= side || y < 0 || y >= side) return -1;
+
+		long index = 0;
 		int sq = startsquare;
-		int o = order - 1;
-		while (o >= 0) {
+		int o = order;
+		// Levels above the last whole chunk, one at a time
+		while (o % CHUNK != 0) {
+			o--;
 			int i = ((((x >> o) & 1) << 1) | ((y >> o) & 1));
 			index = (index << 2) | indexes[sq][i];
 			sq = squares[sq][i];
-			o--;
 		}
-		
+		final int mask = (1 << CHUNK) - 1;
+		while (o > 0) {
+			o -= CHUNK;
+			int entry = chunks[(sq << (2 * CHUNK)) | (((x >> o) & mask) << CHUNK) | ((y >> o) & mask)];
+			index = (index << (2 * CHUNK)) | (entry >> 2);
+			sq = entry & 3;
+		}
 		return index;
 	}
 
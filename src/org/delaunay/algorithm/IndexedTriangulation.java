@@ -0,0 +1,2461 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.delaunay.algorithm.InsertionOrders.InsertionOrder;
+import org.delaunay.algorithm.Triangulation.DebugLogger;
+import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+import org.delaunay.algorithm.Triangulation.NonDelaunayException;
+import org.delaunay.algorithm.Triangulation.VertexExceptionStrategy;
+import org.delaunay.model.Predicates;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A Delaunay Triangulation engine that stores the mesh in primitive arrays
+ * instead of an object graph.
+ *
+ * Vertices are identified by their index into a coordinate array. Triangles
+ * are identified by their index into two parallel arrays holding three
+ * entries per triangle: the vertex indices, wound counter-clockwise, and the
+ * adjacent triangles. Adjacency entry {@code i} is the triangle across the
+ * edge opposite vertex {@code i}, or {@link #NONE} if that edge is on the
+ * boundary of the mesh.
+ *
+ * The three vertices of the super triangle are not stored with the input
+ * vertices. They have the negative indices {@link #SUPER_VERTEX},
+ * {@code SUPER_VERTEX - 1} and {@code SUPER_VERTEX - 2}, so that the indices
+ * of the input vertices are never shifted. With ghost triangles they are
+ * points at infinity, see {@link #setGhostTriangles(boolean)}.
+ *
+ * Insertion uses the same method as {@link Triangulation}: walk to the
+ * enclosing triangle, collect the cavity of triangles for which the vertex is
+ * in their circumcircle, and fan new triangles from the edges of the cavity
+ * to the vertex. The slots of the removed triangles are recycled, so the mesh
+ * never holds more than about 2n triangles and creates no objects per vertex
+ * or per triangle.
+ */
+public strictfp class IndexedTriangulation implements MeshReader {
+	public static final int NONE = -1;
+	public static final int SUPER_VERTEX = -2;
+
+	/**
+	 * The number of points each task of {@link #locateAll} and
+	 * {@link #nearestAll} walks to.
+	 */
+	public static final int QUERIES_PER_TASK = 4096;
+
+	/**
+	 * The average number of vertices per cell of the locator grid.
+	 *
+	 * @see #buildLocatorGrid()
+	 */
+	public static final int VERTICES_PER_CELL = 2;
+
+	/**
+	 * A compact copy of the triangles of a mesh. Triangle {@code t} has the
+	 * vertices {@code triangles[3t]}, {@code triangles[3t + 1]} and
+	 * {@code triangles[3t + 2]}, wound counter-clockwise, and
+	 * {@code neighbors[3t + i]} is the index of the triangle across the edge
+	 * opposite vertex {@code i}, or {@link IndexedTriangulation#NONE}.
+	 */
+	public static class Mesh {
+		public final int[] triangles;
+		public final int[] neighbors;
+
+		public Mesh(int[] triangles, int[] neighbors) {
+			this.triangles = triangles;
+			this.neighbors = neighbors;
+		}
+
+		public int getTriangleCount() {
+			return triangles.length / 3;
+		}
+	}
+
+	/**
+	 * Receives the triangles of a mesh as they become final, see
+	 * {@link IndexedTriangulation#setTriangleSink(TriangleSink)}.
+	 */
+	public static interface TriangleSink {
+		/**
+		 * Receives a triangle of the finished mesh, with its vertices wound
+		 * counter-clockwise. Super vertices have negative indices.
+		 */
+		public void triangle(int a, int b, int c);
+	}
+
+	/**
+	 * How the coordinates of the vertices are stored, see
+	 * {@link IndexedTriangulation#setCoordinatePrecision}.
+	 */
+	public static enum CoordinatePrecision {
+		/** Two doubles per vertex. */
+		DOUBLE,
+		/** Two floats per vertex, rounded to the nearest float. */
+		FLOAT,
+		/** Two ints per vertex, rounded to a grid over the given bounds. */
+		FIXED,
+		;
+	}
+
+	private static final byte INSERTED = 1;
+	private static final int PAGE_SHIFT = TriangulationSnapshot.PAGE_SHIFT;
+	static final int FREE = Integer.MIN_VALUE;
+
+	/*
+	 * Vertex storage. The coordinates are in exactly one of coords,
+	 * floatCoords and fixedCoords, the other two are null. A fixed point
+	 * coordinate q stands for origin + q * fixedStep.
+	 */
+	private double[] coords;
+	private float[] floatCoords = null;
+	private int[] fixedCoords = null;
+	private double fixedOriginX = 0;
+	private double fixedOriginY = 0;
+	private double fixedStep = 1;
+	private byte[] vertexFlags;
+	private int[] vertexTriangles;
+	private int vertexCount = 0;
+	private final double[] superCoords = new double[6];
+	private boolean hasSuperTriangle = false;
+
+	/*
+	 * Triangle storage
+	 */
+	private int[] triangleVertices = new int[0];
+	private int[] triangleNeighbors = new int[0];
+	private int[] triangleStamps = new int[0];
+	private int triangleSlots = 0;
+	private int triangleCount = 0;
+	private int freeTriangle = NONE;
+
+	/*
+	 * Scratch buffers, reused by every insertion and query.
+	 */
+	private final Scratch scratch = new Scratch();
+	private final StarPolygon star = new StarPolygon();
+	private final LocateContext locator = new LocateContext();
+	private LocatorGrid locatorGrid = null;
+	private int[] gridVertices = null;
+	private DelaunayHierarchy hierarchy = null;
+	private int stamp = 0;
+
+	/*
+	 * The pages of the arrays and of the locator grid written since the last
+	 * freeze, and the snapshot it made, so that the next freeze from that
+	 * snapshot only reads those pages. Whatever rewrites the whole mesh
+	 * forgets the snapshot instead.
+	 */
+	private boolean[] dirtyCoordPages = new boolean[0];
+	private boolean[] dirtyVertexTrianglePages = new boolean[0];
+	private boolean[] dirtyTrianglePages = new boolean[0];
+	private boolean[] dirtyGridPages = new boolean[0];
+	private WeakReference<TriangulationSnapshot> frozen = null;
+
+	private long cavityTriangleCount = 0;
+	private int maxCavitySize = 0;
+
+	private boolean keepSuperTriangle = false;
+	private int parallelThreshold = Integer.MAX_VALUE;
+	private ForkJoinPool forkJoinPool = null;
+	private int hilbertOrder = 16;
+	private InsertionOrder insertionOrder = null;
+	private double superTriangleScale = 2.0;
+	private boolean ghostTriangles = false;
+	private TriangleSink triangleSink = null;
+	private VertexExceptionStrategy vertexExceptionStrategy = VertexExceptionStrategy.THROW_EXCEPTION;
+
+	/*
+	 * Concurrent insertion state; owners is null unless it is turned on.
+	 */
+	private AtomicIntegerArray owners = null;
+	private AtomicInteger concurrentSlots = null;
+	private int concurrentBaseSlots = 0;
+	private int concurrentBaseCount = 0;
+	private int concurrentStart = NONE;
+	private ThreadLocal<Inserter> inserters = null;
+	private final List<Inserter> inserterList = new CopyOnWriteArrayList<Inserter>();
+	private final AtomicInteger inserterTokens = new AtomicInteger();
+	private final ReadWriteLock resizeLock = new ReentrantReadWriteLock();
+	private ContentionStatistics contention = new ContentionStatistics(0, 0, 0, 0);
+
+	private DebugLogger log = new DebugLogger() {
+		public void debug(String str) {
+			// null implementation
+		}
+	};
+
+	public IndexedTriangulation() {
+		this(16);
+	}
+
+	public IndexedTriangulation(int expectedVertices) {
+		expectedVertices = Math.max(expectedVertices, 1);
+		coords = new double[expectedVertices * 2];
+		vertexFlags = new byte[expectedVertices];
+		vertexTriangles = new int[expectedVertices];
+		ensureDirtyPages();
+	}
+
+	/**
+	 * Returns the number of hops of the walks of this mesh, not counting the
+	 * walks with a {@link LocateContext} of their own. Walks on the levels of
+	 * the locator hierarchy are included.
+	 */
+	public int getHopCount() {
+		return (int) locator.hops;
+	}
+
+	public int getLocateCount() {
+		return locator.locates;
+	}
+
+	/**
+	 * Returns the total number of triangles replaced by insertions.
+	 */
+	public long getCavityTriangleCount() {
+		return cavityTriangleCount;
+	}
+
+	public int getMaxCavitySize() {
+		return maxCavitySize;
+	}
+
+	/**
+	 * @see Triangulation#getScratchAllocationCount()
+	 */
+	public int getScratchAllocationCount() {
+		return scratch.allocations;
+	}
+
+	public void setDebugLogger(DebugLogger log) {
+		this.log = log;
+	}
+
+	/**
+	 * @see Triangulation#setKeepSuperTriangle(boolean)
+	 */
+	public void setKeepSuperTriangle(boolean keepSuperTriangle) {
+		this.keepSuperTriangle = keepSuperTriangle;
+	}
+
+	public boolean isKeepSuperTriangle() {
+		return keepSuperTriangle;
+	}
+
+	/**
+	 * Sets the number of vertices at or above which {@link #triangulate()}
+	 * builds the triangulation in parallel on the given pool, or on the common
+	 * pool if it is null. The result is the same as the sequential one, except
+	 * where four or more vertices are co-circular and either choice of
+	 * triangles is Delaunay. By default triangulation is always sequential.
+	 */
+	public void setParallelThreshold(int parallelThreshold, ForkJoinPool forkJoinPool) {
+		this.parallelThreshold = parallelThreshold;
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public int getHilbertOrder() {
+		return hilbertOrder;
+	}
+
+	public void setHilbertOrder(int hilbertOrder) {
+		this.hilbertOrder = hilbertOrder;
+	}
+
+	public InsertionOrder getInsertionOrder() {
+		return insertionOrder;
+	}
+
+	/**
+	 * Sets the order in which {@link #triangulate()} inserts the vertices. If
+	 * null, the vertices are inserted along a hilbert curve of the hilbert
+	 * order.
+	 */
+	public void setInsertionOrder(InsertionOrder insertionOrder) {
+		this.insertionOrder = insertionOrder;
+	}
+
+	public double getSuperTriangleScale() {
+		return superTriangleScale;
+	}
+
+	public void setSuperTriangleScale(double superTriangleScale) {
+		this.superTriangleScale = superTriangleScale;
+	}
+
+	/**
+	 * If set to true, the super vertices are points at infinity, so the
+	 * triangles that touch them are ghost triangles: each covers the open
+	 * half-plane beyond one edge of the convex hull, see
+	 * {@link GhostPredicates}. The mesh then covers the whole plane, so
+	 * vertices anywhere may be inserted and every point is located, and the
+	 * other triangles are exactly the Delaunay triangulation of the vertices,
+	 * whose boundary is the convex hull. The super triangle scale only places
+	 * the views of the super vertices. Must be set before the mesh is created.
+	 */
+	public void setGhostTriangles(boolean ghostTriangles) {
+		this.ghostTriangles = ghostTriangles;
+	}
+
+	public boolean isGhostTriangles() {
+		return ghostTriangles;
+	}
+
+	/**
+	 * Sets a sink that {@link #triangulate()} hands each triangle of the
+	 * result to once, as soon as no later insertion can replace it, so that
+	 * a consumer may write or draw the mesh while it is built. If the
+	 * insertion order moves along the x or the y axis, such as the input
+	 * order of sorted vertices, most triangles are handed over during the
+	 * sweep; otherwise, or when the mesh is built in parallel, all of them
+	 * are at the end. Sweep orders make longer walks than the default
+	 * hilbert order. The mesh itself is kept either way; see
+	 * {@link StreamingTriangulator} to bound its memory.
+	 */
+	public void setTriangleSink(TriangleSink triangleSink) {
+		this.triangleSink = triangleSink;
+	}
+
+	TriangleSink getTriangleSink() {
+		return triangleSink;
+	}
+
+	/**
+	 * Sets how the coordinates of the vertices are stored. Floats and fixed
+	 * point ints take half the memory of doubles. Each coordinate is rounded
+	 * once, when it is added or moved, and {@link #getX(int)} and
+	 * {@link #getY(int)} return the rounded value, so the predicates stay
+	 * exact on the coordinates as stored. The fixed point grid spreads 2^32
+	 * steps, a power of two apart, over the larger side of the bounds, which
+	 * is finer than floats far from the origin; vertices outside the bounds
+	 * are rejected. Must be set before any vertex is added.
+	 *
+	 * @param bounds
+	 *            the bounds of the vertices, used only by
+	 *            {@link CoordinatePrecision#FIXED}
+	 */
+	public void setCoordinatePrecision(CoordinatePrecision precision, Rectangle2D bounds) {
+		if (vertexCount > 0) {
+			throw new IllegalStateException("The coordinate precision must be set before vertices are added");
+		}
+		int capacity = vertexFlags.length * 2;
+		coords = precision == CoordinatePrecision.DOUBLE ? new double[capacity] : null;
+		floatCoords = precision == CoordinatePrecision.FLOAT ? new float[capacity] : null;
+		fixedCoords = precision == CoordinatePrecision.FIXED ? new int[capacity] : null;
+		if (precision == CoordinatePrecision.FIXED) {
+			// The step is a power of two, so the origin is a whole number of
+			// steps and the center is step zero
+			double half = Math.max(Math.max(bounds.getWidth(), bounds.getHeight()) / 2, Double.MIN_NORMAL);
+			fixedStep = Math.scalb(1.0, Math.getExponent(half / (Integer.MAX_VALUE - 1)) + 1);
+			fixedOriginX = Math.rint(bounds.getCenterX() / fixedStep) * fixedStep;
+			fixedOriginY = Math.rint(bounds.getCenterY() / fixedStep) * fixedStep;
+		}
+	}
+
+	public CoordinatePrecision getCoordinatePrecision() {
+		return coords != null ? CoordinatePrecision.DOUBLE
+				: floatCoords != null ? CoordinatePrecision.FLOAT
+				: CoordinatePrecision.FIXED;
+	}
+
+	public VertexExceptionStrategy getVertexExceptionStrategy() {
+		return vertexExceptionStrategy;
+	}
+
+	public void setVertexExceptionStrategy(VertexExceptionStrategy vertexExceptionStrategy) {
+		this.vertexExceptionStrategy = vertexExceptionStrategy;
+	}
+
+	DebugLogger getDebugLogger() {
+		return log;
+	}
+
+	/**
+	 * Stores the coordinates of a vertex and returns its index. The vertex is
+	 * not part of the mesh until {@link #triangulate()} or
+	 * {@link #insertVertex(int)} is called.
+	 */
+	public int addVertex(double x, double y) {
+		if (owners != null) {
+			return addVertexConcurrently(x, y);
+		}
+		ensureVertexCapacity(vertexCount + 1);
+		return appendVertex(x, y);
+	}
+
+	private int appendVertex(double x, double y) {
+		setCoordinates(vertexCount, x, y);
+		int v = vertexCount++;
+		vertexFlags[v] = 0;
+		setVertexTriangle(v, NONE);
+		return v;
+	}
+
+	/**
+	 * Adds the vertices from columnar coordinate arrays of equal length.
+	 */
+	public void addVertices(double[] xs, double[] ys) {
+		if (xs.length != ys.length) {
+			throw new IllegalArgumentException("xs and ys must have the same length");
+		}
+		ensureVertexCapacity(vertexCount + xs.length);
+		for (int i = 0; i < xs.length; i++) {
+			setCoordinates(vertexCount, xs[i], ys[i]);
+			vertexTriangles[vertexCount++] = NONE;
+		}
+	}
+
+	/**
+	 * Adds the vertices from an interleaved {x0, y0, x1, y1, ...} array.
+	 */
+	public void addVertices(double[] xy) {
+		if (xy.length % 2 != 0) {
+			throw new IllegalArgumentException("xy must have an even length");
+		}
+		int count = xy.length / 2;
+		ensureVertexCapacity(vertexCount + count);
+		if (coords != null) {
+			System.arraycopy(xy, 0, coords, vertexCount * 2, xy.length);
+		} else {
+			for (int i = 0; i < count; i++) {
+				setCoordinates(vertexCount + i, xy[i * 2], xy[i * 2 + 1]);
+			}
+		}
+		Arrays.fill(vertexTriangles, vertexCount, vertexCount + count, NONE);
+		vertexCount += count;
+	}
+
+	private void ensureVertexCapacity(int capacity) {
+		if (capacity > vertexFlags.length) {
+			capacity = Math.max(capacity, vertexFlags.length * 2);
+			if (coords != null) {
+				coords = Arrays.copyOf(coords, capacity * 2);
+			} else if (floatCoords != null) {
+				floatCoords = Arrays.copyOf(floatCoords, capacity * 2);
+			} else {
+				fixedCoords = Arrays.copyOf(fixedCoords, capacity * 2);
+			}
+			vertexFlags = Arrays.copyOf(vertexFlags, capacity);
+			vertexTriangles = Arrays.copyOf(vertexTriangles, capacity);
+			ensureDirtyPages();
+		}
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public double getX(int v) {
+		if (v < 0) {
+			return superCoords[(SUPER_VERTEX - v) << 1];
+		} else if (coords != null) {
+			return coords[v << 1];
+		}
+		return floatCoords != null ? floatCoords[v << 1] : fixedOriginX + fixedCoords[v << 1] * fixedStep;
+	}
+
+	public double getY(int v) {
+		if (v < 0) {
+			return superCoords[((SUPER_VERTEX - v) << 1) + 1];
+		} else if (coords != null) {
+			return coords[(v << 1) + 1];
+		}
+		return floatCoords != null ? floatCoords[(v << 1) + 1] : fixedOriginY + fixedCoords[(v << 1) + 1] * fixedStep;
+	}
+
+	private void setCoordinates(int v, double x, double y) {
+		if (coords != null) {
+			coords[v * 2] = x;
+			coords[v * 2 + 1] = y;
+		} else if (floatCoords != null) {
+			floatCoords[v * 2] = (float) x;
+			floatCoords[v * 2 + 1] = (float) y;
+		} else {
+			int qx = toFixed(x, fixedOriginX);
+			int qy = toFixed(y, fixedOriginY);
+			fixedCoords[v * 2] = qx;
+			fixedCoords[v * 2 + 1] = qy;
+		}
+		dirtyCoordPages[v >> PAGE_SHIFT] = true;
+	}
+
+	private int toFixed(double value, double origin) {
+		double q = Math.rint((value - origin) / fixedStep);
+		if (!(Math.abs(q) <= Integer.MAX_VALUE)) {
+			throw new IllegalArgumentException("Coordinate " + value + " is outside the fixed point bounds");
+		}
+		return (int) q;
+	}
+
+	/*
+	 * Returns the coordinates as doubles, copied unless they are stored as
+	 * doubles.
+	 */
+	private double[] getCoordinates() {
+		if (coords != null) {
+			return coords;
+		}
+		double[] xy = new double[vertexCount * 2];
+		for (int v = 0; v < vertexCount; v++) {
+			xy[v * 2] = getX(v);
+			xy[v * 2 + 1] = getY(v);
+		}
+		return xy;
+	}
+
+	public static boolean isSuperVertex(int v) {
+		return v <= SUPER_VERTEX;
+	}
+
+	/**
+	 * Returns true if the vertex has been successfully inserted into the
+	 * mesh.
+	 */
+	public boolean isInserted(int v) {
+		return (vertexFlags[v] & INSERTED) != 0;
+	}
+
+	/**
+	 * Returns a triangle incident to the vertex, or {@link #NONE}.
+	 */
+	public int getVertexTriangle(int v) {
+		return vertexTriangles[v];
+	}
+
+	public boolean hasSuperTriangle() {
+		return hasSuperTriangle;
+	}
+
+	/**
+	 * Returns the number of triangle slots. Valid triangle indices are less
+	 * than this number, but a slot may be free; see {@link #isTriangle(int)}.
+	 */
+	public int getTriangleSlots() {
+		return owners != null ? concurrentSlots.get() : triangleSlots;
+	}
+
+	public int getTriangleCount() {
+		return owners != null ? concurrentBaseCount + concurrentSlots.get() - concurrentBaseSlots : triangleCount;
+	}
+
+	public boolean isTriangle(int t) {
+		return t >= 0 && t < getTriangleSlots() && triangleVertices[t * 3] != FREE;
+	}
+
+	public int getTriangleVertex(int t, int i) {
+		return triangleVertices[t * 3 + i];
+	}
+
+	public int getNeighbor(int t, int i) {
+		return triangleNeighbors[t * 3 + i];
+	}
+
+	/**
+	 * Copies the live triangles into a {@link Mesh}, numbered consecutively in
+	 * the order of their slots.
+	 */
+	public Mesh toMesh() {
+		int[] compact = new int[triangleSlots];
+		int count = 0;
+		for (int t = 0; t < triangleSlots; t++) {
+			compact[t] = isTriangle(t) ? count++ : NONE;
+		}
+		int[] tris = new int[count * 3];
+		int[] neighbors = new int[count * 3];
+		for (int t = 0; t < triangleSlots; t++) {
+			int c = compact[t];
+			if (c == NONE) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				int n = triangleNeighbors[t * 3 + i];
+				tris[c * 3 + i] = triangleVertices[t * 3 + i];
+				neighbors[c * 3 + i] = n == NONE ? NONE : compact[n];
+			}
+		}
+		return new Mesh(tris, neighbors);
+	}
+
+	public boolean touchesSuperVertex(int t) {
+		int i = t * 3;
+		return triangleVertices[i] <= SUPER_VERTEX
+				|| triangleVertices[i + 1] <= SUPER_VERTEX
+				|| triangleVertices[i + 2] <= SUPER_VERTEX;
+	}
+
+	/**
+	 * True if the vertex is a corner of a triangle that touches a super
+	 * vertex. With ghost triangles this means the vertex is on the convex
+	 * hull. Rotates around the vertex, so the cost is its number of
+	 * neighbors; a stored flag could not be kept up to date by concurrent
+	 * insertion without claiming the triangles around each vertex.
+	 */
+	public boolean isOnHull(int v) {
+		int start = v >= 0 && v < vertexCount ? vertexTriangles[v] : NONE;
+		if (start == NONE) {
+			return false;
+		}
+		// Rotate counter-clockwise around v, then clockwise if the rotation
+		// stopped at the boundary
+		for (int direction = 1; direction <= 2; direction++) {
+			int t = start;
+			do {
+				if (touchesSuperVertex(t)) {
+					return true;
+				}
+				t = triangleNeighbors[t * 3 + (indexOf(t, v) + direction) % 3];
+			} while (t != NONE && t != start);
+			if (t == start) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a Delaunay Triangulation of all added vertices.
+	 *
+	 * If a parallel threshold is set and there are at least that many
+	 * vertices, the triangulation is built by a {@link ParallelTriangulator}.
+	 *
+	 * @see Triangulation#triangulate()
+	 */
+	public void triangulate() throws InvalidVertexException {
+		if (vertexCount >= parallelThreshold) {
+			resetTriangulation();
+			new ParallelTriangulator(forkJoinPool).triangulate(this);
+			return;
+		}
+		triangulate(getBoundingBox());
+	}
+
+	/**
+	 * Creates a Delaunay Triangulation of all added vertices, using a super
+	 * triangle computed from the given bounds rather than from the bounding
+	 * box of the vertices. Triangulations of different vertex sets that use
+	 * the same bounds share the same super triangle.
+	 */
+	public void triangulate(Rectangle2D bounds) throws InvalidVertexException {
+		resetTriangulation();
+		if (vertexCount == 0) {
+			return;
+		}
+
+		createSuperTriangle(bounds);
+
+		log.debug("Sorting vertices into insertion order");
+		int[] order = sortIntoInsertionOrder();
+		TriangleSweep sweep = triangleSink == null ? null : new TriangleSweep(this, order, triangleSink);
+
+		log.debug("Building Triangulation");
+		for (int v : order) {
+			try {
+				if (insertVertex(v) && sweep != null) {
+					sweep.inserted(v);
+				}
+			} catch (InvalidVertexException e) {
+				if (vertexExceptionStrategy == VertexExceptionStrategy.THROW_EXCEPTION) {
+					throw e;
+				}
+			}
+		}
+
+		locator.last = NONE;
+		if (!keepSuperTriangle) {
+			removeSuperTriangle();
+		}
+		if (sweep != null) {
+			sweep.finish();
+		}
+
+		log.debug("Triangulation Complete");
+	}
+
+	public void clear() {
+		resetTriangulation();
+		vertexCount = 0;
+	}
+
+	private void resetTriangulation() {
+		setConcurrentInsertion(false);
+		frozen = null;
+		triangleSlots = 0;
+		triangleCount = 0;
+		freeTriangle = NONE;
+		hasSuperTriangle = false;
+		locator.last = NONE;
+		clearLocatorGrid();
+		clearLocatorHierarchy();
+		Arrays.fill(vertexFlags, 0, vertexCount, (byte) 0);
+		Arrays.fill(vertexTriangles, 0, vertexCount, NONE);
+	}
+
+	public Rectangle2D getBoundingBox() {
+		if (vertexCount == 0) {
+			return null;
+		}
+		double minX = getX(0), maxX = minX;
+		double minY = getY(0), maxY = minY;
+		for (int v = 1; v < vertexCount; v++) {
+			double x = getX(v);
+			double y = getY(v);
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+		return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+	}
+
+	/*
+	 * Orders the vertices with the insertion order strategy, scaling curves to
+	 * the bounding box of the super triangle.
+	 */
+	private int[] sortIntoInsertionOrder() {
+		Rectangle2D bbox = new Rectangle2D.Double(superCoords[0], superCoords[5], 0, 0);
+		for (int i = 0; i < 3; i++) {
+			bbox.add(superCoords[i * 2], superCoords[i * 2 + 1]);
+		}
+		InsertionOrder strategy = insertionOrder != null
+				? insertionOrder
+				: InsertionOrders.createHilbert(hilbertOrder);
+		return strategy.getOrder(getCoordinates(), vertexCount, bbox);
+	}
+
+	/**
+	 * @see Triangulation#createSuperTriangle(Rectangle2D)
+	 */
+	public void createSuperTriangle(Rectangle2D rect) {
+		resetTriangulation();
+		double dmax = Math.max(rect.getWidth(), rect.getHeight());
+		if (dmax == 0) {
+			dmax = 1.0;
+		}
+		double xmid = rect.getCenterX();
+		double ymid = rect.getCenterY();
+
+		superCoords[0] = xmid - dmax * superTriangleScale;
+		superCoords[1] = ymid - dmax;
+		superCoords[2] = xmid;
+		superCoords[3] = ymid + dmax * superTriangleScale;
+		superCoords[4] = xmid + dmax * superTriangleScale;
+		superCoords[5] = ymid - dmax;
+		hasSuperTriangle = true;
+
+		int t = allocateTriangle();
+		if (orient(SUPER_VERTEX, SUPER_VERTEX - 1, SUPER_VERTEX - 2) > 0) {
+			setTriangle(t, SUPER_VERTEX, SUPER_VERTEX - 1, SUPER_VERTEX - 2);
+		} else {
+			setTriangle(t, SUPER_VERTEX, SUPER_VERTEX - 2, SUPER_VERTEX - 1);
+		}
+		setNeighbors(t, NONE, NONE, NONE);
+	}
+
+	/*
+	 * Replaces the mesh with triangles that were built elsewhere. The super
+	 * vertices in the mesh must belong to the super triangle of the given
+	 * bounds. Every vertex of a triangle is marked as inserted.
+	 */
+	void loadMesh(Mesh mesh, Rectangle2D superBounds) {
+		createSuperTriangle(superBounds);
+		int count = mesh.getTriangleCount();
+		triangleVertices = Arrays.copyOf(mesh.triangles, Math.max(count, 16) * 3);
+		triangleNeighbors = Arrays.copyOf(mesh.neighbors, Math.max(count, 16) * 3);
+		triangleStamps = new int[Math.max(count, 16)];
+		ensureDirtyPages();
+		triangleSlots = count;
+		triangleCount = count;
+		freeTriangle = NONE;
+		for (int t = 0; t < count; t++) {
+			for (int i = 0; i < 3; i++) {
+				int v = triangleVertices[t * 3 + i];
+				if (v >= 0) {
+					setVertexTriangle(v, t);
+					vertexFlags[v] |= INSERTED;
+				}
+			}
+		}
+		locator.last = NONE;
+	}
+
+	/**
+	 * Removes all triangles that touch a vertex of the super triangle. Edges
+	 * left without a neighbor become the boundary of the mesh.
+	 */
+	public void removeSuperTriangle() {
+		if (!hasSuperTriangle) {
+			return;
+		}
+		int removed = nextStamp();
+		for (int t = 0; t < triangleSlots; t++) {
+			if (isTriangle(t) && touchesSuperVertex(t)) {
+				triangleStamps[t] = removed;
+				for (int i = 0; i < 3; i++) {
+					int v = triangleVertices[t * 3 + i];
+					if (v >= 0) {
+						setVertexTriangle(v, NONE);
+					}
+				}
+			}
+		}
+		for (int t = 0; t < triangleSlots; t++) {
+			if (!isTriangle(t) || triangleStamps[t] == removed) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				int n = triangleNeighbors[t * 3 + i];
+				if (n != NONE && triangleStamps[n] == removed) {
+					setNeighbor(t, i, NONE);
+					for (int j = 0; j < 3; j++) {
+						setVertexTriangle(triangleVertices[t * 3 + j], t);
+					}
+				}
+			}
+		}
+		for (int t = 0; t < triangleSlots; t++) {
+			if (isTriangle(t) && triangleStamps[t] == removed) {
+				releaseTriangle(t);
+			}
+		}
+		hasSuperTriangle = false;
+		locator.last = NONE;
+	}
+
+	/**
+	 * Inserts a previously added vertex into the mesh. Returns false if the
+	 * vertex was dropped because it is outside the mesh or would cause a
+	 * degenerate triangle.
+	 *
+	 * @throws InvalidVertexException
+	 *             if the vertex overlaps an existing vertex, or the mesh is
+	 *             no longer Delaunay.
+	 * @see #setConcurrentInsertion(boolean)
+	 */
+	public boolean insertVertex(int v) throws InvalidVertexException {
+		if (owners != null) {
+			return inserters.get().insert(v);
+		}
+
+		double x = getX(v);
+		double y = getY(v);
+
+		int t;
+		try {
+			t = locate(x, y);
+		} catch (NonDelaunayException e) {
+			throw new InvalidVertexException();
+		}
+		if (t == NONE) {
+			log.debug(String.format("Dropping vertex %d because it outside the triangulation!\nMaybe something went wrong when computing the super triangle?", v));
+			return false;
+		}
+		return insertVertex(v, t);
+	}
+
+	/*
+	 * Inserts vertex v into the triangle t that contains it.
+	 */
+	boolean insertVertex(int v, int t) throws InvalidVertexException {
+		double x = getX(v);
+		double y = getY(v);
+		if (overlapsVertex(t, x, y)) {
+			throw new InvalidVertexException();
+		}
+
+		collectCavity(t, x, y);
+		cavityTriangleCount += scratch.cavitySize;
+		maxCavitySize = Math.max(maxCavitySize, scratch.cavitySize);
+
+		/*
+		 * Every edge of the cavity must be visible from the vertex, otherwise
+		 * the new triangles would overlap. We check before modifying the mesh
+		 * so there is nothing to roll back.
+		 */
+		if (!isCavityVisible(scratch, x, y)) {
+			log.debug(String.format("Dropping vertex %d because it causes degeneracy.\nYou may need to use exact math on this vertex.", v));
+			return false;
+		}
+
+		/*
+		 * The fan reuses the slots of the cavity, and takes the remaining
+		 * slots from the free list.
+		 */
+		int edges = scratch.boundarySize / 3;
+		int[] fan = scratch.ensureFan(edges);
+		for (int k = 0; k < edges; k++) {
+			fan[k] = k < scratch.cavitySize ? scratch.cavity[k] : allocateTriangle();
+		}
+		for (int k = edges; k < scratch.cavitySize; k++) {
+			releaseTriangle(scratch.cavity[k]);
+		}
+		fillCavity(scratch, v);
+		locator.last = vertexTriangles[v];
+		patchLocatorGrid(x, y, v);
+		vertexFlags[v] |= INSERTED;
+		if (hierarchy != null) {
+			hierarchy.vertexInserted(v);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes an inserted vertex from the mesh and fills the hole with
+	 * Delaunay triangles between its neighbors, see {@link StarPolygon}. The
+	 * cost depends only on the number of neighbors. Returns false if the
+	 * vertex was not inserted.
+	 *
+	 * If the super triangle has been removed, the triangles between the
+	 * neighbors of a vertex on the boundary are only added where they are
+	 * Delaunay, so the boundary may become the chain of neighbors.
+	 */
+	public boolean removeVertex(int v) {
+		checkNotConcurrent();
+		if (isSuperVertex(v)) {
+			throw new IllegalArgumentException("Can not remove a vertex of the super triangle");
+		}
+		if (!isInserted(v)) {
+			return false;
+		}
+		vertexFlags[v] &= ~INSERTED;
+		int t = vertexTriangles[v];
+		setVertexTriangle(v, NONE);
+		if (t == NONE) {
+			return true;
+		}
+		boolean closed = collectStar(t, v);
+
+		/*
+		 * The cavity buffer holds the triangles around v and the boundary
+		 * buffer their outer edges as (a, b, outside triangle) triples, so the
+		 * corners of the star polygon are the first vertices of the edges.
+		 */
+		Scratch s = scratch;
+		int edges = s.boundarySize / 3;
+		star.reset(closed);
+		for (int i = 0; i < edges; i++) {
+			int u = s.boundary[i * 3];
+			star.add(getX(u), getY(u), direction(u));
+		}
+		if (!closed) {
+			int u = s.boundary[edges * 3 - 2];
+			star.add(getX(u), getY(u), direction(u));
+		}
+		int count = star.triangulate();
+
+		int[] fan = s.ensureFan(count);
+		for (int k = 0; k < count; k++) {
+			fan[k] = k < s.cavitySize ? s.cavity[k] : allocateTriangle();
+			setTriangle(fan[k], getCorner(s, star.getCorner(k, 0)),
+					getCorner(s, star.getCorner(k, 1)), getCorner(s, star.getCorner(k, 2)));
+		}
+		for (int k = count; k < s.cavitySize; k++) {
+			releaseTriangle(s.cavity[k]);
+		}
+
+		// Edges of the star polygon keep their outside triangle, and the
+		// diagonals are shared by two of the new triangles.
+		for (int k = 0; k < count; k++) {
+			for (int i = 0; i < 3; i++) {
+				int a = star.getCorner(k, (i + 1) % 3);
+				int b = star.getCorner(k, (i + 2) % 3);
+				int n = NONE;
+				if (b == a + 1 || (closed && a == edges - 1 && b == 0)) {
+					n = s.boundary[a * 3 + 2];
+					if (n != NONE) {
+						setNeighbor(n, indexOfOpposite(n, s.boundary[a * 3], s.boundary[a * 3 + 1]), fan[k]);
+					}
+				} else {
+					n = findDiagonal(fan, count, k, b, a);
+				}
+				setNeighbor(fan[k], i, n);
+			}
+		}
+
+		// A neighbor may have had no other triangles
+		for (int i = 0; i < edges; i++) {
+			int a = s.boundary[i * 3];
+			int b = s.boundary[i * 3 + 1];
+			if (a >= 0) {
+				setVertexTriangle(a, NONE);
+			}
+			if (b >= 0) {
+				setVertexTriangle(b, NONE);
+			}
+		}
+
+		// Edges that were not covered are on the boundary now
+		for (int i = 0; i < edges; i++) {
+			int a = s.boundary[i * 3];
+			int b = s.boundary[i * 3 + 1];
+			int n = s.boundary[i * 3 + 2];
+			if (n != NONE && !isCoveredEdge(count, i)) {
+				setNeighbor(n, indexOfOpposite(n, a, b), NONE);
+			}
+			if (n != NONE) {
+				if (a >= 0) {
+					setVertexTriangle(a, n);
+				}
+				if (b >= 0) {
+					setVertexTriangle(b, n);
+				}
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			for (int i = 0; i < 3; i++) {
+				int u = triangleVertices[fan[k] * 3 + i];
+				if (u >= 0) {
+					setVertexTriangle(u, fan[k]);
+				}
+			}
+		}
+		locator.last = count > 0 ? fan[0] : NONE;
+		for (int i = 0; i < edges; i++) {
+			if (s.boundary[i * 3] >= 0 && vertexTriangles[s.boundary[i * 3]] != NONE) {
+				patchLocatorGrid(getX(v), getY(v), s.boundary[i * 3]);
+				break;
+			}
+		}
+		if (hierarchy != null) {
+			hierarchy.vertexRemoved(v);
+		}
+		return true;
+	}
+
+	/**
+	 * Moves an inserted vertex to (x, y). If the triangles around the vertex
+	 * stay counter-clockwise and Delaunay at the new location, only its
+	 * coordinates change, and true is returned. Otherwise the vertex is
+	 * removed and inserted again at the new location, and false is returned.
+	 * Either way the cost depends only on the neighbors of the old and new
+	 * locations, apart from the walk to the new location. A vertex that is
+	 * not inserted is only given the new coordinates.
+	 *
+	 * @throws InvalidVertexException
+	 *             if the vertex can not be inserted at the new location
+	 *             because it overlaps another vertex or is outside the mesh.
+	 *             The vertex is then put back at its old location.
+	 */
+	public boolean moveVertex(int v, double x, double y) throws InvalidVertexException {
+		checkNotConcurrent();
+		double oldX = getX(v);
+		double oldY = getY(v);
+		setCoordinates(v, x, y);
+		if (!isInserted(v)) {
+			return false;
+		}
+		// The checks use the coordinates as stored
+		x = getX(v);
+		y = getY(v);
+		if (vertexTriangles[v] != NONE && canMoveInPlace(v, x, y)) {
+			patchLocatorGrid(x, y, v);
+			if (hierarchy != null) {
+				hierarchy.vertexMoved(v);
+			}
+			return true;
+		}
+
+		setCoordinates(v, oldX, oldY);
+		removeVertex(v);
+		setCoordinates(v, x, y);
+		boolean inserted;
+		try {
+			inserted = insertVertex(v);
+		} catch (InvalidVertexException e) {
+			inserted = false;
+		}
+		if (!inserted) {
+			setCoordinates(v, oldX, oldY);
+			insertVertex(v);
+			throw new InvalidVertexException();
+		}
+		return false;
+	}
+
+	/*
+	 * True if every triangle around v is still counter-clockwise, and every
+	 * edge of those triangles still locally Delaunay, with v at (x, y). Then
+	 * the whole mesh is still Delaunay. Vertices on the boundary are always
+	 * reinserted, since moving them may change the convex hull.
+	 */
+	private boolean canMoveInPlace(int v, double x, double y) {
+		if (!collectStar(vertexTriangles[v], v)) {
+			return false;
+		}
+		Scratch s = scratch;
+		int edges = s.boundarySize / 3;
+		for (int i = 0; i < edges; i++) {
+			int a = s.boundary[i * 3];
+			int b = s.boundary[i * 3 + 1];
+			int n = s.boundary[i * 3 + 2];
+			if (orient(a, b, x, y) <= 0) {
+				return false;
+			}
+			if (n != NONE) {
+				int o = triangleVertices[n * 3 + indexOfOpposite(n, a, b)];
+				if (inCircle(x, y, a, b, o)) {
+					return false;
+				}
+			}
+			// The next corner of the star is across the edge from v to b
+			int c = s.boundary[((i + 1) % edges) * 3 + 1];
+			if (inCircle(x, y, a, b, c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Collects the triangles around v, counter-clockwise and starting from
+	 * the first one after the boundary if v is on the boundary, into the
+	 * cavity buffer, and their edges opposite v into the boundary buffer.
+	 * Returns false if v is on the boundary.
+	 */
+	private boolean collectStar(int t, int v) {
+		int first = t;
+		boolean closed = true;
+		for (;;) {
+			int i = indexOf(first, v);
+			int previous = triangleNeighbors[first * 3 + (i + 2) % 3];
+			if (previous == NONE) {
+				closed = false;
+				break;
+			}
+			if (previous == t) {
+				break;
+			}
+			first = previous;
+		}
+
+		Scratch s = scratch;
+		s.cavitySize = 0;
+		s.boundarySize = 0;
+		t = first;
+		do {
+			int i = indexOf(t, v);
+			s.pushCavity(t);
+			s.pushBoundary(
+					triangleVertices[t * 3 + (i + 1) % 3],
+					triangleVertices[t * 3 + (i + 2) % 3],
+					triangleNeighbors[t * 3 + i]);
+			t = triangleNeighbors[t * 3 + (i + 1) % 3];
+		} while (t != NONE && t != first);
+		return closed;
+	}
+
+	private int indexOf(int t, int v) {
+		for (int i = 0; i < 3; i++) {
+			if (triangleVertices[t * 3 + i] == v) {
+				return i;
+			}
+		}
+		throw new NonDelaunayException();
+	}
+
+	/*
+	 * Returns the vertex at a corner of the star polygon collected by
+	 * collectStar.
+	 */
+	private static int getCorner(Scratch s, int corner) {
+		return corner * 3 < s.boundarySize ? s.boundary[corner * 3] : s.boundary[s.boundarySize - 2];
+	}
+
+	/*
+	 * Returns the new triangle, other than k, that has the directed edge ab.
+	 */
+	private int findDiagonal(int[] fan, int count, int k, int a, int b) {
+		for (int j = 0; j < count; j++) {
+			if (j == k) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				if (star.getCorner(j, i) == a && star.getCorner(j, (i + 1) % 3) == b) {
+					return fan[j];
+				}
+			}
+		}
+		return NONE;
+	}
+
+	/*
+	 * True if edge i of the star polygon is an edge of one of the new
+	 * triangles.
+	 */
+	private boolean isCoveredEdge(int count, int edge) {
+		int end = edge + 1 == star.size() ? 0 : edge + 1;
+		for (int k = 0; k < count; k++) {
+			for (int i = 0; i < 3; i++) {
+				if (star.getCorner(k, i) == edge && star.getCorner(k, (i + 1) % 3) == end) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void checkNotConcurrent() {
+		if (owners != null) {
+			throw new IllegalStateException("Vertices can not be removed or moved during concurrent insertion");
+		}
+	}
+
+	private boolean overlapsVertex(int t, double x, double y) {
+		for (int i = 0; i < 3; i++) {
+			int u = triangleVertices[t * 3 + i];
+			if (getX(u) == x && getY(u) == y && direction(u) < 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isCavityVisible(Scratch s, double x, double y) {
+		for (int i = 0; i < s.boundarySize; i += 3) {
+			if (orient(s.boundary[i], s.boundary[i + 1], x, y) <= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Collects the triangles for which (x, y) is in their circumcircle,
+	 * starting with the triangle t, into the cavity buffer. The edges of the
+	 * cavity are collected into the boundary buffer as (a, b, outside
+	 * triangle) triples, wound counter-clockwise around the cavity.
+	 */
+	private void collectCavity(int t, double x, double y) {
+		int in = nextStamp();
+		int out = nextStamp();
+		Scratch s = scratch;
+		s.cavitySize = 0;
+		s.boundarySize = 0;
+
+		triangleStamps[t] = in;
+		s.pushCavity(t);
+		for (int c = 0; c < s.cavitySize; c++) {
+			int tri = s.cavity[c];
+			for (int i = 0; i < 3; i++) {
+				int n = triangleNeighbors[tri * 3 + i];
+				if (n != NONE) {
+					int st = triangleStamps[n];
+					if (st == in) {
+						continue;
+					}
+					if (st != out) {
+						if (inCircle(n, x, y)) {
+							triangleStamps[n] = in;
+							s.pushCavity(n);
+							continue;
+						}
+						triangleStamps[n] = out;
+					}
+				}
+				s.pushBoundary(
+						triangleVertices[tri * 3 + (i + 1) % 3],
+						triangleVertices[tri * 3 + (i + 2) % 3],
+						n);
+			}
+		}
+	}
+
+	/*
+	 * Replaces the cavity with a fan of triangles from its edges to the
+	 * vertex v. The triangles are written into the slots of the fan buffer,
+	 * one per edge of the cavity.
+	 */
+	private void fillCavity(Scratch s, int v) {
+		int mask = s.clearLinks(s.boundarySize / 3);
+		int[] fan = s.fan;
+		int[] linkKeys = s.linkKeys;
+		int[] linkValues = s.linkValues;
+
+		int t = NONE;
+		for (int i = 0; i < s.boundarySize; i += 3) {
+			int a = s.boundary[i];
+			int b = s.boundary[i + 1];
+			int n = s.boundary[i + 2];
+
+			t = fan[i / 3];
+			setTriangle(t, a, b, v);
+			setNeighbors(t, NONE, NONE, n);
+			if (n != NONE) {
+				setNeighbor(n, indexOfOpposite(n, a, b), t);
+			}
+			if (a >= 0) {
+				setVertexTriangle(a, t);
+			}
+
+			// Remember the new triangle by the first vertex of its edge
+			int h = hash(a) & mask;
+			while (linkKeys[h] != FREE) {
+				h = (h + 1) & mask;
+			}
+			linkKeys[h] = a;
+			linkValues[h] = t;
+		}
+		setVertexTriangle(v, t);
+
+		// Link the fan: the edge (b, v) of one triangle is the edge (v, b) of
+		// the triangle whose cavity edge starts at b.
+		for (int i = 0; i < s.boundarySize; i += 3) {
+			int b = s.boundary[i + 1];
+			int h = hash(b) & mask;
+			while (linkKeys[h] != b) {
+				h = (h + 1) & mask;
+			}
+			int tri = fan[i / 3];
+			int next = linkValues[h];
+			setNeighbor(tri, 0, next);
+			setNeighbor(next, 1, tri);
+		}
+	}
+
+	private int allocateTriangle() {
+		int t;
+		if (freeTriangle != NONE) {
+			t = freeTriangle;
+			freeTriangle = triangleNeighbors[t * 3];
+		} else {
+			if (triangleSlots * 3 == triangleVertices.length) {
+				int capacity = Math.max(16, triangleSlots * 2);
+				triangleVertices = Arrays.copyOf(triangleVertices, capacity * 3);
+				triangleNeighbors = Arrays.copyOf(triangleNeighbors, capacity * 3);
+				triangleStamps = Arrays.copyOf(triangleStamps, capacity);
+				ensureDirtyPages();
+			}
+			t = triangleSlots++;
+		}
+		triangleStamps[t] = 0;
+		triangleCount++;
+		return t;
+	}
+
+	private void releaseTriangle(int t) {
+		triangleVertices[t * 3] = FREE;
+		triangleNeighbors[t * 3] = freeTriangle;
+		dirtyTrianglePages[t >> PAGE_SHIFT] = true;
+		freeTriangle = t;
+		triangleCount--;
+	}
+
+	private void setTriangle(int t, int a, int b, int c) {
+		triangleVertices[t * 3] = a;
+		triangleVertices[t * 3 + 1] = b;
+		triangleVertices[t * 3 + 2] = c;
+		dirtyTrianglePages[t >> PAGE_SHIFT] = true;
+	}
+
+	private void setNeighbors(int t, int na, int nb, int nc) {
+		triangleNeighbors[t * 3] = na;
+		triangleNeighbors[t * 3 + 1] = nb;
+		triangleNeighbors[t * 3 + 2] = nc;
+		dirtyTrianglePages[t >> PAGE_SHIFT] = true;
+	}
+
+	private void setNeighbor(int t, int i, int n) {
+		triangleNeighbors[t * 3 + i] = n;
+		dirtyTrianglePages[t >> PAGE_SHIFT] = true;
+	}
+
+	private void setVertexTriangle(int v, int t) {
+		vertexTriangles[v] = t;
+		dirtyVertexTrianglePages[v >> PAGE_SHIFT] = true;
+	}
+
+	private int indexOfOpposite(int t, int a, int b) {
+		for (int i = 0; i < 3; i++) {
+			int v = triangleVertices[t * 3 + i];
+			if (v != a && v != b) {
+				return i;
+			}
+		}
+		throw new NonDelaunayException();
+	}
+
+	private int nextStamp() {
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(triangleStamps, 0);
+			stamp = 0;
+		}
+		return ++stamp;
+	}
+
+	private static int hash(int v) {
+		return (v * 0x9E3779B9) >>> 16;
+	}
+
+	/*
+	 * Buffers reused by every insertion and query of one thread.
+	 */
+	private static final class Scratch {
+		private int[] cavity = new int[16];
+		private int cavitySize = 0;
+		private int[] boundary = new int[3 * 16];
+		private int boundarySize = 0;
+		private int[] fan = new int[16];
+		private int[] linkKeys = new int[32];
+		private int[] linkValues = new int[32];
+		private int allocations = 5;
+
+		private void pushCavity(int t) {
+			if (cavitySize == cavity.length) {
+				cavity = Arrays.copyOf(cavity, cavitySize * 2);
+				allocations++;
+			}
+			cavity[cavitySize++] = t;
+		}
+
+		private void pushBoundary(int a, int b, int n) {
+			if (boundarySize == boundary.length) {
+				boundary = Arrays.copyOf(boundary, boundarySize * 2);
+				allocations++;
+			}
+			boundary[boundarySize++] = a;
+			boundary[boundarySize++] = b;
+			boundary[boundarySize++] = n;
+		}
+
+		private int[] ensureFan(int edges) {
+			if (fan.length < edges) {
+				fan = new int[Integer.highestOneBit(edges) * 2];
+				allocations++;
+			}
+			return fan;
+		}
+
+		/*
+		 * Empties the link table for a fan of the given size and returns the
+		 * mask for its hash slots.
+		 */
+		private int clearLinks(int edges) {
+			int capacity = Integer.highestOneBit(Math.max(edges, 4) * 2) * 2;
+			if (linkKeys.length < capacity) {
+				linkKeys = new int[capacity];
+				linkValues = new int[capacity];
+				allocations += 2;
+			}
+			Arrays.fill(linkKeys, 0, capacity, FREE);
+			return capacity - 1;
+		}
+	}
+
+	/**
+	 * Lets any number of threads call {@link #addVertex(double, double)} and
+	 * {@link #insertVertex(int)} at the same time, for example to insert
+	 * points as they arrive from several streams.
+	 *
+	 * Each insertion claims the triangles of its cavity, and the triangles
+	 * around it, by compare-and-set on an owner array. If another thread
+	 * holds one of them, the insertion releases its claims and starts over.
+	 * No other method may be called while concurrent insertion is on. It is
+	 * turned off by {@link #triangulate()} and
+	 * {@link #createSuperTriangle(Rectangle2D)}.
+	 *
+	 * @see #getContentionStatistics()
+	 */
+	public void setConcurrentInsertion(boolean concurrent) {
+		if (concurrent == (owners != null)) {
+			return;
+		}
+		if (concurrent) {
+			frozen = null;
+			concurrentSlots = new AtomicInteger(triangleSlots);
+			concurrentBaseSlots = triangleSlots;
+			concurrentBaseCount = triangleCount;
+			concurrentStart = firstTriangle();
+			ensureConcurrentCapacity(vertexFlags.length);
+			inserterList.clear();
+			inserters = new ThreadLocal<Inserter>() {
+				@Override
+				protected Inserter initialValue() {
+					Inserter inserter = new Inserter(inserterTokens.incrementAndGet());
+					inserterList.add(inserter);
+					return inserter;
+				}
+			};
+		} else {
+			contention = sumContention();
+			for (Inserter inserter : inserterList) {
+				locator.hops += inserter.hops;
+				locator.locates += inserter.locates;
+			}
+			triangleCount = getTriangleCount();
+			triangleSlots = concurrentSlots.get();
+			owners = null;
+			inserters = null;
+			inserterList.clear();
+			Arrays.fill(triangleStamps, 0);
+			stamp = 0;
+		}
+	}
+
+	public boolean isConcurrentInsertion() {
+		return owners != null;
+	}
+
+	/**
+	 * Returns the contention counters of the current concurrent insertion, or
+	 * of the last one if it has ended.
+	 */
+	public ContentionStatistics getContentionStatistics() {
+		return owners != null ? sumContention() : contention;
+	}
+
+	private ContentionStatistics sumContention() {
+		long inserts = 0, retries = 0, cavityConflicts = 0, locateRestarts = 0;
+		for (Inserter inserter : inserterList) {
+			inserts += inserter.inserts;
+			retries += inserter.retries;
+			cavityConflicts += inserter.cavityConflicts;
+			locateRestarts += inserter.locateRestarts;
+		}
+		return new ContentionStatistics(inserts, retries, cavityConflicts, locateRestarts);
+	}
+
+	/*
+	 * Every concurrent insertion reuses the slots of its cavity and takes two
+	 * new slots, so the triangle arrays are sized up front for all vertices
+	 * that fit in the vertex arrays. Called only while no thread is inserting.
+	 */
+	private void ensureConcurrentCapacity(int vertexCapacity) {
+		int capacity = concurrentBaseSlots + 2 * vertexCapacity;
+		if (triangleStamps.length < capacity) {
+			triangleVertices = Arrays.copyOf(triangleVertices, capacity * 3);
+			triangleNeighbors = Arrays.copyOf(triangleNeighbors, capacity * 3);
+			triangleStamps = Arrays.copyOf(triangleStamps, capacity);
+			ensureDirtyPages();
+		}
+		if (owners == null || owners.length() < triangleStamps.length) {
+			owners = new AtomicIntegerArray(triangleStamps.length);
+		}
+	}
+
+	private int addVertexConcurrently(double x, double y) {
+		resizeLock.readLock().lock();
+		try {
+			synchronized (this) {
+				if (vertexCount < vertexFlags.length) {
+					return appendVertex(x, y);
+				}
+			}
+		} finally {
+			resizeLock.readLock().unlock();
+		}
+		resizeLock.writeLock().lock();
+		try {
+			ensureVertexCapacity(vertexCount + 1);
+			ensureConcurrentCapacity(vertexFlags.length);
+			return appendVertex(x, y);
+		} finally {
+			resizeLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Counts of the conflicts between threads inserting concurrently.
+	 */
+	public static class ContentionStatistics {
+		/** Insertions that completed, including dropped vertices. */
+		public final long inserts;
+		/** Attempts that were abandoned and started over. */
+		public final long retries;
+		/** Retries caused by a cavity triangle claimed by another thread. */
+		public final long cavityConflicts;
+		/** Walks that lost their way in a changing mesh and started over. */
+		public final long locateRestarts;
+
+		public ContentionStatistics(long inserts, long retries, long cavityConflicts, long locateRestarts) {
+			this.inserts = inserts;
+			this.retries = retries;
+			this.cavityConflicts = cavityConflicts;
+			this.locateRestarts = locateRestarts;
+		}
+
+		public double getRetriesPerInsert() {
+			return inserts == 0 ? 0 : (double) retries / inserts;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d inserts, %.4f retries per insert, %d cavity conflicts, %d locate restarts",
+					inserts, getRetriesPerInsert(), cavityConflicts, locateRestarts);
+		}
+	}
+
+	/*
+	 * Inserts vertices for one thread during concurrent insertion. A triangle
+	 * may only be written by the thread whose token is in its owner slot, and
+	 * claims are only held for the duration of one attempt. Walks read the
+	 * mesh without claims, so their result is checked once it is claimed.
+	 */
+	private final class Inserter {
+		private static final int DONE = 0;
+		private static final int DROPPED = 1;
+		private static final int OVERLAP = 2;
+		private static final int RETRY = 3;
+
+		private static final int IN = 1;
+		private static final int OUT = 2;
+
+		private final int token;
+		private final Scratch scratch = new Scratch();
+		private int[] claimed = new int[32];
+		private int claimedSize = 0;
+		private int lastTriangle = NONE;
+
+		private long inserts = 0;
+		private long retries = 0;
+		private long cavityConflicts = 0;
+		private long locateRestarts = 0;
+		private long hops = 0;
+		private long locates = 0;
+
+		public Inserter(int token) {
+			this.token = token;
+		}
+
+		public boolean insert(int v) throws InvalidVertexException {
+			int result;
+			resizeLock.readLock().lock();
+			try {
+				double x = getX(v);
+				double y = getY(v);
+				while (true) {
+					try {
+						result = tryInsert(v, x, y);
+					} finally {
+						releaseClaims();
+					}
+					if (result != RETRY) {
+						break;
+					}
+					retries++;
+					Thread.yield();
+				}
+				inserts++;
+			} finally {
+				resizeLock.readLock().unlock();
+			}
+
+			if (result == OVERLAP) {
+				throw new InvalidVertexException();
+			}
+			if (result == DROPPED) {
+				log.debug(String.format("Dropping vertex %d because it is outside the triangulation or causes degeneracy.", v));
+				return false;
+			}
+			return true;
+		}
+
+		private int tryInsert(int v, double x, double y) {
+			int t = walk(x, y);
+			if (!claim(t)) {
+				return RETRY;
+			}
+			for (int i = 0; i < 3; i++) {
+				int a = triangleVertices[t * 3 + (i + 1) % 3];
+				int b = triangleVertices[t * 3 + (i + 2) % 3];
+				if (orient(a, b, x, y) < 0) {
+					return triangleNeighbors[t * 3 + i] == NONE ? DROPPED : RETRY;
+				}
+			}
+			if (overlapsVertex(t, x, y)) {
+				return OVERLAP;
+			}
+
+			Scratch s = scratch;
+			s.cavitySize = 0;
+			s.boundarySize = 0;
+			triangleStamps[t] = IN;
+			s.pushCavity(t);
+			for (int c = 0; c < s.cavitySize; c++) {
+				int tri = s.cavity[c];
+				for (int i = 0; i < 3; i++) {
+					int n = triangleNeighbors[tri * 3 + i];
+					if (n != NONE) {
+						if (!claim(n)) {
+							cavityConflicts++;
+							return RETRY;
+						}
+						int st = triangleStamps[n];
+						if (st == IN) {
+							continue;
+						}
+						if (st != OUT) {
+							if (inCircle(n, x, y)) {
+								triangleStamps[n] = IN;
+								s.pushCavity(n);
+								continue;
+							}
+							triangleStamps[n] = OUT;
+						}
+					}
+					s.pushBoundary(
+							triangleVertices[tri * 3 + (i + 1) % 3],
+							triangleVertices[tri * 3 + (i + 2) % 3],
+							n);
+				}
+			}
+			if (!isCavityVisible(s, x, y)) {
+				return DROPPED;
+			}
+
+			int edges = s.boundarySize / 3;
+			if (edges != s.cavitySize + 2) {
+				throw new NonDelaunayException();
+			}
+			int fresh = concurrentSlots.getAndAdd(2);
+			if (fresh + 2 > owners.length()) {
+				throw new IllegalStateException("Vertex inserted more than once");
+			}
+			for (int k = 0; k < 2; k++) {
+				owners.set(fresh + k, token);
+				pushClaimed(fresh + k);
+			}
+			int[] fan = s.ensureFan(edges);
+			for (int k = 0; k < edges; k++) {
+				fan[k] = k < s.cavitySize ? s.cavity[k] : fresh + k - s.cavitySize;
+			}
+			fillCavity(s, v);
+			lastTriangle = vertexTriangles[v];
+			vertexFlags[v] |= INSERTED;
+			return DONE;
+		}
+
+		/*
+		 * Walks toward the point without claiming anything. Returns the
+		 * triangle containing the point, or the triangle at whose boundary
+		 * edge the point lies outside the mesh.
+		 */
+		private int walk(double x, double y) {
+			locates++;
+			int t = lastTriangle != NONE ? lastTriangle : concurrentStart;
+			int from = NONE;
+			int limit = concurrentSlots.get();
+			for (int h = 0;; h++) {
+				if (h > limit) {
+					locateRestarts++;
+					t = concurrentStart;
+					from = NONE;
+					h = 0;
+				}
+				hops++;
+
+				int next = t;
+				for (int i = 0; i < 3; i++) {
+					int n = triangleNeighbors[t * 3 + i];
+					if (n == from && n != NONE) {
+						continue;
+					}
+					int a = triangleVertices[t * 3 + (i + 1) % 3];
+					int b = triangleVertices[t * 3 + (i + 2) % 3];
+					if (orient(a, b, x, y) < 0) {
+						next = n;
+						break;
+					}
+				}
+				if (next == t || next == NONE) {
+					return t;
+				}
+				from = t;
+				t = next;
+			}
+		}
+
+		/*
+		 * Claims the triangle for this attempt. A newly claimed triangle has
+		 * its stamp cleared, as it may hold a stamp of another thread.
+		 */
+		private boolean claim(int t) {
+			if (owners.get(t) == token) {
+				return true;
+			}
+			if (!owners.compareAndSet(t, 0, token)) {
+				return false;
+			}
+			triangleStamps[t] = 0;
+			pushClaimed(t);
+			return true;
+		}
+
+		private void pushClaimed(int t) {
+			if (claimedSize == claimed.length) {
+				claimed = Arrays.copyOf(claimed, claimedSize * 2);
+			}
+			claimed[claimedSize++] = t;
+		}
+
+		private void releaseClaims() {
+			for (int i = 0; i < claimedSize; i++) {
+				owners.set(claimed[i], 0);
+			}
+			claimedSize = 0;
+		}
+	}
+
+	/**
+	 * Builds a {@link LocatorGrid} over the vertices with about
+	 * {@link #VERTICES_PER_CELL} vertices per cell, and keeps a vertex in or
+	 * near each cell. Walks then start from a triangle of the vertex of the
+	 * cell of the point, so a locate takes a few hops however far apart
+	 * consecutive points are. Insertions, removals and moves keep the grid up
+	 * to date, and a triangulation discards it.
+	 */
+	public void buildLocatorGrid() {
+		Rectangle2D bounds = getBoundingBox();
+		if (bounds == null) {
+			return;
+		}
+		locatorGrid = new LocatorGrid(bounds, vertexCount / VERTICES_PER_CELL);
+		gridVertices = new int[locatorGrid.getCellCount()];
+		dirtyGridPages = new boolean[TriangulationSnapshot.pageCount(gridVertices.length)];
+		Arrays.fill(gridVertices, NONE);
+		for (int v = 0; v < vertexCount; v++) {
+			if (vertexTriangles[v] != NONE) {
+				gridVertices[locatorGrid.getCell(getX(v), getY(v))] = v;
+			}
+		}
+
+		// Empty cells take the vertex of the previous cell that has one, or
+		// of the first one for the cells before it
+		int previous = NONE;
+		for (int c = 0; c < gridVertices.length; c++) {
+			if (gridVertices[c] == NONE) {
+				gridVertices[c] = previous;
+			} else {
+				previous = gridVertices[c];
+			}
+		}
+		for (int c = 0; c < gridVertices.length && gridVertices[c] == NONE; c++) {
+			gridVertices[c] = previous;
+		}
+	}
+
+	public void clearLocatorGrid() {
+		locatorGrid = null;
+		gridVertices = null;
+	}
+
+	public boolean hasLocatorGrid() {
+		return locatorGrid != null;
+	}
+
+	/**
+	 * Returns the number of cells of the locator grid, or 0 if there is none.
+	 */
+	public int getLocatorGridCellCount() {
+		return gridVertices == null ? 0 : gridVertices.length;
+	}
+
+	/*
+	 * The grid keeps vertices rather than triangles, since the triangle of a
+	 * vertex is always up to date while triangle slots are reused anywhere
+	 * in the mesh.
+	 */
+	private void patchLocatorGrid(double x, double y, int v) {
+		if (gridVertices != null) {
+			int cell = locatorGrid.getCell(x, y);
+			gridVertices[cell] = v;
+			dirtyGridPages[cell >> PAGE_SHIFT] = true;
+		}
+	}
+
+	/*
+	 * Cells that took their vertex from another cell are not updated when the
+	 * vertex is removed, so a walk that started from a removed vertex puts
+	 * a vertex of the triangle it ended at into the cell.
+	 */
+	private void repairLocatorGrid(double x, double y, int t) {
+		if (gridVertices == null) {
+			return;
+		}
+		int cell = locatorGrid.getCell(x, y);
+		int v = gridVertices[cell];
+		if (v != NONE && vertexTriangles[v] != NONE) {
+			return;
+		}
+		for (int i = 0; i < 3; i++) {
+			if (triangleVertices[t * 3 + i] >= 0) {
+				gridVertices[cell] = triangleVertices[t * 3 + i];
+				dirtyGridPages[cell >> PAGE_SHIFT] = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Builds a {@link DelaunayHierarchy} over the inserted vertices. Walks
+	 * then start from a vertex found by descending the hierarchy, so a locate
+	 * takes O(log n) hops on any distribution of vertices, at the cost of the
+	 * memory reported by {@link DelaunayHierarchy#getMemoryBytes()}.
+	 * Insertions, removals and moves keep the hierarchy up to date, and a
+	 * triangulation discards it.
+	 */
+	public void buildLocatorHierarchy() {
+		Rectangle2D bounds = getBoundingBox();
+		hierarchy = bounds == null ? null : new DelaunayHierarchy(this, bounds, vertexCount);
+	}
+
+	public void clearLocatorHierarchy() {
+		hierarchy = null;
+	}
+
+	/**
+	 * Returns the locator hierarchy, or null if there is none.
+	 */
+	public DelaunayHierarchy getLocatorHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the arrays of the mesh
+	 * and its locator grid. The locator hierarchy reports its own.
+	 */
+	public long getMemoryBytes() {
+		long bytes = (coords != null ? 8L * coords.length
+				: floatCoords != null ? 4L * floatCoords.length : 4L * fixedCoords.length)
+				+ vertexFlags.length + 4L * vertexTriangles.length
+				+ 4L * (triangleVertices.length + triangleNeighbors.length + triangleStamps.length);
+		if (gridVertices != null) {
+			bytes += 4L * gridVertices.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns an immutable copy of the mesh and its locator grid, which
+	 * threads may query while this mesh is modified. If {@code previous} is
+	 * an earlier snapshot of this mesh, the pages that have not changed since
+	 * are shared with it instead of copied. If it is the last snapshot made
+	 * by this method, only the pages written since are read; otherwise every
+	 * page is compared.
+	 *
+	 * @see TriangulationSnapshot
+	 */
+	public TriangulationSnapshot freeze(TriangulationSnapshot previous) {
+		if (owners != null) {
+			throw new IllegalStateException("The mesh can not be frozen during concurrent insertion");
+		}
+		TriangulationSnapshot snapshot;
+		if (previous != null && frozen != null && frozen.get() == previous) {
+			snapshot = new TriangulationSnapshot(previous, this,
+					dirtyCoordPages, dirtyVertexTrianglePages, dirtyTrianglePages, dirtyGridPages);
+		} else {
+			snapshot = new TriangulationSnapshot(previous, getCoordinates(), vertexTriangles, vertexCount,
+					triangleVertices, triangleNeighbors, triangleSlots,
+					superCoords, hasSuperTriangle, ghostTriangles, locatorGrid, gridVertices);
+		}
+		Arrays.fill(dirtyCoordPages, false);
+		Arrays.fill(dirtyVertexTrianglePages, false);
+		Arrays.fill(dirtyTrianglePages, false);
+		Arrays.fill(dirtyGridPages, false);
+		frozen = new WeakReference<TriangulationSnapshot>(snapshot);
+		return snapshot;
+	}
+
+	/*
+	 * Sizes the dirty page flags to the capacity of the arrays.
+	 */
+	private void ensureDirtyPages() {
+		int vertexPages = TriangulationSnapshot.pageCount(vertexFlags.length);
+		if (dirtyCoordPages.length < vertexPages) {
+			dirtyCoordPages = Arrays.copyOf(dirtyCoordPages, vertexPages);
+			dirtyVertexTrianglePages = Arrays.copyOf(dirtyVertexTrianglePages, vertexPages);
+		}
+		int trianglePages = TriangulationSnapshot.pageCount(triangleStamps.length);
+		if (dirtyTrianglePages.length < trianglePages) {
+			dirtyTrianglePages = Arrays.copyOf(dirtyTrianglePages, trianglePages);
+		}
+	}
+
+	double[] getSuperCoordinates() {
+		return superCoords;
+	}
+
+	LocatorGrid getLocatorGrid() {
+		return locatorGrid;
+	}
+
+	int[] getGridVertices() {
+		return gridVertices;
+	}
+
+	/**
+	 * Returns an immutable copy of the mesh in the native memory of the
+	 * arena, see {@link OffHeapTriangulation}. The copy is written straight
+	 * from the arrays of the mesh, so it takes no extra heap, but the heap
+	 * held by this mesh is only freed once it is no longer referenced.
+	 */
+	public OffHeapTriangulation freezeOffHeap(MeshArena arena) {
+		if (owners != null) {
+			throw new IllegalStateException("The mesh can not be frozen during concurrent insertion");
+		}
+		OffHeapTriangulation mesh = new OffHeapTriangulation(arena, vertexCount, triangleSlots,
+				superCoords, hasSuperTriangle, ghostTriangles, locatorGrid, gridVertices);
+		for (int v = 0; v < vertexCount; v++) {
+			mesh.setVertex(v, getX(v), getY(v), vertexTriangles[v]);
+		}
+		for (int t = 0; t < triangleSlots; t++) {
+			mesh.setTriangle(t,
+					triangleVertices[t * 3], triangleVertices[t * 3 + 1], triangleVertices[t * 3 + 2],
+					triangleNeighbors[t * 3], triangleNeighbors[t * 3 + 1], triangleNeighbors[t * 3 + 2]);
+		}
+		mesh.finish();
+		return mesh;
+	}
+
+	/**
+	 * Renumbers the vertices along a hilbert curve, and the triangles in the
+	 * order of their smallest vertex, packed into the first slots. The
+	 * numbering left by insertions and removals is scattered, so a pass over
+	 * all triangles reads the coordinates of their vertices at random; after
+	 * this, vertices that are close in space have close indices and such a
+	 * pass reads the arrays almost in order. The locator grid and hierarchy
+	 * are renumbered too. Returns the former index of the vertex at each new
+	 * index, so that data kept per vertex can be reordered to match.
+	 */
+	public int[] reorder() {
+		if (owners != null) {
+			throw new IllegalStateException("The mesh can not be reordered during concurrent insertion");
+		}
+		int[] order = vertexCount == 0
+				? new int[0]
+				: InsertionOrders.createHilbert(hilbertOrder).getOrder(getCoordinates(), vertexCount, getBoundingBox());
+		int[] ids = new int[vertexCount];
+		for (int i = 0; i < vertexCount; i++) {
+			ids[order[i]] = i;
+		}
+
+		// Sorts the triangles by their smallest vertex with a counting sort,
+		// the super vertices counting as the last ones
+		int[] starts = new int[vertexCount + 4];
+		for (int t = 0; t < triangleSlots; t++) {
+			if (isTriangle(t)) {
+				starts[firstVertex(t, ids) + 1]++;
+			}
+		}
+		for (int v = 0; v < vertexCount + 3; v++) {
+			starts[v + 1] += starts[v];
+		}
+		int[] triangleIds = new int[triangleSlots];
+		for (int t = 0; t < triangleSlots; t++) {
+			triangleIds[t] = isTriangle(t) ? starts[firstVertex(t, ids)]++ : NONE;
+		}
+
+		int capacity = Math.max(triangleCount, 16);
+		int[] movedVertices = new int[capacity * 3];
+		int[] movedNeighbors = new int[capacity * 3];
+		for (int t = 0; t < triangleSlots; t++) {
+			int moved = triangleIds[t];
+			if (moved == NONE) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				int v = triangleVertices[t * 3 + i];
+				int n = triangleNeighbors[t * 3 + i];
+				movedVertices[moved * 3 + i] = v >= 0 ? ids[v] : v;
+				movedNeighbors[moved * 3 + i] = n == NONE ? NONE : triangleIds[n];
+			}
+		}
+		triangleVertices = movedVertices;
+		triangleNeighbors = movedNeighbors;
+		triangleStamps = new int[capacity];
+		triangleSlots = triangleCount;
+		freeTriangle = NONE;
+		frozen = null;
+
+		byte[] flags = new byte[vertexFlags.length];
+		int[] triangles = new int[vertexTriangles.length];
+		for (int i = 0; i < vertexCount; i++) {
+			int t = vertexTriangles[order[i]];
+			flags[i] = vertexFlags[order[i]];
+			triangles[i] = t == NONE ? NONE : triangleIds[t];
+		}
+		vertexFlags = flags;
+		vertexTriangles = triangles;
+		if (coords != null) {
+			double[] moved = new double[coords.length];
+			for (int i = 0; i < vertexCount; i++) {
+				moved[i * 2] = coords[order[i] * 2];
+				moved[i * 2 + 1] = coords[order[i] * 2 + 1];
+			}
+			coords = moved;
+		} else if (floatCoords != null) {
+			float[] moved = new float[floatCoords.length];
+			for (int i = 0; i < vertexCount; i++) {
+				moved[i * 2] = floatCoords[order[i] * 2];
+				moved[i * 2 + 1] = floatCoords[order[i] * 2 + 1];
+			}
+			floatCoords = moved;
+		} else {
+			int[] moved = new int[fixedCoords.length];
+			for (int i = 0; i < vertexCount; i++) {
+				moved[i * 2] = fixedCoords[order[i] * 2];
+				moved[i * 2 + 1] = fixedCoords[order[i] * 2 + 1];
+			}
+			fixedCoords = moved;
+		}
+
+		locator.last = NONE;
+		if (gridVertices != null) {
+			for (int c = 0; c < gridVertices.length; c++) {
+				gridVertices[c] = gridVertices[c] == NONE ? NONE : ids[gridVertices[c]];
+			}
+		}
+		if (hierarchy != null) {
+			buildLocatorHierarchy();
+		}
+		return order;
+	}
+
+	/*
+	 * Returns the smallest renumbered vertex of the triangle, with the super
+	 * vertices after the others.
+	 */
+	private int firstVertex(int t, int[] ids) {
+		int first = Integer.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			int v = triangleVertices[t * 3 + i];
+			first = Math.min(first, v >= 0 ? ids[v] : vertexCount + SUPER_VERTEX - v);
+		}
+		return first;
+	}
+
+	/*
+	 * Only reads the mesh, the grid and the hierarchy, like walk.
+	 */
+	private int startTriangle(double x, double y, LocateContext context) {
+		if (hierarchy != null) {
+			int last = context.last;
+			int v = hierarchy.findNearVertex(x, y, context);
+			context.last = last;
+			if (v != NONE && vertexTriangles[v] != NONE) {
+				return vertexTriangles[v];
+			}
+		}
+		if (gridVertices != null) {
+			int v = gridVertices[locatorGrid.getCell(x, y)];
+			if (v != NONE && vertexTriangles[v] != NONE) {
+				return vertexTriangles[v];
+			}
+		}
+		return isTriangle(context.last) ? context.last : firstTriangle();
+	}
+
+	/**
+	 * Walks the mesh toward the point. Returns the triangle in which the point
+	 * resides, or {@link #NONE} if the point is outside the mesh.
+	 *
+	 * @see Triangulation#locate(org.delaunay.model.Vector)
+	 */
+	public int locate(double x, double y) throws NonDelaunayException {
+		int t = locate(x, y, locator);
+		if (isTriangle(locator.last)) {
+			repairLocatorGrid(x, y, locator.last);
+		}
+		return t;
+	}
+
+	/**
+	 * Like {@link #locate(double, double)}, but the walk starts where the
+	 * last walk with the context ended, or from the locator grid or
+	 * hierarchy, and its hops are counted in the context. This only reads the
+	 * mesh, so while the mesh is not modified, any number of threads may
+	 * locate at once, each with its own context.
+	 */
+	public int locate(double x, double y, LocateContext context) throws NonDelaunayException {
+		return MeshQueries.locate(this, startTriangle(x, y, context), x, y, context);
+	}
+
+	/**
+	 * Locates many points at once. The triangle containing point
+	 * {@code (xs[i], ys[i])}, or {@link #NONE}, is written to
+	 * {@code triangles[i]}.
+	 *
+	 * The points are walked to in the order of a hilbert curve through them,
+	 * so each walk starts next to the previous point no matter how the points
+	 * are ordered. Batches of more than {@link #QUERIES_PER_TASK} points are
+	 * divided among the threads of the fork/join pool given to
+	 * {@link #setParallelThreshold(int, ForkJoinPool)}, or of the common pool.
+	 * The mesh must not be modified until this returns.
+	 */
+	public void locateAll(double[] xs, double[] ys, int[] triangles) {
+		queryAll(xs, ys, triangles, false);
+	}
+
+	/**
+	 * Finds the nearest vertices of many points at once, like
+	 * {@link #locateAll(double[], double[], int[])}. The nearest vertex of
+	 * point {@code i}, or {@link #NONE} if it is outside the mesh, is written
+	 * to {@code vertices[i]}.
+	 */
+	public void nearestAll(double[] xs, double[] ys, int[] vertices) {
+		queryAll(xs, ys, vertices, true);
+	}
+
+	private void queryAll(final double[] xs, final double[] ys, final int[] results, final boolean nearest) {
+		final MeshReader mesh = this;
+		final int count = xs.length;
+		final int[] order = sortAlongHilbertCurve(xs, ys, hilbertOrder);
+		int tasks = (count + QUERIES_PER_TASK - 1) / QUERIES_PER_TASK;
+		final LocateContext[] walkers = new LocateContext[tasks];
+		List<RecursiveAction> actions = Lists.newArrayList();
+		for (int k = 0; k < tasks; k++) {
+			final LocateContext w = walkers[k] = new LocateContext();
+			final int from = k * QUERIES_PER_TASK;
+			final int to = Math.min(count, from + QUERIES_PER_TASK);
+			actions.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					w.last = startTriangle(xs[order[from]], ys[order[from]], w);
+					for (int q = from; q < to; q++) {
+						int i = order[q];
+						int t = w.last == NONE ? NONE : MeshQueries.walk(mesh, w.last, xs[i], ys[i], w);
+						results[i] = t == NONE || !nearest ? t : MeshQueries.walkToNearestVertex(mesh, t, xs[i], ys[i], w);
+					}
+				}
+			});
+		}
+		if (tasks > 1) {
+			final List<RecursiveAction> all = actions;
+			(forkJoinPool == null ? ForkJoinPool.commonPool() : forkJoinPool).invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(all);
+				}
+			});
+		} else if (tasks == 1) {
+			actions.get(0).invoke();
+		}
+
+		for (LocateContext w : walkers) {
+			locator.hops += w.hops;
+		}
+		locator.locates += count;
+		if (tasks > 0) {
+			locator.last = walkers[tasks - 1].last;
+		}
+	}
+
+	/*
+	 * Returns the indices of the points in the order of a hilbert curve
+	 * through their bounding box.
+	 */
+	static int[] sortAlongHilbertCurve(double[] xs, double[] ys, int hilbertOrder) {
+		int count = xs.length;
+		double[] xy = new double[count * 2];
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			xy[i * 2] = xs[i];
+			xy[i * 2 + 1] = ys[i];
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		Rectangle2D bounds = count == 0
+				? new Rectangle2D.Double()
+				: new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+		return InsertionOrders.createHilbert(hilbertOrder).getOrder(xy, count, bounds);
+	}
+
+	/**
+	 * Returns the index of the vertex nearest to the point, or {@link #NONE}
+	 * if the point is outside the mesh. This may be a super vertex if the
+	 * super triangle was kept.
+	 *
+	 * @see Triangulation#locateNearestVertex(org.delaunay.model.Vector)
+	 */
+	public int locateNearestVertex(double x, double y) {
+		int t = locate(x, y);
+		return t == NONE ? NONE : MeshQueries.walkToNearestVertex(this, t, x, y, locator);
+	}
+
+	/**
+	 * Like {@link #locateNearestVertex(double, double)}, but with a context
+	 * of its own, see {@link #locate(double, double, LocateContext)}.
+	 */
+	public int locateNearestVertex(double x, double y, LocateContext context) {
+		int t = locate(x, y, context);
+		return t == NONE ? NONE : MeshQueries.walkToNearestVertex(this, t, x, y, context);
+	}
+
+	/**
+	 * Writes the indices of the {@code k} vertices nearest to the point to
+	 * {@code result}, nearest first, and returns their number, which is less
+	 * than {@code k} only if the mesh has fewer vertices. The result array must
+	 * hold at least {@code k} entries. Super vertices are never returned.
+	 * Once the super triangle is removed without ghost triangles, points
+	 * outside or near the hull may miss a vertex, see
+	 * {@link #removeSuperTriangle()}.
+	 */
+	public int kNearest(double x, double y, int k, int[] result) {
+		return kNearest(x, y, k, result, locator);
+	}
+
+	/**
+	 * Like {@link #kNearest(double, double, int, int[])}, but with a context
+	 * of its own, see {@link #locate(double, double, LocateContext)}.
+	 */
+	public int kNearest(double x, double y, int k, int[] result, LocateContext context) {
+		return searchNearest(x, y, k, Double.POSITIVE_INFINITY, result, context);
+	}
+
+	/**
+	 * Writes the indices of the vertices closer to the point than
+	 * {@code radius} to {@code result}, nearest first, and returns their
+	 * number. If there are more than fit in the array, only the nearest ones
+	 * are written, so a full array means there may be more.
+	 */
+	public int withinRadius(double x, double y, double radius, int[] result) {
+		return withinRadius(x, y, radius, result, locator);
+	}
+
+	/**
+	 * Like {@link #withinRadius(double, double, double, int[])}, but with a
+	 * context of its own, see {@link #locate(double, double, LocateContext)}.
+	 */
+	public int withinRadius(double x, double y, double radius, int[] result, LocateContext context) {
+		return searchNearest(x, y, result.length, radius * radius, result, context);
+	}
+	/*
+	 * See MeshQueries.searchNearest.
+	 */
+	int searchNearest(double x, double y, int max, double radiusSquared, int[] result, LocateContext context) {
+		return MeshQueries.searchNearest(this, locate(x, y, context), x, y, max, radiusSquared, result, context);
+	}
+
+	/**
+	 * Writes the indices of the vertices in the rectangle to {@code result},
+	 * and returns their number. If there are more than fit in the array, only
+	 * the first ones are written, but all of them are counted, so the caller
+	 * can retry with an array of the returned length. A vertex is in the
+	 * rectangle if {@link Rectangle2D#contains(double, double)} is true for it.
+	 */
+	public int getVerticesInBounds(Rectangle2D rect, int[] result) {
+		return getVerticesInBounds(rect, result, locator);
+	}
+
+	/**
+	 * Like {@link #getVerticesInBounds(Rectangle2D, int[])}, but with a
+	 * context of its own, see {@link #locate(double, double, LocateContext)}.
+	 */
+	public int getVerticesInBounds(Rectangle2D rect, int[] result, LocateContext context) {
+		if (rect.isEmpty()) {
+			return 0;
+		}
+		int t = locate(rect.getCenterX(), rect.getCenterY(), context);
+		return MeshQueries.getVerticesInBounds(this, t, rect, result, context);
+	}
+
+	/*
+	 * Like locateNearestVertex, but the walk starts from a triangle of vertex
+	 * v, or anywhere if v is NONE.
+	 */
+	int locateNearestVertexFrom(int v, double x, double y, LocateContext context) {
+		int t = v != NONE && vertexTriangles[v] != NONE ? vertexTriangles[v] : firstTriangle();
+		if (t == NONE) {
+			return NONE;
+		}
+		t = MeshQueries.walk(this, t, x, y, context);
+		return t == NONE ? NONE : MeshQueries.walkToNearestVertex(this, t, x, y, context);
+	}
+
+	/*
+	 * Returns a triangle that contains the point by testing every triangle,
+	 * or NONE. For meshes with holes, where a walk may stop at the boundary
+	 * of a hole.
+	 */
+	int scanLocate(double x, double y) {
+		for (int t = 0; t < triangleSlots; t++) {
+			if (isTriangle(t)
+					&& orient(triangleVertices[t * 3 + 1], triangleVertices[t * 3 + 2], x, y) >= 0
+					&& orient(triangleVertices[t * 3 + 2], triangleVertices[t * 3], x, y) >= 0
+					&& orient(triangleVertices[t * 3], triangleVertices[t * 3 + 1], x, y) >= 0) {
+				return t;
+			}
+		}
+		return NONE;
+	}
+
+	private int firstTriangle() {
+		for (int t = 0; t < triangleSlots; t++) {
+			if (isTriangle(t)) {
+				return t;
+			}
+		}
+		return NONE;
+	}
+
+	/*
+	 * Geometric predicates. All are exact, so the mesh can not become
+	 * inconsistent through rounding errors. With ghost triangles, those that
+	 * involve a super vertex go through GhostPredicates.
+	 */
+
+	/*
+	 * The direction of a super vertex at infinity, or -1 for a vertex at its
+	 * coordinates.
+	 */
+	private int direction(int v) {
+		return ghostTriangles && v <= SUPER_VERTEX ? SUPER_VERTEX - v : -1;
+	}
+
+	/*
+	 * Positive if (x, y) lies to the left of the directed edge ab, negative if
+	 * it lies to the right, and zero if the three points are co-linear.
+	 */
+	private double orient(int a, int b, double x, double y) {
+		if (ghostTriangles && (a <= SUPER_VERTEX || b <= SUPER_VERTEX)) {
+			return GhostPredicates.orient(getX(a), getY(a), direction(a), getX(b), getY(b), direction(b), x, y, -1);
+		}
+		return Predicates.orient2d(getX(a), getY(a), getX(b), getY(b), x, y);
+	}
+
+	private double orient(int a, int b, int c) {
+		return GhostPredicates.orient(getX(a), getY(a), direction(a),
+				getX(b), getY(b), direction(b), getX(c), getY(c), direction(c));
+	}
+
+	/*
+	 * True if (x, y) lies strictly inside the circumcircle of the
+	 * counter-clockwise triangle t.
+	 */
+	private boolean inCircle(int t, double x, double y) {
+		int a = triangleVertices[t * 3];
+		int b = triangleVertices[t * 3 + 1];
+		int c = triangleVertices[t * 3 + 2];
+		if (ghostTriangles && (a <= SUPER_VERTEX || b <= SUPER_VERTEX || c <= SUPER_VERTEX)) {
+			return GhostPredicates.incircle(getX(a), getY(a), direction(a), getX(b), getY(b), direction(b),
+					getX(c), getY(c), direction(c), x, y, -1) > 0;
+		}
+		return Predicates.incircle(getX(a), getY(a), getX(b), getY(b), getX(c), getY(c), x, y) > 0;
+	}
+
+	/*
+	 * True if vertex d lies strictly inside the circle through (x, y) and the
+	 * vertices a and b, counter-clockwise.
+	 */
+	private boolean inCircle(double x, double y, int a, int b, int d) {
+		return GhostPredicates.incircle(x, y, -1, getX(a), getY(a), direction(a),
+				getX(b), getY(b), direction(b), getX(d), getY(d), direction(d)) > 0;
+	}
+}
@@ -0,0 +1,711 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.delaunay.model.Edge;
+import org.delaunay.algorithm.IndexedTriangulation.CoordinatePrecision;
+import org.delaunay.algorithm.StreamingTriangulator.MeshWriter;
+import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+import org.delaunay.algorithm.Triangulation.TriangleSink;
+import org.delaunay.dtfe.BasicDensityModel;
+import org.delaunay.dtfe.DtfeTriangulationMap;
+import org.delaunay.model.Triangle;
+import org.delaunay.model.Vector;
+import org.delaunay.model.Vectors;
+import org.delaunay.model.Vertex;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Compares the triangulation and nearest vertex locates of the indexed engine
+ * with those of the object graph engine.
+ */
+public class IndexedTriangulationTest {
+
+	public static void main(String[] args) throws Exception {
+		int D = 400;
+		List<Vertex> verts = Triangulations.randomVertices(2000, D, D);
+
+		Triangulation objects = new Triangulation();
+		objects.addAllVertices(verts);
+		objects.setKeepSuperTriangle(true);
+		objects.triangulate();
+
+		Triangulation indexed = new Triangulation();
+		indexed.addAllVertices(verts);
+		indexed.setKeepSuperTriangle(true);
+		indexed.setIndexedEngine(true);
+		indexed.setLocatorGrid(true);
+		indexed.triangulate();
+
+		Triangulation parallel = new Triangulation();
+		parallel.addAllVertices(verts);
+		parallel.setKeepSuperTriangle(true);
+		parallel.setParallelThreshold(0, new ForkJoinPool(4));
+		parallel.triangulate();
+
+		final Triangulation concurrent = new Triangulation();
+		concurrent.setKeepSuperTriangle(true);
+		concurrent.setConcurrentInsertion(true);
+		concurrent.createSuperTriangle(Vectors.boundingBox(verts));
+		insertConcurrently(concurrent, verts, 4);
+		concurrent.setConcurrentInsertion(false);
+
+		System.out.println("Triangles: " + objects.getTriangles().size() + " / " + indexed.getTriangles().size());
+		System.out.println("Vertices:  " + objects.getVertices().size() + " / " + indexed.getVertices().size());
+		System.out.println("Edges equal: " + getEdges(objects).equals(getEdges(indexed)));
+		System.out.println("Parallel edges equal: " + getEdges(objects).equals(getEdges(parallel)));
+		System.out.println("Concurrent edges equal: " + getEdges(objects).equals(getEdges(concurrent)));
+		System.out.println("Contention: " + concurrent.getContentionStatistics());
+
+		List<Vertex> queries = Triangulations.randomVertices(1000, D, D);
+		double[] xs = new double[queries.size()];
+		double[] ys = new double[queries.size()];
+		for (int i = 0; i < queries.size(); i++) {
+			xs[i] = queries.get(i).x;
+			ys[i] = queries.get(i).y;
+		}
+		Vertex[] batch = new Vertex[queries.size()];
+		indexed.nearestAll(xs, ys, batch);
+
+		Vertex[] threadedObjects = locateConcurrently(objects, queries, 4);
+		Vertex[] threadedIndexed = locateConcurrently(indexed, queries, 4);
+		TriangulationSnapshot frozenObjects = objects.freeze(null);
+		TriangulationSnapshot frozenIndexed = indexed.freeze(null);
+		MeshArena arena = new MeshArena();
+		OffHeapTriangulation offHeap = indexed.freezeOffHeap(arena);
+		File meshFile = File.createTempFile("mesh", ".bin");
+		meshFile.deleteOnExit();
+		TriangulationFile.write(offHeap, null, meshFile);
+		OffHeapTriangulation mapped = TriangulationFile.map(meshFile, arena).getTriangulation();
+		ByteArrayOutputStream coded = new ByteArrayOutputStream();
+		TriangulationCodec.encode(offHeap, coded);
+		MeshArena codecArena = new MeshArena();
+		OffHeapTriangulation decoded = TriangulationCodec.decode(new ByteArrayInputStream(coded.toByteArray()), codecArena);
+		LocateContext context = new LocateContext();
+		Vertex[] kObjects = new Vertex[8];
+		Vertex[] kIndexed = new Vertex[8];
+
+		int right = 0;
+		int wrong = 0;
+		int batchRight = 0;
+		int threadedRight = 0;
+		int snapshotRight = 0;
+		int offHeapRight = 0;
+		int mappedRight = 0;
+		int codecRight = 0;
+		int kNearestRight = 0;
+		for (int i = 0; i < queries.size(); i++) {
+			Vertex nearest = objects.locateNearestVertex(queries.get(i));
+			if (nearest == indexed.locateNearestVertex(queries.get(i))) {
+				right++;
+			} else {
+				wrong++;
+			}
+			if (nearest == batch[i]) {
+				batchRight++;
+			}
+			if (nearest == threadedObjects[i] && nearest == threadedIndexed[i]) {
+				threadedRight++;
+			}
+			int a = frozenObjects.locateNearestVertex(queries.get(i).x, queries.get(i).y, context);
+			int b = frozenIndexed.locateNearestVertex(queries.get(i).x, queries.get(i).y, context);
+			if (nearest.x == frozenObjects.getX(a) && nearest.y == frozenObjects.getY(a)
+					&& nearest.x == frozenIndexed.getX(b) && nearest.y == frozenIndexed.getY(b)) {
+				snapshotRight++;
+			}
+			int c = offHeap.locateNearestVertex(queries.get(i).x, queries.get(i).y, context);
+			if (nearest.x == offHeap.getX(c) && nearest.y == offHeap.getY(c)) {
+				offHeapRight++;
+			}
+			if (c == mapped.locateNearestVertex(queries.get(i).x, queries.get(i).y, context)) {
+				mappedRight++;
+			}
+			int d = decoded.locateNearestVertex(queries.get(i).x, queries.get(i).y, context);
+			if (nearest.x == decoded.getX(d) && nearest.y == decoded.getY(d)) {
+				codecRight++;
+			}
+			objects.kNearest(queries.get(i), kObjects.length, kObjects);
+			indexed.kNearest(queries.get(i), kIndexed.length, kIndexed, context);
+			if (nearest == kObjects[0] && Arrays.equals(kObjects, kIndexed)) {
+				kNearestRight++;
+			}
+		}
+		System.out.println("Right: " + right + " / " + (right + wrong));
+		System.out.println("Wrong: " + wrong + " / " + (right + wrong));
+		System.out.println("Batch right: " + batchRight + " / " + (right + wrong));
+		System.out.println("Threaded right: " + threadedRight + " / " + (right + wrong));
+		System.out.println("Snapshot right: " + snapshotRight + " / " + (right + wrong));
+		System.out.println("k-nearest right: " + kNearestRight + " / " + (right + wrong));
+		System.out.println("Off-heap right: " + offHeapRight + " / " + (right + wrong) + ", " + arena.getAllocatedBytes() + " bytes");
+		System.out.println("Mapped file right: " + mappedRight + " / " + (right + wrong) + ", " + meshFile.length() + " bytes");
+		// A mesh this small spends a good part of the stream on its header and locator grid
+		TriangulationCodec.EncodedSize codedSize = TriangulationCodec.measure(offHeap);
+		double codedTriangles = offHeap.getTriangleCount();
+		System.out.println(String.format("Codec right: %d / %d, %.2f bytes per triangle, %.2f for the header, "
+				+ "%.2f for coordinates, %.2f for connectivity, sizes add up: %b",
+				codecRight, right + wrong, coded.size() / codedTriangles, codedSize.headerBytes / codedTriangles,
+				codedSize.coordinateBytes / codedTriangles, codedSize.connectivityBytes / codedTriangles,
+				codedSize.getTotalBytes() == coded.size()));
+
+		// The off-heap queries match those of the indexed engine
+		IndexedTriangulation mesh = indexed.getIndexedTriangulation();
+		int[] nearestOffHeap = new int[queries.size()];
+		offHeap.nearestAll(xs, ys, nearestOffHeap);
+		int[] fromMesh = new int[256];
+		int[] fromOffHeap = new int[256];
+		int offHeapQueries = 0;
+		for (int i = 0; i < queries.size(); i++) {
+			boolean same = nearestOffHeap[i] == mesh.locateNearestVertex(xs[i], ys[i]);
+			same &= Arrays.equals(Arrays.copyOf(fromMesh, mesh.kNearest(xs[i], ys[i], 8, fromMesh)),
+					Arrays.copyOf(fromOffHeap, offHeap.kNearest(xs[i], ys[i], 8, fromOffHeap, context)));
+			same &= Arrays.equals(Arrays.copyOf(fromMesh, mesh.withinRadius(xs[i], ys[i], D / 40, fromMesh)),
+					Arrays.copyOf(fromOffHeap, offHeap.withinRadius(xs[i], ys[i], D / 40, fromOffHeap, context)));
+			Rectangle2D rect = new Rectangle2D.Double(xs[i] - D / 20, ys[i] - D / 40, D / 10, D / 20);
+			int[] inMesh = Arrays.copyOf(fromMesh, mesh.getVerticesInBounds(rect, fromMesh));
+			int[] inOffHeap = Arrays.copyOf(fromOffHeap, offHeap.getVerticesInBounds(rect, fromOffHeap, context));
+			Arrays.sort(inMesh);
+			Arrays.sort(inOffHeap);
+			if (same && Arrays.equals(inMesh, inOffHeap)) {
+				offHeapQueries++;
+			}
+		}
+		System.out.println("Off-heap queries right: " + offHeapQueries + " / " + queries.size());
+		System.out.println("Closed under readers: " + closeUnderReaders(frozenIndexed, queries, 4));
+		arena.close();
+		codecArena.close();
+
+		Rectangle2D bounds = new Rectangle2D.Double(D / 4, D / 4, D / 3, D / 5);
+		Set<Vertex> inBounds = Sets.newHashSet();
+		for (Vertex v : verts) {
+			if (bounds.contains(v.x, v.y)) {
+				inBounds.add(v);
+			}
+		}
+		System.out.println("Bounds equal: " + (inBounds.equals(Sets.newHashSet(objects.getVerticesInBounds(bounds)))
+				&& inBounds.equals(Sets.newHashSet(indexed.getVerticesInBounds(bounds)))));
+
+		// Without the super triangle the boundary may be concave
+		Triangulation plainObjects = new Triangulation();
+		Triangulation plainIndexed = new Triangulation();
+		for (Vertex v : verts) {
+			plainObjects.addVertex(v.x, v.y);
+			plainIndexed.addVertex(v.x, v.y);
+		}
+		plainObjects.triangulate();
+		plainIndexed.setIndexedEngine(true);
+		plainIndexed.triangulate();
+		// Long thin rectangles along the boundary cross its notches
+		Random random = new Random(1);
+		int strips = 4000;
+		int plainRight = 0;
+		for (int i = 0; i < strips; i++) {
+			double length = random.nextDouble() * D;
+			double width = random.nextDouble() * D / 20;
+			double along = random.nextDouble() * D;
+			double across = random.nextBoolean() ? random.nextDouble() * D / 20 : D - random.nextDouble() * D / 20;
+			Rectangle2D rect = i % 2 == 0
+					? new Rectangle2D.Double(along - length / 2, across - width / 2, length, width)
+					: new Rectangle2D.Double(across - width / 2, along - length / 2, width, length);
+			if (isInBounds(plainObjects, rect) && isInBounds(plainIndexed, rect)) {
+				plainRight++;
+			}
+		}
+		System.out.println("Default bounds right: " + plainRight + " / " + strips);
+		int plainNearest = 0;
+		for (Vertex q : queries) {
+			if (isNearest(plainObjects, q, 8) && isNearest(plainIndexed, q, 8)) {
+				plainNearest++;
+			}
+		}
+		System.out.println("Default k-nearest right: " + plainNearest + " / " + queries.size());
+
+		// Copies keep the vertices of the two triangulations apart
+		List<Vertex> targets = Triangulations.randomVertices(200, D, D);
+		Triangulation editedObjects = edit(verts, targets, false);
+		Triangulation editedIndexed = edit(verts, targets, true);
+		System.out.println("Edited edges equal: " + getEdgeLocations(editedObjects).equals(getEdgeLocations(editedIndexed)));
+
+		// Live insertions update the densities around each new vertex only
+		DtfeTriangulationMap<BasicDensityModel> rebuilt = createDtfe(verts.subList(0, 500), 500, false);
+		DtfeTriangulationMap<BasicDensityModel> live = createDtfe(verts.subList(0, 500), 400, true);
+		boolean densities = true;
+		for (Vertex v : verts.subList(0, 500)) {
+			double expected = rebuilt.getDensity(rebuilt.getTriangulation().locateNearestVertex(v));
+			double actual = live.getDensity(live.getTriangulation().locateNearestVertex(v));
+			densities &= Math.abs(expected - actual) <= 1e-9 * expected;
+		}
+		boolean dropped = false;
+		try {
+			live.put(-1e30, -1e30, new BasicDensityModel());
+		} catch (IllegalArgumentException e) {
+			dropped = !live.contains(-1e30, -1e30);
+		}
+		System.out.println("Live densities equal: " + densities + ", dropped outside: " + dropped);
+
+		// Reordering renumbers the meshes without changing them
+		Set<Set<Vertex>> editedEdges = getEdgeLocations(editedIndexed);
+		Vertex[] probes = new Vertex[targets.size()];
+		for (int i = 0; i < targets.size(); i++) {
+			probes[i] = editedIndexed.locateNearestVertex(targets.get(i));
+		}
+		editedObjects.reorder();
+		editedIndexed.reorder();
+		boolean reordered = getEdgeLocations(editedObjects).equals(editedEdges)
+				&& getEdgeLocations(editedIndexed).equals(editedEdges);
+		for (int i = 0; i < targets.size(); i++) {
+			reordered &= probes[i] == editedIndexed.locateNearestVertex(targets.get(i));
+		}
+		System.out.println("Reordered edges equal: " + reordered);
+
+		// Ghost triangles add the hull edges that the scaled super triangle cuts off
+		Triangulation ghost = new Triangulation();
+		ghost.addAllVertices(verts);
+		ghost.setKeepSuperTriangle(true);
+		ghost.setGhostTriangles(true);
+		ghost.triangulate();
+		Set<Edge> ghostEdges = getEdges(ghost);
+		int finite = 0;
+		int hull = 0;
+		for (Triangle tri : ghost.getTriangles()) {
+			finite += tri.touchesSuperVertex() ? 0 : 1;
+		}
+		for (Vertex v : verts) {
+			hull += ghost.getIndexedTriangulation().isOnHull(v.getIndex()) ? 1 : 0;
+		}
+		System.out.println("Ghost edges cover: " + ghostEdges.containsAll(getEdges(objects)));
+		System.out.println("Ghost triangles: " + finite + " / " + (2 * verts.size() - hull - 2));
+		System.out.println("Ghost far locate: " + (ghost.locate(new Vector(-1e12, 1e9)) != null));
+
+		// Turning ghost triangles off again also leaves the indexed engine
+		Triangulation toggled = new Triangulation();
+		for (Vertex v : verts) {
+			toggled.addVertex(v.x, v.y);
+		}
+		toggled.setKeepSuperTriangle(true);
+		toggled.setGhostTriangles(true);
+		toggled.setGhostTriangles(false);
+		toggled.triangulate();
+		System.out.println("Ghost toggled off: " + (toggled.getIndexedTriangulation() == null
+				&& getEdgeLocations(toggled).equals(getEdgeLocations(objects))));
+
+		// A fine fixed point grid moves no vertex far enough to change an edge
+		IndexedTriangulation doubles = new IndexedTriangulation(verts.size());
+		IndexedTriangulation fixed = new IndexedTriangulation(verts.size());
+		fixed.setCoordinatePrecision(CoordinatePrecision.FIXED, Vectors.boundingBox(verts));
+		for (Vertex v : verts) {
+			doubles.addVertex(v.x, v.y);
+			fixed.addVertex(v.x, v.y);
+		}
+		doubles.triangulate();
+		fixed.triangulate();
+		System.out.println("Fixed point edges equal: " + getEdges(doubles).equals(getEdges(fixed))
+				+ ", " + doubles.getMemoryBytes() + " / " + fixed.getMemoryBytes() + " bytes");
+
+		// Streams the vertices bottom to top, finalizing each row of cells
+		// once the sweep has passed it
+		final Integer[] sweep = new Integer[verts.size()];
+		for (int i = 0; i < sweep.length; i++) {
+			sweep[i] = i;
+		}
+		Arrays.sort(sweep, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(verts.get(a).y, verts.get(b).y);
+			}
+		});
+		final Vertex[] streamVertices = new Vertex[verts.size()];
+		final Set<Edge> streamEdges = Sets.newHashSet();
+		Rectangle2D streamBounds = Vectors.boundingBox(verts);
+		StreamingTriangulator stream = new StreamingTriangulator(streamBounds, 4, new MeshWriter() {
+			public void vertex(long id, double x, double y) {
+			}
+
+			public void triangle(long a, long b, long c) {
+				streamEdges.add(new Edge(streamVertices[(int) a], streamVertices[(int) b]));
+				streamEdges.add(new Edge(streamVertices[(int) b], streamVertices[(int) c]));
+				streamEdges.add(new Edge(streamVertices[(int) c], streamVertices[(int) a]));
+			}
+		});
+		ScaledHilbertIndex cells = new ScaledHilbertIndex(4, streamBounds);
+		int row = 0;
+		for (int i : sweep) {
+			Vertex v = verts.get(i);
+			for (; row < cells.getRow(v.y); row++) {
+				for (int column = 0; column < 16; column++) {
+					stream.finalizeCell(column, row);
+				}
+				stream.flush();
+			}
+			long id = stream.addVertex(v.x, v.y);
+			if (id >= 0) {
+				streamVertices[(int) id] = v;
+			}
+		}
+		stream.finish();
+		System.out.println("Streamed edges equal: " + streamEdges.equals(ghostEdges)
+				+ ", " + stream.getTriangleCount() + " / " + finite + " triangles, "
+				+ stream.getMaxResidentTriangleCount() + " resident");
+
+		// Streaming a file in chunks smaller than its densest cell splits that cell
+		File pointFile = File.createTempFile("points", ".bin");
+		DataOutputStream pointOut = new DataOutputStream(new FileOutputStream(pointFile));
+		for (Vertex v : verts) {
+			pointOut.writeDouble(v.x);
+			pointOut.writeDouble(v.y);
+		}
+		pointOut.close();
+		final List<Vertex> fileVertices = Lists.newArrayList();
+		final Set<Set<Vertex>> fileEdges = Sets.newHashSet();
+		StreamingTriangulator.triangulate(pointFile, pointFile.getParentFile(), 4, 50, new MeshWriter() {
+			public void vertex(long id, double x, double y) {
+				fileVertices.add(new Vertex(x, y));
+			}
+
+			public void triangle(long a, long b, long c) {
+				fileEdges.add(Sets.newHashSet(fileVertices.get((int) a), fileVertices.get((int) b)));
+				fileEdges.add(Sets.newHashSet(fileVertices.get((int) b), fileVertices.get((int) c)));
+				fileEdges.add(Sets.newHashSet(fileVertices.get((int) c), fileVertices.get((int) a)));
+			}
+		});
+		pointFile.delete();
+		System.out.println("Streamed file edges equal: " + fileEdges.equals(getEdgeLocations(ghost)));
+
+		// The same sweep hands most triangles over before the last insertion
+		final Triangulation swept = new Triangulation();
+		for (int i : sweep) {
+			swept.addVertex(verts.get(i).x, verts.get(i).y);
+		}
+		final Set<Edge> sinkEdges = Sets.newHashSet();
+		final int[] early = { 0 };
+		swept.setInsertionOrder(InsertionOrders.createInputOrder());
+		swept.setTriangleSink(new TriangleSink() {
+			public void triangle(Vertex a, Vertex b, Vertex c) {
+				sinkEdges.add(new Edge(a, b));
+				sinkEdges.add(new Edge(b, c));
+				sinkEdges.add(new Edge(c, a));
+				early[0] += swept.getIndexedTriangulation().isInserted(sweep.length - 1) ? 0 : 1;
+			}
+		});
+		swept.triangulate();
+		System.out.println("Sink edges equal: " + sinkEdges.equals(getEdges(swept))
+				+ ", " + early[0] + " / " + swept.getTriangles().size() + " triangles early");
+
+		// The parallel build hands each triangle over once, also when it falls back
+		System.out.println("Parallel sink once: " + isSunkOnce(verts, false)
+				+ ", after fallback: " + isSunkOnce(verts, true));
+
+		// The counts of a parallel build do not outlive it
+		ParallelTriangulator stripBuild = new ParallelTriangulator(new ForkJoinPool(4));
+		stripBuild.triangulate(createIndexed(verts));
+		boolean merged = stripBuild.getBoundaryVertexCount() > 0 && stripBuild.getFinalTriangleCount() > 0;
+		stripBuild.setMergeFailing(true);
+		stripBuild.triangulate(createIndexed(verts));
+		boolean fellBack = stripBuild.getBoundaryVertexCount() == 0 && stripBuild.getFinalTriangleCount() == 0;
+		stripBuild.triangulate(new IndexedTriangulation());
+		System.out.println("Parallel counts reset: " + (merged && fellBack
+				&& stripBuild.getBoundaryVertexCount() == 0 && stripBuild.getFinalTriangleCount() == 0));
+
+		// A freeze from the last snapshot reads only the pages edited since
+		System.out.println("Incremental freeze: " + isFrozenIncrementally(CoordinatePrecision.DOUBLE)
+				+ ", float: " + isFrozenIncrementally(CoordinatePrecision.FLOAT));
+	}
+
+	/*
+	 * True if each snapshot made from the previous one after a few live edits
+	 * in one region is a copy of the mesh, and shares all but a few pages.
+	 */
+	private static boolean isFrozenIncrementally(CoordinatePrecision precision) throws InvalidVertexException {
+		Random random = new Random(7);
+		IndexedTriangulation tri = new IndexedTriangulation();
+		tri.setCoordinatePrecision(precision, new Rectangle2D.Double(0, 0, 1000, 1000));
+		for (int i = 0; i < 20000; i++) {
+			tri.addVertex(random.nextDouble() * 1000, random.nextDouble() * 1000);
+		}
+		tri.triangulate();
+		tri.buildLocatorGrid();
+		TriangulationSnapshot snapshot = tri.freeze(null);
+		boolean right = isCopyOf(snapshot, tri);
+		for (int round = 0; round < 20; round++) {
+			int v = tri.addVertex(100 + random.nextDouble() * 50, 100 + random.nextDouble() * 50);
+			tri.insertVertex(v);
+			tri.moveVertex(v, 100 + random.nextDouble() * 50, 100 + random.nextDouble() * 50);
+			if (round % 2 == 0) {
+				tri.removeVertex(v);
+				tri.locate(tri.getX(v), tri.getY(v));
+			}
+			TriangulationSnapshot next = tri.freeze(snapshot);
+			right &= isCopyOf(next, tri) && next.getPageCount() - next.getSharedPageCount() <= 24;
+			snapshot = next;
+		}
+		return right && snapshot.getPageCount() > 80;
+	}
+
+	private static boolean isCopyOf(TriangulationSnapshot snapshot, IndexedTriangulation tri) {
+		if (snapshot.getVertexCount() != tri.getVertexCount() || snapshot.getTriangleSlots() != tri.getTriangleSlots()
+				|| snapshot.getTriangleCount() != tri.getTriangleCount()
+				|| !Arrays.equals(snapshot.getGridVertices(), tri.getGridVertices())) {
+			return false;
+		}
+		for (int v = 0; v < tri.getVertexCount(); v++) {
+			if (snapshot.getX(v) != tri.getX(v) || snapshot.getY(v) != tri.getY(v)
+					|| snapshot.getVertexTriangle(v) != tri.getVertexTriangle(v)) {
+				return false;
+			}
+		}
+		for (int t = 0; t < tri.getTriangleSlots(); t++) {
+			for (int i = 0; i < 3; i++) {
+				if (snapshot.getTriangleVertex(t, i) != tri.getTriangleVertex(t, i)
+						|| (tri.isTriangle(t) && snapshot.getNeighbor(t, i) != tri.getNeighbor(t, i))) {
+					return false;
+				}
+			}
+		}
+		return snapshot.isTriangle(snapshot.locate(500, 500, new LocateContext()));
+	}
+
+	/*
+	 * True if a parallel build hands each triangle of the mesh to the sink
+	 * exactly once, and only falls back to a sequential build if the merge
+	 * is made to fail.
+	 */
+	private static boolean isSunkOnce(List<Vertex> verts, boolean mergeFailing) throws InvalidVertexException {
+		final IndexedTriangulation tri = createIndexed(verts);
+		final Set<Long> sunk = Sets.newHashSet();
+		final int[] count = { 0 };
+		tri.setTriangleSink(new IndexedTriangulation.TriangleSink() {
+			public void triangle(int a, int b, int c) {
+				// The smallest vertex first identifies the triangle
+				int first = Math.min(a, Math.min(b, c));
+				int second = first == a ? b : first == b ? c : a;
+				sunk.add((long) first << 32 | (second & 0xFFFFFFFFL));
+				count[0]++;
+			}
+		});
+		ParallelTriangulator parallel = new ParallelTriangulator(new ForkJoinPool(4));
+		parallel.setMergeFailing(mergeFailing);
+		boolean merged = parallel.triangulate(tri);
+		return merged != mergeFailing && count[0] == tri.getTriangleCount() && sunk.size() == count[0];
+	}
+
+	private static IndexedTriangulation createIndexed(List<Vertex> verts) {
+		IndexedTriangulation tri = new IndexedTriangulation();
+		for (Vertex v : verts) {
+			tri.addVertex(v.x, v.y);
+		}
+		return tri;
+	}
+
+	/*
+	 * True if the vertices found in the rectangle are those a scan finds.
+	 */
+	private static boolean isInBounds(Triangulation tri, Rectangle2D rect) {
+		Set<Vertex> expected = Sets.newHashSet();
+		for (Vertex v : tri.getVertices()) {
+			if (rect.contains(v.x, v.y)) {
+				expected.add(v);
+			}
+		}
+		return expected.equals(Sets.newHashSet(tri.getVerticesInBounds(rect)));
+	}
+
+	/*
+	 * True if the k nearest vertices found are as near as those a sort finds.
+	 */
+	private static boolean isNearest(Triangulation tri, final Vector q, int k) {
+		List<Vertex> sorted = Lists.newArrayList(tri.getVertices());
+		Collections.sort(sorted, new Comparator<Vertex>() {
+			public int compare(Vertex a, Vertex b) {
+				return Double.compare(a.subtract(q).lengthSquared(), b.subtract(q).lengthSquared());
+			}
+		});
+		Vertex[] found = new Vertex[k];
+		if (tri.kNearest(q, k, found) != k) {
+			return false;
+		}
+		for (int i = 0; i < k; i++) {
+			if (found[i].subtract(q).lengthSquared() != sorted.get(i).subtract(q).lengthSquared()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Triangulates copies of the vertices, then removes every 20th vertex and
+	 * moves the ones halfway between to the targets.
+	 */
+	private static Triangulation edit(List<Vertex> verts, List<Vertex> targets, boolean indexed) throws InvalidVertexException {
+		Triangulation tri = new Triangulation();
+		for (Vertex v : verts) {
+			tri.addVertex(v.x, v.y);
+		}
+		tri.setKeepSuperTriangle(true);
+		tri.setIndexedEngine(indexed);
+		tri.setLocatorHierarchy(indexed);
+		tri.triangulate();
+		for (int i = 0; i < targets.size(); i++) {
+			Vertex v = tri.locateNearestVertex(verts.get(i * 10));
+			if (i % 2 == 0) {
+				tri.removeVertex(v);
+			} else {
+				tri.moveVertex(v, targets.get(i).x, targets.get(i).y);
+			}
+		}
+		return tri;
+	}
+
+	/*
+	 * Triangulates the first vertices with the indexed engine, and puts the
+	 * rest into the live map.
+	 */
+	private static DtfeTriangulationMap<BasicDensityModel> createDtfe(List<Vertex> verts, int first, boolean live) throws InvalidVertexException {
+		DtfeTriangulationMap<BasicDensityModel> dtfe = new DtfeTriangulationMap<BasicDensityModel>();
+		dtfe.getTriangulation().setIndexedEngine(live);
+		for (Vertex v : verts.subList(0, first)) {
+			dtfe.put(v.x, v.y, new BasicDensityModel());
+		}
+		dtfe.triangulate();
+		dtfe.setLive(true);
+		for (Vertex v : verts.subList(first, verts.size())) {
+			dtfe.put(v.x, v.y, new BasicDensityModel());
+		}
+		return dtfe;
+	}
+
+	/*
+	 * Closes an arena while several threads query a mesh in it. The queries
+	 * must either finish or throw IllegalStateException, and never read the
+	 * released memory.
+	 */
+	private static boolean closeUnderReaders(TriangulationSnapshot snapshot, final List<Vertex> queries, int threads) throws InterruptedException {
+		MeshArena closing = new MeshArena();
+		final OffHeapTriangulation mesh = OffHeapTriangulation.copyOf(snapshot, closing);
+		final boolean[] failed = new boolean[threads];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int worker = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					LocateContext context = new LocateContext();
+					int[] result = new int[8];
+					try {
+						for (int round = 0;; round++) {
+							Vertex q = queries.get(round % queries.size());
+							mesh.kNearest(q.x, q.y, result.length, result, context);
+						}
+					} catch (IllegalStateException e) {
+						// The arena was closed
+					} catch (RuntimeException e) {
+						failed[worker] = true;
+					}
+				}
+			};
+			workers[i].start();
+		}
+		Thread.sleep(50);
+		closing.close();
+		boolean right = !closing.isOpen();
+		for (int i = 0; i < threads; i++) {
+			workers[i].join();
+			right &= !failed[i];
+		}
+		return right;
+	}
+
+	private static void insertConcurrently(final Triangulation tri, final List<Vertex> verts, final int threads) throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int v = first; v < verts.size(); v += threads) {
+						try {
+							tri.addVertexToTriangulation(verts.get(v));
+						} catch (InvalidVertexException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			};
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	/*
+	 * Finds the nearest vertices from several threads at once, each with its
+	 * own locate context.
+	 */
+	private static Vertex[] locateConcurrently(final Triangulation tri, final List<Vertex> queries, final int threads) throws InterruptedException {
+		final Vertex[] nearest = new Vertex[queries.size()];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					LocateContext context = new LocateContext();
+					for (int q = first; q < queries.size(); q += threads) {
+						nearest[q] = tri.locateNearestVertex(queries.get(q), context);
+					}
+				}
+			};
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return nearest;
+	}
+
+	private static Set<Set<Vertex>> getEdgeLocations(Triangulation t) {
+		Set<Set<Vertex>> edges = Sets.newHashSet();
+		for (Edge e : getEdges(t)) {
+			edges.add(Sets.newHashSet(e.a, e.b));
+		}
+		return edges;
+	}
+
+	private static Set<Long> getEdges(IndexedTriangulation t) {
+		Set<Long> edges = Sets.newHashSet();
+		for (int tri = 0; tri < t.getTriangleSlots(); tri++) {
+			if (t.isTriangle(tri)) {
+				for (int i = 0; i < 3; i++) {
+					long a = t.getTriangleVertex(tri, i);
+					long b = t.getTriangleVertex(tri, (i + 1) % 3);
+					edges.add(Math.min(a, b) << 32 | (Math.max(a, b) & 0xFFFFFFFFL));
+				}
+			}
+		}
+		return edges;
+	}
+
+	private static Set<Edge> getEdges(Triangulation t) {
+		Set<Edge> edges = Sets.newHashSet();
+		for (Triangle tri : t.getTriangles()) {
+			if (!t.touchesSuperVertex(tri)) {
+				for (Edge e : tri.getEdges()) {
+					edges.add(e);
+				}
+			}
+		}
+		return edges;
+	}
+}
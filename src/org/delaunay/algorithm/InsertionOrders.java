@@ -0,0 +1,174 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+/**
+ * Strategies for the order in which vertices are inserted into a
+ * triangulation. Points that are close in the insertion order should be close
+ * in space, so that each locate walk is short, but a purely spatial order can
+ * build long thin triangles first on some inputs, such as points on a few
+ * parallel lines, which then give large cavities.
+ *
+ * @see Triangulation#setInsertionOrder(InsertionOrder)
+ */
+public class InsertionOrders {
+	public static interface InsertionOrder {
+		/**
+		 * Returns the indices of the first {@code count} points of the
+		 * interleaved {x0, y0, x1, y1, ...} array in the order they should be
+		 * inserted. All points lie inside the bounds.
+		 */
+		int[] getOrder(double[] xy, int count, Rectangle2D bounds);
+	}
+
+	public static InputInsertionOrder createInputOrder() {
+		return new InputInsertionOrder();
+	}
+
+	public static HilbertInsertionOrder createHilbert(int hilbertOrder) {
+		return new HilbertInsertionOrder(hilbertOrder);
+	}
+
+	public static MortonInsertionOrder createMorton(int bits) {
+		return new MortonInsertionOrder(bits);
+	}
+
+	public static BiasedRandomInsertionOrder createBiasedRandom(int hilbertOrder, long seed) {
+		return new BiasedRandomInsertionOrder(hilbertOrder, seed);
+	}
+
+	/**
+	 * Inserts the points in the order they were added.
+	 */
+	public static class InputInsertionOrder implements InsertionOrder {
+		public int[] getOrder(double[] xy, int count, Rectangle2D bounds) {
+			return identity(count);
+		}
+	}
+
+	/**
+	 * Inserts the points along a hilbert curve. This is the default.
+	 */
+	public static class HilbertInsertionOrder implements InsertionOrder {
+		private final int hilbertOrder;
+
+		public HilbertInsertionOrder(int hilbertOrder) {
+			this.hilbertOrder = hilbertOrder;
+		}
+
+		public int[] getOrder(double[] xy, int count, Rectangle2D bounds) {
+			long[] keys = getHilbertKeys(xy, count, bounds, hilbertOrder);
+			int[] order = identity(count);
+			RadixSort.sort(keys, order, 2 * hilbertOrder);
+			return order;
+		}
+	}
+
+	/**
+	 * Inserts the points along a Morton (Z-order) curve, which interleaves
+	 * the bits of the scaled coordinates. The keys are cheaper to compute than
+	 * hilbert keys, but consecutive points may be far apart where the curve
+	 * jumps between quadrants.
+	 */
+	public static class MortonInsertionOrder implements InsertionOrder {
+		private final int bits;
+
+		public MortonInsertionOrder(int bits) {
+			if (bits < 1 || bits > 31) {
+				throw new IllegalArgumentException("bits must be between 1 and 31");
+			}
+			this.bits = bits;
+		}
+
+		public int[] getOrder(double[] xy, int count, Rectangle2D bounds) {
+			double side = 1L << bits;
+			double scaleX = bounds.getWidth() > 0 ? side / bounds.getWidth() : 0;
+			double scaleY = bounds.getHeight() > 0 ? side / bounds.getHeight() : 0;
+			int max = (int) ((1L << bits) - 1);
+			long[] keys = new long[count];
+			for (int i = 0; i < count; i++) {
+				long x = clamp((xy[i * 2] - bounds.getMinX()) * scaleX, max);
+				long y = clamp((xy[i * 2 + 1] - bounds.getMinY()) * scaleY, max);
+				keys[i] = (spread(x) << 1) | spread(y);
+			}
+			int[] order = identity(count);
+			RadixSort.sort(keys, order, 2 * bits);
+			return order;
+		}
+
+		/*
+		 * Moves the low 32 bits of v to the even bit positions.
+		 */
+		private static long spread(long v) {
+			v &= 0xFFFFFFFFL;
+			v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+			v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+			v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+			v = (v | (v << 2)) & 0x3333333333333333L;
+			v = (v | (v << 1)) & 0x5555555555555555L;
+			return v;
+		}
+	}
+
+	/**
+	 * Biased Randomized Insertion Order (BRIO). Each point is put into one of
+	 * several rounds at random: the last round gets about half of the points,
+	 * the one before it a quarter, and so on. The rounds are inserted in turn,
+	 * and the points within a round along a hilbert curve. The early sparse
+	 * rounds make a coarse triangulation of the whole input before the dense
+	 * rounds fill it in, which avoids the long thin triangles that a purely
+	 * spatial order can create, while each round keeps its walks short.
+	 */
+	public static class BiasedRandomInsertionOrder implements InsertionOrder {
+		private static final int MAX_ROUNDS = 32;
+
+		private final int hilbertOrder;
+		private final long seed;
+
+		public BiasedRandomInsertionOrder(int hilbertOrder, long seed) {
+			this.hilbertOrder = hilbertOrder;
+			this.seed = seed;
+		}
+
+		public int[] getOrder(double[] xy, int count, Rectangle2D bounds) {
+			long[] keys = getHilbertKeys(xy, count, bounds, hilbertOrder);
+			int[] order = identity(count);
+			RadixSort.sort(keys, order, 2 * hilbertOrder);
+
+			// A stable sort by round keeps the hilbert order within each round
+			Random random = new Random(seed);
+			long[] rounds = new long[count];
+			for (int i = 0; i < count; i++) {
+				int coinFlips = Long.numberOfTrailingZeros(random.nextLong() | (1L << (MAX_ROUNDS - 1)));
+				rounds[i] = MAX_ROUNDS - 1 - coinFlips;
+			}
+			RadixSort.sort(rounds, order, 5);
+			return order;
+		}
+	}
+
+	private static long[] getHilbertKeys(double[] xy, int count, Rectangle2D bounds, int hilbertOrder) {
+		ScaledHilbertIndex hilbert = new ScaledHilbertIndex(hilbertOrder, bounds);
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = hilbert.toIndex(xy[i * 2], xy[i * 2 + 1]);
+		}
+		return keys;
+	}
+
+	private static int[] identity(int count) {
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+
+	private static int clamp(double d, int max) {
+		if (!(d > 0)) {
+			return 0;
+		}
+		return d >= max ? max : (int) d;
+	}
+}
@@ -0,0 +1,115 @@
+package org.delaunay.algorithm;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.delaunay.model.Triangle;
+import org.delaunay.model.Vertex;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * The state of the walks of one thread: the triangle where the next walk
+ * starts, the number of locates and hops, and the scratch buffers of the
+ * queries. Walks with a context only read the mesh, so a triangulation that
+ * is no longer modified can be queried by many threads at once, each with a
+ * context of its own.
+ *
+ * @see Triangulation#locate(org.delaunay.model.Vector, LocateContext)
+ * @see IndexedTriangulation#locate(double, double, LocateContext)
+ */
+public final class LocateContext {
+	int last = IndexedTriangulation.NONE;
+	Triangle lastTriangle = null;
+	long hops = 0;
+	int locates = 0;
+
+	final List<Triangle> cavity = Lists.newArrayList();
+	final Set<Triangle> visited = Sets.newHashSet();
+
+	/*
+	 * Buffers of the nearest neighbor and range searches. A vertex or
+	 * triangle was seen by the current search if its stamp is the current
+	 * one.
+	 */
+	final DistanceQueue queue = new DistanceQueue();
+	final List<Vertex> queued = Lists.newArrayList();
+	final Set<Vertex> seen = Sets.newHashSet();
+	private int[] indices = new int[0];
+	private int[] vertexStamps = new int[0];
+	private int vertexStamp = 0;
+	int[] stack = new int[16];
+	private int[] triangleStamps = new int[0];
+	private int triangleStamp = 0;
+
+	public long getHopCount() {
+		return hops;
+	}
+
+	public int getLocateCount() {
+		return locates;
+	}
+
+	int nextVertexStamp(int vertexCount) {
+		if (vertexStamps.length < vertexCount) {
+			vertexStamps = Arrays.copyOf(vertexStamps, Math.max(vertexCount, vertexStamps.length * 2));
+		}
+		if (vertexStamp == Integer.MAX_VALUE) {
+			Arrays.fill(vertexStamps, 0);
+			vertexStamp = 0;
+		}
+		return ++vertexStamp;
+	}
+
+	/*
+	 * Stamps the vertex, and returns false if it already had the stamp.
+	 */
+	boolean stampVertex(int v, int stamp) {
+		if (vertexStamps[v] == stamp) {
+			return false;
+		}
+		vertexStamps[v] = stamp;
+		return true;
+	}
+
+	int nextTriangleStamp(int triangleSlots) {
+		if (triangleStamps.length < triangleSlots) {
+			triangleStamps = Arrays.copyOf(triangleStamps, Math.max(triangleSlots, triangleStamps.length * 2));
+		}
+		if (triangleStamp == Integer.MAX_VALUE) {
+			Arrays.fill(triangleStamps, 0);
+			triangleStamp = 0;
+		}
+		return ++triangleStamp;
+	}
+
+	/*
+	 * Stamps the triangle, and returns false if it already had the stamp.
+	 */
+	boolean stampTriangle(int t, int stamp) {
+		if (triangleStamps[t] == stamp) {
+			return false;
+		}
+		triangleStamps[t] = stamp;
+		return true;
+	}
+
+	int[] getIndices(int length) {
+		if (indices.length < length) {
+			indices = new int[length];
+		}
+		return indices;
+	}
+
+	/**
+	 * Forgets where the last walk ended and clears the counts.
+	 */
+	public void reset() {
+		last = IndexedTriangulation.NONE;
+		lastTriangle = null;
+		hops = 0;
+		locates = 0;
+	}
+}
@@ -0,0 +1,90 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A uniform grid of roughly square cells over a rectangle. A locator keeps a
+ * triangle near each cell, so that a walk toward a point can start in the
+ * cell of the point instead of wherever the previous walk ended. Points
+ * outside the rectangle belong to the nearest cell.
+ */
+public strictfp final class LocatorGrid {
+	private final double minX;
+	private final double minY;
+	private final double scaleX;
+	private final double scaleY;
+	private final int columns;
+	private final int rows;
+
+	public LocatorGrid(Rectangle2D bounds, int cells) {
+		double width = Math.max(bounds.getWidth(), 0);
+		double height = Math.max(bounds.getHeight(), 0);
+		cells = Math.max(cells, 1);
+		int columns;
+		if (width == 0 || height == 0) {
+			columns = width == 0 ? 1 : cells;
+		} else {
+			columns = (int) Math.round(Math.sqrt(cells * width / height));
+		}
+		this.columns = Math.max(1, Math.min(cells, columns));
+		this.rows = Math.max(1, cells / this.columns);
+		this.minX = bounds.getMinX();
+		this.minY = bounds.getMinY();
+		this.scaleX = width > 0 ? this.columns / width : 0;
+		this.scaleY = height > 0 ? this.rows / height : 0;
+	}
+
+	/*
+	 * Restores a grid from the fields of another, see TriangulationFile.
+	 */
+	LocatorGrid(double minX, double minY, double scaleX, double scaleY, int columns, int rows) {
+		this.minX = minX;
+		this.minY = minY;
+		this.scaleX = scaleX;
+		this.scaleY = scaleY;
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	double getMinX() {
+		return minX;
+	}
+
+	double getMinY() {
+		return minY;
+	}
+
+	double getScaleX() {
+		return scaleX;
+	}
+
+	double getScaleY() {
+		return scaleY;
+	}
+
+	int getColumns() {
+		return columns;
+	}
+
+	int getRows() {
+		return rows;
+	}
+
+	public int getCellCount() {
+		return columns * rows;
+	}
+
+	/**
+	 * Returns the index of the cell containing the point, in row-major order.
+	 */
+	public int getCell(double x, double y) {
+		return clamp((y - minY) * scaleY, rows) * columns + clamp((x - minX) * scaleX, columns);
+	}
+
+	private static int clamp(double d, int size) {
+		if (!(d > 0)) {
+			return 0;
+		}
+		return d >= size - 1 ? size - 1 : (int) d;
+	}
+}
@@ -0,0 +1,112 @@
+package org.delaunay.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing map from packed directed edges to triangle indices.
+ */
+final class LongIntMap {
+	static final long EMPTY = Long.MIN_VALUE;
+
+	private static final int NONE = IndexedTriangulation.NONE;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	public LongIntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the slots of the table, {@link #EMPTY} where there is no key.
+	 */
+	long[] keys() {
+		return keys;
+	}
+
+	public void put(long key, int value) {
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+		}
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		if (keys[i] == EMPTY) {
+			size++;
+		}
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	public int get(long key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Removes the key and returns its value, or {@link IndexedTriangulation#NONE}.
+	 */
+	public int remove(long key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != key) {
+			if (keys[i] == EMPTY) {
+				return NONE;
+			}
+			i = (i + 1) & mask;
+		}
+		int value = values[i];
+		size--;
+
+		// Moves back the later keys of the run that may no longer be reached
+		int hole = i;
+		for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+			int home = hash(keys[j]) & mask;
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = EMPTY;
+		return value;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
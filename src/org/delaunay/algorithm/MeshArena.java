@@ -0,0 +1,147 @@
+package org.delaunay.algorithm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Owns the native memory of {@link OffHeapTriangulation}s. The memory is
+ * allocated as direct buffers, or mapped from files by
+ * {@link TriangulationFile#map(File, MeshArena)}, outside the heap, so the
+ * garbage collector never scans or copies it. It is released all at once by
+ * {@link #close()} instead of when the collector finds the buffers
+ * unreachable. Queries on a mesh of a closed arena throw
+ * {@link IllegalStateException}; {@link #close()} waits for the queries
+ * already running, so no query ever reads released memory.
+ *
+ * Direct buffers are released through {@code sun.misc.Unsafe.invokeCleaner}.
+ * Where that is not available, closing only drops the buffers, and the
+ * collector releases them later.
+ */
+public final class MeshArena implements Closeable {
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final List<ByteBuffer> buffers = Lists.newArrayList();
+	private long allocatedBytes = 0;
+	private volatile boolean open = true;
+
+	/*
+	 * The number of queries reading the memory of the arena. A query counts
+	 * itself before it checks that the arena is open, and close() marks the
+	 * arena closed before it waits for the count to drop to zero, so either
+	 * the query sees the arena closed, or close() sees the query.
+	 */
+	private final AtomicInteger readers = new AtomicInteger();
+
+	/**
+	 * Returns a zeroed buffer of the given size. Buffers are little-endian,
+	 * the order of {@link TriangulationFile}, so meshes are written and
+	 * mapped without conversion.
+	 */
+	synchronized ByteBuffer allocate(int bytes) {
+		checkOpen();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		buffers.add(buffer);
+		allocatedBytes += bytes;
+		return buffer;
+	}
+
+	/**
+	 * Maps a read-only range of the file, which stays mapped until the arena
+	 * is closed. Mapped bytes are not counted as allocated.
+	 */
+	synchronized ByteBuffer map(FileChannel channel, long offset, int bytes) throws IOException {
+		checkOpen();
+		ByteBuffer buffer = channel.map(MapMode.READ_ONLY, offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+		buffers.add(buffer);
+		return buffer;
+	}
+
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	private void checkOpen() {
+		if (!open) {
+			throw new IllegalStateException("The arena is closed");
+		}
+	}
+
+	/*
+	 * Marks the start of a read of the memory of the arena, which must be
+	 * followed by release(), in a finally block. Reads may nest.
+	 */
+	void acquire() {
+		readers.incrementAndGet();
+		if (!open) {
+			readers.decrementAndGet();
+			throw new IllegalStateException("The arena is closed");
+		}
+	}
+
+	void release() {
+		readers.decrementAndGet();
+	}
+
+	/**
+	 * Releases the memory of every mesh in the arena, once the queries that
+	 * are running have finished. Must not be called from within a query.
+	 */
+	public synchronized void close() {
+		if (!open) {
+			return;
+		}
+		open = false;
+		while (readers.get() != 0) {
+			Thread.yield();
+		}
+		for (ByteBuffer buffer : buffers) {
+			release(buffer);
+		}
+		buffers.clear();
+		allocatedBytes = 0;
+	}
+
+	private static void release(ByteBuffer buffer) {
+		if (INVOKE_CLEANER == null) {
+			return;
+		}
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} catch (Exception e) {
+			// Left to the collector
+		}
+	}
+}
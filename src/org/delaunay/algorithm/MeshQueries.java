@@ -0,0 +1,348 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+import org.delaunay.algorithm.Triangulation.NonDelaunayException;
+import org.delaunay.model.Predicates;
+
+/**
+ * The queries of the indexed meshes, answered through a {@link MeshReader},
+ * so that {@link IndexedTriangulation}, {@link TriangulationSnapshot} and
+ * {@link OffHeapTriangulation} share one implementation. Each storage finds
+ * the triangle where a walk starts, from its locator grid or hierarchy, and
+ * the queries take it from there. They only read the mesh, so several threads
+ * may query at once, each with its own {@link LocateContext}.
+ */
+strictfp final class MeshQueries {
+	private static final int NONE = IndexedTriangulation.NONE;
+	private static final int FREE = IndexedTriangulation.FREE;
+	private static final int SUPER_VERTEX = IndexedTriangulation.SUPER_VERTEX;
+
+	private MeshQueries() {
+	}
+
+	/**
+	 * Walks from triangle {@code t}, or {@link IndexedTriangulation#NONE} if
+	 * the mesh has none, toward the point, and counts the locate and its hops
+	 * in the context, which keeps the last triangle visited. Returns the
+	 * triangle in which the point resides, or
+	 * {@link IndexedTriangulation#NONE} if it is outside the mesh.
+	 */
+	static int locate(MeshReader mesh, int t, double x, double y, LocateContext context)
+			throws NonDelaunayException {
+		context.locates += 1;
+		return t == NONE ? NONE : walk(mesh, t, x, y, context);
+	}
+
+	/**
+	 * Like {@link #locate(MeshReader, int, double, double, LocateContext)},
+	 * but the walk is not counted as a locate.
+	 */
+	static int walk(MeshReader mesh, int t, double x, double y, LocateContext context)
+			throws NonDelaunayException {
+		int maxHops = mesh.getTriangleCount();
+		int from = NONE;
+		for (int hops = 0;; hops++) {
+			if (hops > maxHops) {
+				throw new NonDelaunayException();
+			}
+			context.hops += 1;
+			context.last = t;
+
+			int next = t;
+			for (int i = 0; i < 3; i++) {
+				int n = mesh.getNeighbor(t, i);
+				// We already know which side of the edge we came from
+				if (n == from && n != NONE) {
+					continue;
+				}
+				int a = mesh.getTriangleVertex(t, (i + 1) % 3);
+				int b = mesh.getTriangleVertex(t, (i + 2) % 3);
+				if (orient(mesh, a, b, x, y) < 0) {
+					next = n;
+					break;
+				}
+			}
+			if (next == t) {
+				return t;
+			}
+			if (next == NONE) {
+				return NONE;
+			}
+			from = t;
+			t = next;
+		}
+	}
+
+	/**
+	 * Returns the vertex nearest to the point, starting from the triangle
+	 * {@code t} that contains it. In a Delaunay triangulation a vertex that is
+	 * not the nearest always has a neighbor that is nearer, so it is enough to
+	 * step to nearer neighbors until there are none. The last triangle
+	 * visited has the vertex as a corner, and is kept in the context as the
+	 * start of the next walk.
+	 */
+	static int walkToNearestVertex(MeshReader mesh, int t, double x, double y, LocateContext context) {
+		int best = NONE;
+		double dist = Double.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			int v = mesh.getTriangleVertex(t, i);
+			double d = distanceSquared(mesh, v, x, y);
+			if (d < dist) {
+				best = v;
+				dist = d;
+			}
+		}
+		if (best == NONE) {
+			// Only the super vertices, which are at infinity
+			context.last = t;
+			return NONE;
+		}
+
+		for (boolean improved = true; improved;) {
+			improved = false;
+			// Rotate counter-clockwise around best, then clockwise if the
+			// rotation stopped at the boundary
+			for (int direction = 1; direction <= 2 && !improved; direction++) {
+				int tri = t;
+				do {
+					int i = indexOf(mesh, tri, best);
+					for (int j = 1; j <= 2; j++) {
+						int v = mesh.getTriangleVertex(tri, (i + j) % 3);
+						double d = distanceSquared(mesh, v, x, y);
+						if (d < dist) {
+							best = v;
+							dist = d;
+							improved = true;
+						}
+					}
+					if (improved) {
+						t = tri;
+						break;
+					}
+					tri = mesh.getNeighbor(tri, (i + direction) % 3);
+				} while (tri != NONE && tri != t);
+				if (tri == t) {
+					break;
+				}
+			}
+		}
+		context.last = t;
+		return best;
+	}
+
+	/**
+	 * A best-first search over the Delaunay graph from the vertex nearest to
+	 * the point, where {@code t} is the triangle the point was located in.
+	 * Every other vertex is a neighbor of a nearer one: shrink the circle
+	 * around the point through it, keeping it on the circle, and the last
+	 * nearer vertex to leave the circle shares an empty circle, and so an
+	 * edge, with it. So vertices leave the queue in order of distance, and
+	 * the search stops after the first max of them, or at the first that is
+	 * not closer than the radius. Super vertices are searched through but not
+	 * returned.
+	 */
+	static int searchNearest(MeshReader mesh, int t, double x, double y, int max, double radiusSquared,
+			int[] result, LocateContext context) {
+		if (max <= 0) {
+			return 0;
+		}
+		if (t == NONE) {
+			// The point is outside the mesh, but the nearest vertex can be
+			// found from the triangle where the walk left it
+			t = context.last;
+			if (!isTriangle(mesh, t)) {
+				return 0;
+			}
+		}
+
+		int nearest = walkToNearestVertex(mesh, t, x, y, context);
+		if (nearest == NONE) {
+			return 0;
+		}
+
+		DistanceQueue queue = context.queue;
+		queue.clear();
+		int stamp = context.nextVertexStamp(mesh.getVertexCount());
+		int superSeen = 0;
+		if (nearest >= 0) {
+			context.stampVertex(nearest, stamp);
+		} else {
+			superSeen |= 1 << (SUPER_VERTEX - nearest);
+		}
+		queue.add(distanceSquared(mesh, nearest, x, y), nearest, context.last);
+
+		int count = 0;
+		while (!queue.isEmpty() && count < max && queue.peekKey() < radiusSquared) {
+			queue.poll();
+			int v = queue.getPolledVertex();
+			int start = queue.getPolledTriangle();
+			if (v >= 0) {
+				result[count++] = v;
+			}
+
+			// Rotate counter-clockwise around v, then clockwise if the
+			// rotation stopped at the boundary
+			for (int direction = 1; direction <= 2; direction++) {
+				int tri = start;
+				do {
+					int i = indexOf(mesh, tri, v);
+					for (int j = 1; j <= 2; j++) {
+						int u = mesh.getTriangleVertex(tri, (i + j) % 3);
+						int bit = u < 0 ? 1 << (SUPER_VERTEX - u) : 0;
+						if (u >= 0 ? context.stampVertex(u, stamp) : (superSeen & bit) == 0) {
+							superSeen |= bit;
+							queue.add(distanceSquared(mesh, u, x, y), u, tri);
+						}
+					}
+					tri = mesh.getNeighbor(tri, (i + direction) % 3);
+				} while (tri != NONE && tri != start);
+				if (tri == start) {
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the vertices in the non-empty rectangle to {@code result} and
+	 * counts them, where {@code t} is the triangle the center of the
+	 * rectangle was located in.
+	 */
+	static int getVerticesInBounds(MeshReader mesh, int t, Rectangle2D rect, int[] result, LocateContext context) {
+		boolean ghostTriangles = mesh.isGhostTriangles();
+		if (t == NONE || (ghostTriangles && touchesSuperVertex(mesh, t))) {
+			return scanVerticesInBounds(mesh, rect, result);
+		}
+
+		/*
+		 * The triangles that overlap the rectangle cover the part of it inside
+		 * the mesh, so while the mesh is convex they are connected, and a
+		 * flood from the triangle of its center reaches all of them. A
+		 * triangle is flooded if its bounding box overlaps the rectangle,
+		 * which takes in a few more, but never misses one. Ghost triangles
+		 * have no bounding box and are never flooded. Once the super triangle
+		 * is removed the boundary may be concave, and the part of the
+		 * rectangle inside the mesh split in pieces that all reach the
+		 * boundary; so if the flood meets the boundary inside the rectangle,
+		 * the vertices are scanned instead.
+		 */
+		double minX = rect.getMinX();
+		double minY = rect.getMinY();
+		double maxX = rect.getMaxX();
+		double maxY = rect.getMaxY();
+		int triangleStamp = context.nextTriangleStamp(mesh.getTriangleSlots());
+		int vertexStamp = context.nextVertexStamp(mesh.getVertexCount());
+		int[] stack = context.stack;
+		int size = 0;
+		int count = 0;
+		context.stampTriangle(t, triangleStamp);
+		stack[size++] = t;
+		while (size > 0) {
+			t = stack[--size];
+			for (int i = 0; i < 3; i++) {
+				int v = mesh.getTriangleVertex(t, i);
+				if (v >= 0 && context.stampVertex(v, vertexStamp) && rect.contains(mesh.getX(v), mesh.getY(v))) {
+					if (count < result.length) {
+						result[count] = v;
+					}
+					count++;
+				}
+				int n = mesh.getNeighbor(t, i);
+				if (n == NONE && overlaps(mesh, mesh.getTriangleVertex(t, (i + 1) % 3),
+						mesh.getTriangleVertex(t, (i + 2) % 3), minX, minY, maxX, maxY)) {
+					return scanVerticesInBounds(mesh, rect, result);
+				}
+				if (n != NONE && context.stampTriangle(n, triangleStamp)
+						&& !(ghostTriangles && touchesSuperVertex(mesh, n))
+						&& overlaps(mesh, n, minX, minY, maxX, maxY)) {
+					if (size == stack.length) {
+						stack = context.stack = Arrays.copyOf(stack, size * 2);
+					}
+					stack[size++] = n;
+				}
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * There is no triangle to flood from, or the flood can not reach all of
+	 * the rectangle.
+	 */
+	private static int scanVerticesInBounds(MeshReader mesh, Rectangle2D rect, int[] result) {
+		int count = 0;
+		for (int v = 0; v < mesh.getVertexCount(); v++) {
+			if (mesh.isInserted(v) && rect.contains(mesh.getX(v), mesh.getY(v))) {
+				if (count < result.length) {
+					result[count] = v;
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * True if the bounding box of triangle t overlaps the rectangle.
+	 */
+	private static boolean overlaps(MeshReader mesh, int t, double minX, double minY, double maxX, double maxY) {
+		int a = mesh.getTriangleVertex(t, 0);
+		int b = mesh.getTriangleVertex(t, 1);
+		int c = mesh.getTriangleVertex(t, 2);
+		return Math.max(mesh.getX(a), Math.max(mesh.getX(b), mesh.getX(c))) >= minX
+				&& Math.min(mesh.getX(a), Math.min(mesh.getX(b), mesh.getX(c))) <= maxX
+				&& Math.max(mesh.getY(a), Math.max(mesh.getY(b), mesh.getY(c))) >= minY
+				&& Math.min(mesh.getY(a), Math.min(mesh.getY(b), mesh.getY(c))) <= maxY;
+	}
+
+	/*
+	 * True if the bounding box of the edge from a to b overlaps the rectangle.
+	 */
+	private static boolean overlaps(MeshReader mesh, int a, int b,
+			double minX, double minY, double maxX, double maxY) {
+		return Math.max(mesh.getX(a), mesh.getX(b)) >= minX && Math.min(mesh.getX(a), mesh.getX(b)) <= maxX
+				&& Math.max(mesh.getY(a), mesh.getY(b)) >= minY && Math.min(mesh.getY(a), mesh.getY(b)) <= maxY;
+	}
+
+	static boolean isTriangle(MeshReader mesh, int t) {
+		return t >= 0 && t < mesh.getTriangleSlots() && mesh.getTriangleVertex(t, 0) != FREE;
+	}
+
+	private static boolean touchesSuperVertex(MeshReader mesh, int t) {
+		return mesh.getTriangleVertex(t, 0) < 0 || mesh.getTriangleVertex(t, 1) < 0
+				|| mesh.getTriangleVertex(t, 2) < 0;
+	}
+
+	private static int indexOf(MeshReader mesh, int t, int v) {
+		for (int i = 0; i < 3; i++) {
+			if (mesh.getTriangleVertex(t, i) == v) {
+				return i;
+			}
+		}
+		throw new NonDelaunayException();
+	}
+
+	/*
+	 * Positive if (x, y) lies to the left of the directed edge ab, exactly,
+	 * with the super vertices at infinity if the mesh has ghost triangles.
+	 */
+	private static double orient(MeshReader mesh, int a, int b, double x, double y) {
+		if (mesh.isGhostTriangles() && (a < 0 || b < 0)) {
+			return GhostPredicates.orient(mesh.getX(a), mesh.getY(a), a < 0 ? SUPER_VERTEX - a : -1,
+					mesh.getX(b), mesh.getY(b), b < 0 ? SUPER_VERTEX - b : -1, x, y, -1);
+		}
+		return Predicates.orient2d(mesh.getX(a), mesh.getY(a), mesh.getX(b), mesh.getY(b), x, y);
+	}
+
+	private static double distanceSquared(MeshReader mesh, int v, double x, double y) {
+		if (mesh.isGhostTriangles() && v < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double dx = mesh.getX(v) - x;
+		double dy = mesh.getY(v) - y;
+		return dx * dx + dy * dy;
+	}
+}
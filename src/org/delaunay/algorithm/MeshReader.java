@@ -0,0 +1,39 @@
+package org.delaunay.algorithm;
+
+/**
+ * Read access to a mesh in the indices and conventions of
+ * {@link IndexedTriangulation}, which {@link MeshQueries} answers its
+ * queries through. Implemented by {@link IndexedTriangulation},
+ * {@link TriangulationSnapshot} and the buffers of
+ * {@link OffHeapTriangulation}.
+ */
+interface MeshReader {
+	int getVertexCount();
+
+	int getTriangleSlots();
+
+	int getTriangleCount();
+
+	boolean isGhostTriangles();
+
+	/**
+	 * Returns the coordinates of a vertex, or of a super vertex.
+	 */
+	double getX(int v);
+
+	double getY(int v);
+
+	boolean isInserted(int v);
+
+	/**
+	 * Returns vertex {@code i} of a triangle, or
+	 * {@link IndexedTriangulation#FREE} for a free slot.
+	 */
+	int getTriangleVertex(int t, int i);
+
+	/**
+	 * Returns the triangle across the edge opposite vertex {@code i}, or
+	 * {@link IndexedTriangulation#NONE}.
+	 */
+	int getNeighbor(int t, int i);
+}
@@ -0,0 +1,592 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.delaunay.algorithm.Triangulation.NonDelaunayException;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An immutable copy of a mesh whose arrays live outside the heap, in the
+ * memory of a {@link MeshArena}. It has the indices, conventions and queries
+ * of {@link TriangulationSnapshot}, but the heap holds only a few buffer
+ * references however large the mesh is, so a mesh of hundreds of millions of
+ * triangles adds nothing to garbage collection pauses. Made by
+ * {@link IndexedTriangulation#freezeOffHeap(MeshArena)},
+ * {@link Triangulation#freezeOffHeap(MeshArena)} or
+ * {@link #copyOf(TriangulationSnapshot, MeshArena)}, or mapped from a file by
+ * {@link TriangulationFile#map(java.io.File, MeshArena)}.
+ *
+ * Each triangle is stored as its three vertices and then its three
+ * neighbors, so a walk reads one cache line per hop. The arrays are split
+ * into buffers of at most 2^26 vertices or 2^25 triangles, since a direct
+ * buffer holds at most 2GB.
+ *
+ * Any number of threads may query the mesh at once, each with its own
+ * {@link LocateContext}, until the arena is closed. Every query holds the
+ * arena while it reads, so closing the arena waits for the queries that are
+ * running. *
+ * The mesh is frozen and only answers queries: it can not be edited, and
+ * triangulation does not write to the arena. A mesh to be frozen is built on
+ * the heap first, by {@link IndexedTriangulation} or {@link Triangulation},
+ * and then copied, so building it still takes as much heap as before, and
+ * only the finished mesh leaves the heap. A mesh decoded by
+ * {@link TriangulationCodec#decode(java.io.InputStream, MeshArena)} or
+ * mapped from a file is written to the arena directly.
+ */
+public strictfp final class OffHeapTriangulation {
+	private static final int NONE = IndexedTriangulation.NONE;
+	private static final int FREE = IndexedTriangulation.FREE;
+
+	static final int VERTEX_SHIFT = 26;
+	static final int TRIANGLE_SHIFT = 25;
+	static final int COORD_BYTES = 16;
+	static final int TRIANGLE_BYTES = 24;
+	private static final int VERTEX_MASK = (1 << VERTEX_SHIFT) - 1;
+	private static final int TRIANGLE_MASK = (1 << TRIANGLE_SHIFT) - 1;
+	private static final byte ON_HULL = 1;
+	private static final int HILBERT_ORDER = 16;
+
+	private final MeshArena arena;
+	private final int vertexCount;
+	private final int triangleSlots;
+	private final double[] superCoords;
+	private final boolean hasSuperTriangle;
+	private final boolean ghostTriangles;
+
+	private final ByteBuffer[] coordBuffers;
+	private final ByteBuffer[] vertexTriangleBuffers;
+	private final ByteBuffer[] flagBuffers;
+	private final ByteBuffer[] triangleBuffers;
+
+	private final LocatorGrid locatorGrid;
+	private final ByteBuffer gridVertices;
+
+	private int triangleCount;
+	private int startTriangle;
+
+	// Reads the buffers for the queries, which hold the arena themselves
+	private final MeshReader reader = new MeshReader() {
+		public int getVertexCount() {
+			return vertexCount;
+		}
+
+		public int getTriangleSlots() {
+			return triangleSlots;
+		}
+
+		public int getTriangleCount() {
+			return triangleCount;
+		}
+
+		public boolean isGhostTriangles() {
+			return ghostTriangles;
+		}
+
+		public double getX(int v) {
+			return x(v);
+		}
+
+		public double getY(int v) {
+			return y(v);
+		}
+
+		public boolean isInserted(int v) {
+			return vertexTriangle(v) != NONE;
+		}
+
+		public int getTriangleVertex(int t, int i) {
+			return vertex(t, i);
+		}
+
+		public int getNeighbor(int t, int i) {
+			return neighbor(t, i);
+		}
+	};
+
+	/*
+	 * Allocates the buffers, which are then filled by setVertex and
+	 * setTriangle, and finished, before the mesh is published.
+	 */
+	OffHeapTriangulation(MeshArena arena, int vertexCount, int triangleSlots,
+			double[] superCoords, boolean hasSuperTriangle, boolean ghostTriangles,
+			LocatorGrid locatorGrid, int[] gridVertices) {
+		this(arena, vertexCount, triangleSlots, 0, NONE, superCoords, hasSuperTriangle, ghostTriangles,
+				allocate(arena, vertexCount, VERTEX_SHIFT, COORD_BYTES),
+				allocate(arena, vertexCount, VERTEX_SHIFT, 4),
+				allocate(arena, vertexCount, VERTEX_SHIFT, 1),
+				allocate(arena, triangleSlots, TRIANGLE_SHIFT, TRIANGLE_BYTES),
+				gridVertices == null ? null : locatorGrid,
+				gridVertices == null ? null : allocate(arena, gridVertices));
+	}
+
+	/*
+	 * Wraps buffers that already hold a mesh, such as those mapped from a
+	 * file.
+	 */
+	OffHeapTriangulation(MeshArena arena, int vertexCount, int triangleSlots, int triangleCount, int startTriangle,
+			double[] superCoords, boolean hasSuperTriangle, boolean ghostTriangles,
+			ByteBuffer[] coordBuffers, ByteBuffer[] vertexTriangleBuffers, ByteBuffer[] flagBuffers,
+			ByteBuffer[] triangleBuffers, LocatorGrid locatorGrid, ByteBuffer gridVertices) {
+		this.arena = arena;
+		this.vertexCount = vertexCount;
+		this.triangleSlots = triangleSlots;
+		this.triangleCount = triangleCount;
+		this.startTriangle = startTriangle;
+		this.superCoords = superCoords.clone();
+		this.hasSuperTriangle = hasSuperTriangle;
+		this.ghostTriangles = ghostTriangles;
+		this.coordBuffers = coordBuffers;
+		this.vertexTriangleBuffers = vertexTriangleBuffers;
+		this.flagBuffers = flagBuffers;
+		this.triangleBuffers = triangleBuffers;
+		this.locatorGrid = locatorGrid;
+		this.gridVertices = gridVertices;
+	}
+
+	/**
+	 * Copies the snapshot into the arena.
+	 */
+	public static OffHeapTriangulation copyOf(TriangulationSnapshot snapshot, MeshArena arena) {
+		OffHeapTriangulation mesh = new OffHeapTriangulation(arena,
+				snapshot.getVertexCount(), snapshot.getTriangleSlots(),
+				snapshot.getSuperCoordinates(), snapshot.hasSuperTriangle(), snapshot.isGhostTriangles(),
+				snapshot.getLocatorGrid(), snapshot.getGridVertices());
+		for (int v = 0; v < snapshot.getVertexCount(); v++) {
+			mesh.setVertex(v, snapshot.getX(v), snapshot.getY(v), snapshot.getVertexTriangle(v));
+		}
+		for (int t = 0; t < snapshot.getTriangleSlots(); t++) {
+			mesh.setTriangle(t,
+					snapshot.getTriangleVertex(t, 0), snapshot.getTriangleVertex(t, 1), snapshot.getTriangleVertex(t, 2),
+					snapshot.getNeighbor(t, 0), snapshot.getNeighbor(t, 1), snapshot.getNeighbor(t, 2));
+		}
+		mesh.finish();
+		return mesh;
+	}
+
+	void setVertex(int v, double x, double y, int triangle) {
+		ByteBuffer coords = coordBuffers[v >>> VERTEX_SHIFT];
+		int offset = (v & VERTEX_MASK) * COORD_BYTES;
+		coords.putDouble(offset, x);
+		coords.putDouble(offset + 8, y);
+		vertexTriangleBuffers[v >>> VERTEX_SHIFT].putInt((v & VERTEX_MASK) * 4, triangle);
+	}
+
+	void setVertexTriangle(int v, int triangle) {
+		vertexTriangleBuffers[v >>> VERTEX_SHIFT].putInt((v & VERTEX_MASK) * 4, triangle);
+	}
+
+	void setTriangle(int t, int a, int b, int c, int na, int nb, int nc) {
+		ByteBuffer buffer = triangleBuffers[t >>> TRIANGLE_SHIFT];
+		int offset = (t & TRIANGLE_MASK) * TRIANGLE_BYTES;
+		buffer.putInt(offset, a);
+		buffer.putInt(offset + 4, b);
+		buffer.putInt(offset + 8, c);
+		buffer.putInt(offset + 12, na);
+		buffer.putInt(offset + 16, nb);
+		buffer.putInt(offset + 20, nc);
+	}
+
+	void setNeighbor(int t, int i, int n) {
+		triangleBuffers[t >>> TRIANGLE_SHIFT].putInt((t & TRIANGLE_MASK) * TRIANGLE_BYTES + 12 + i * 4, n);
+	}
+
+	/*
+	 * Counts the triangles and flags the hull vertices once every triangle
+	 * and neighbor is set.
+	 */
+	void finish() {
+		triangleCount = 0;
+		startTriangle = NONE;
+		for (int t = 0; t < triangleSlots; t++) {
+			if (vertex(t, 0) == FREE) {
+				continue;
+			}
+			triangleCount++;
+			if (startTriangle == NONE) {
+				startTriangle = t;
+			}
+			// The vertices next to a super vertex or the outside are on the hull
+			boolean touchesSuperVertex = vertex(t, 0) < 0 || vertex(t, 1) < 0 || vertex(t, 2) < 0;
+			for (int i = 0; i < 3; i++) {
+				int v = vertex(t, i);
+				if (v >= 0 && (touchesSuperVertex
+						|| neighbor(t, (i + 1) % 3) == NONE || neighbor(t, (i + 2) % 3) == NONE)) {
+					ByteBuffer flags = flagBuffers[v >>> VERTEX_SHIFT];
+					int index = v & VERTEX_MASK;
+					flags.put(index, (byte) (flags.get(index) | ON_HULL));
+				}
+			}
+		}
+	}
+
+	public MeshArena getArena() {
+		return arena;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getTriangleSlots() {
+		return triangleSlots;
+	}
+
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	public boolean hasSuperTriangle() {
+		return hasSuperTriangle;
+	}
+
+	public boolean isGhostTriangles() {
+		return ghostTriangles;
+	}
+
+	/**
+	 * Returns the number of bytes of native memory used by the mesh.
+	 */
+	public long getMemoryBytes() {
+		long bytes = (long) vertexCount * (COORD_BYTES + 5) + (long) triangleSlots * TRIANGLE_BYTES;
+		if (gridVertices != null) {
+			bytes += gridVertices.capacity();
+		}
+		return bytes;
+	}
+
+	public double getX(int v) {
+		arena.acquire();
+		try {
+			return x(v);
+		} finally {
+			arena.release();
+		}
+	}
+
+	public double getY(int v) {
+		arena.acquire();
+		try {
+			return y(v);
+		} finally {
+			arena.release();
+		}
+	}
+
+	public boolean isInserted(int v) {
+		return getVertexTriangle(v) != NONE;
+	}
+
+	/**
+	 * Returns true if the vertex is on the boundary of the triangulation of
+	 * the vertices: it is a corner of a triangle that touches a super vertex,
+	 * or of an edge without a neighbor.
+	 */
+	public boolean isOnHull(int v) {
+		arena.acquire();
+		try {
+			return v >= 0 && v < vertexCount
+					&& (flagBuffers[v >>> VERTEX_SHIFT].get(v & VERTEX_MASK) & ON_HULL) != 0;
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Returns a triangle incident to the vertex, or {@link IndexedTriangulation#NONE}
+	 * if the vertex is not in the mesh.
+	 */
+	public int getVertexTriangle(int v) {
+		arena.acquire();
+		try {
+			return vertexTriangle(v);
+		} finally {
+			arena.release();
+		}
+	}
+
+	public boolean isTriangle(int t) {
+		arena.acquire();
+		try {
+			return t >= 0 && t < triangleSlots && vertex(t, 0) != FREE;
+		} finally {
+			arena.release();
+		}
+	}
+
+	public int getTriangleVertex(int t, int i) {
+		arena.acquire();
+		try {
+			return vertex(t, i);
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Returns the triangle across the edge opposite vertex {@code i}, or
+	 * {@link IndexedTriangulation#NONE}.
+	 */
+	public int getNeighbor(int t, int i) {
+		arena.acquire();
+		try {
+			return neighbor(t, i);
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Returns the triangle in which the point resides, or
+	 * {@link IndexedTriangulation#NONE} if it is outside the mesh.
+	 *
+	 * @see TriangulationSnapshot#locate(double, double, LocateContext)
+	 */
+	public int locate(double x, double y, LocateContext context) throws NonDelaunayException {
+		arena.acquire();
+		try {
+			return walk(x, y, context);
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Returns the vertex nearest to the point, or
+	 * {@link IndexedTriangulation#NONE} if it is outside the mesh.
+	 *
+	 * @see TriangulationSnapshot#locateNearestVertex(double, double, LocateContext)
+	 */
+	public int locateNearestVertex(double x, double y, LocateContext context) {
+		arena.acquire();
+		try {
+			int t = walk(x, y, context);
+			return t == NONE ? NONE : MeshQueries.walkToNearestVertex(reader, t, x, y, context);
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Writes the indices of the {@code k} vertices nearest to the point to
+	 * {@code result}, nearest first, and returns their number.
+	 *
+	 * @see IndexedTriangulation#kNearest(double, double, int, int[], LocateContext)
+	 */
+	public int kNearest(double x, double y, int k, int[] result, LocateContext context) {
+		arena.acquire();
+		try {
+			int t = walk(x, y, context);
+			return MeshQueries.searchNearest(reader, t, x, y, k, Double.POSITIVE_INFINITY, result, context);
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Writes the indices of the vertices closer to the point than
+	 * {@code radius} to {@code result}, nearest first, and returns their
+	 * number.
+	 *
+	 * @see IndexedTriangulation#withinRadius(double, double, double, int[], LocateContext)
+	 */
+	public int withinRadius(double x, double y, double radius, int[] result, LocateContext context) {
+		arena.acquire();
+		try {
+			int t = walk(x, y, context);
+			return MeshQueries.searchNearest(reader, t, x, y, result.length, radius * radius, result, context);
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Writes the indices of the vertices in the rectangle to {@code result},
+	 * and returns their number, which may be more than fit in the array.
+	 *
+	 * @see IndexedTriangulation#getVerticesInBounds(Rectangle2D, int[], LocateContext)
+	 */
+	public int getVerticesInBounds(Rectangle2D rect, int[] result, LocateContext context) {
+		arena.acquire();
+		try {
+			if (rect.isEmpty()) {
+				return 0;
+			}
+			int t = walk(rect.getCenterX(), rect.getCenterY(), context);
+			return MeshQueries.getVerticesInBounds(reader, t, rect, result, context);
+		} finally {
+			arena.release();
+		}
+	}
+
+	/**
+	 * Locates many points at once, along a hilbert curve through them, and
+	 * divides large batches among the threads of the common fork/join pool.
+	 *
+	 * @see IndexedTriangulation#locateAll(double[], double[], int[])
+	 */
+	public void locateAll(double[] xs, double[] ys, int[] triangles) {
+		queryAll(xs, ys, triangles, false);
+	}
+
+	/**
+	 * Finds the nearest vertices of many points at once, like
+	 * {@link #locateAll(double[], double[], int[])}.
+	 *
+	 * @see IndexedTriangulation#nearestAll(double[], double[], int[])
+	 */
+	public void nearestAll(double[] xs, double[] ys, int[] vertices) {
+		queryAll(xs, ys, vertices, true);
+	}
+
+	/*
+	 * The workers read the buffers while the calling thread, which holds the
+	 * arena, waits for them.
+	 */
+	private void queryAll(final double[] xs, final double[] ys, final int[] results, final boolean nearest) {
+		arena.acquire();
+		try {
+			final int count = xs.length;
+			final int[] order = IndexedTriangulation.sortAlongHilbertCurve(xs, ys, HILBERT_ORDER);
+			int tasks = (count + IndexedTriangulation.QUERIES_PER_TASK - 1) / IndexedTriangulation.QUERIES_PER_TASK;
+			List<RecursiveAction> actions = Lists.newArrayList();
+			for (int k = 0; k < tasks; k++) {
+				final int from = k * IndexedTriangulation.QUERIES_PER_TASK;
+				final int to = Math.min(count, from + IndexedTriangulation.QUERIES_PER_TASK);
+				actions.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						LocateContext context = new LocateContext();
+						for (int q = from; q < to; q++) {
+							int i = order[q];
+							int t = walk(xs[i], ys[i], context);
+							results[i] = t == NONE || !nearest
+									? t
+									: MeshQueries.walkToNearestVertex(reader, t, xs[i], ys[i], context);
+						}
+					}
+				});
+			}
+			if (tasks > 1) {
+				final List<RecursiveAction> all = actions;
+				ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(all);
+					}
+				});
+			} else if (tasks == 1) {
+				actions.get(0).invoke();
+			}
+		} finally {
+			arena.release();
+		}
+	}
+	private int walk(double x, double y, LocateContext context) {
+		return MeshQueries.locate(reader, startTriangle(x, y, context), x, y, context);
+	}
+
+
+	private int startTriangle(double x, double y, LocateContext context) {
+		if (gridVertices != null) {
+			int t = vertexTriangle(gridVertices.getInt(locatorGrid.getCell(x, y) * 4));
+			if (t != NONE) {
+				return t;
+			}
+		}
+		return context.last >= 0 && context.last < triangleSlots && vertex(context.last, 0) != FREE
+				? context.last
+				: startTriangle;
+	}
+
+	int getStartTriangle() {
+		return startTriangle;
+	}
+
+	double[] getSuperCoordinates() {
+		return superCoords;
+	}
+
+	/*
+	 * The buffers of the arrays, in order, for TriangulationFile.
+	 */
+	ByteBuffer[] getCoordBuffers() {
+		return coordBuffers;
+	}
+
+	ByteBuffer[] getVertexTriangleBuffers() {
+		return vertexTriangleBuffers;
+	}
+
+	ByteBuffer[] getFlagBuffers() {
+		return flagBuffers;
+	}
+
+	ByteBuffer[] getTriangleBuffers() {
+		return triangleBuffers;
+	}
+
+	LocatorGrid getLocatorGrid() {
+		return locatorGrid;
+	}
+
+	ByteBuffer getGridVertices() {
+		return gridVertices;
+	}
+
+	/*
+	 * The accessors below do not hold the arena, so the queries hold it once
+	 * instead of on every read.
+	 */
+	private double x(int v) {
+		return v >= 0
+				? coordBuffers[v >>> VERTEX_SHIFT].getDouble((v & VERTEX_MASK) * COORD_BYTES)
+				: superCoords[(IndexedTriangulation.SUPER_VERTEX - v) << 1];
+	}
+
+	private double y(int v) {
+		return v >= 0
+				? coordBuffers[v >>> VERTEX_SHIFT].getDouble((v & VERTEX_MASK) * COORD_BYTES + 8)
+				: superCoords[((IndexedTriangulation.SUPER_VERTEX - v) << 1) + 1];
+	}
+
+	private int vertexTriangle(int v) {
+		return v >= 0 && v < vertexCount ? vertexTriangleBuffers[v >>> VERTEX_SHIFT].getInt((v & VERTEX_MASK) * 4) : NONE;
+	}
+
+	private int vertex(int t, int i) {
+		return triangleBuffers[t >>> TRIANGLE_SHIFT].getInt((t & TRIANGLE_MASK) * TRIANGLE_BYTES + i * 4);
+	}
+
+	private int neighbor(int t, int i) {
+		return triangleBuffers[t >>> TRIANGLE_SHIFT].getInt((t & TRIANGLE_MASK) * TRIANGLE_BYTES + 12 + i * 4);
+	}
+
+	private static ByteBuffer allocate(MeshArena arena, int[] values) {
+		ByteBuffer buffer = arena.allocate(values.length * 4);
+		for (int i = 0; i < values.length; i++) {
+			buffer.putInt(i * 4, values[i]);
+		}
+		return buffer;
+	}
+
+	/*
+	 * Allocates buffers of 2^shift records for count records.
+	 */
+	private static ByteBuffer[] allocate(MeshArena arena, int count, int shift, int recordBytes) {
+		ByteBuffer[] buffers = new ByteBuffer[(int) (((long) count + (1 << shift) - 1) >>> shift)];
+		for (int i = 0; i < buffers.length; i++) {
+			int records = (int) Math.min(1L << shift, (long) count - ((long) i << shift));
+			buffers[i] = arena.allocate(records * recordBytes);
+		}
+		return buffers;
+	}
+}
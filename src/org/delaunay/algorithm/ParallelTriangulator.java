@@ -0,0 +1,519 @@
+package org.delaunay.algorithm;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.delaunay.algorithm.IndexedTriangulation.Mesh;
+import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Builds the triangulation of an {@link IndexedTriangulation} on several
+ * cores with a fork/join pool.
+ *
+ * The vertices are divided into vertical strips, and each strip is
+ * triangulated by its own task using the same super triangle. A triangle of a
+ * strip whose circumcircle lies strictly inside the strip cannot contain a
+ * vertex of any other strip, so it is a triangle of the full triangulation.
+ * These triangles are final. The vertices of all other triangles are then
+ * triangulated together, and of that triangulation the triangles outside the
+ * region covered by final triangles are kept.
+ *
+ * An edge between a final triangle and a non-final triangle has an empty
+ * circle through its vertices that touches no other vertex, so it is an edge
+ * of the triangulation of any subset of the vertices. The two sets of
+ * triangles therefore meet exactly along those edges.
+ */
+public strictfp class ParallelTriangulator {
+	private static final int NONE = IndexedTriangulation.NONE;
+
+	/*
+	 * Triangles flatter than this ratio of area to squared edge length are
+	 * never final, so that the circumcircle tolerance below holds.
+	 */
+	private static final double FLATNESS_BOUND = 1e-6;
+	private static final double CIRCLE_TOLERANCE = 1e-9;
+	private static final int SAMPLES_PER_STRIP = 64;
+
+	private final ForkJoinPool pool;
+	private int stripCount;
+	private int finalTriangleCount = 0;
+	private int boundaryVertexCount = 0;
+	private boolean mergeFailing = false;
+
+	public ParallelTriangulator(ForkJoinPool pool) {
+		this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+		this.stripCount = this.pool.getParallelism();
+	}
+
+	public void setStripCount(int stripCount) {
+		this.stripCount = Math.max(stripCount, 1);
+	}
+
+	/*
+	 * Makes every merge fail, so that tests reach the sequential fallback.
+	 */
+	void setMergeFailing(boolean mergeFailing) {
+		this.mergeFailing = mergeFailing;
+	}
+
+	/**
+	 * Returns the number of triangles of the last triangulation that were
+	 * final in their strip, 0 if it fell back to a sequential one.
+	 */
+	public int getFinalTriangleCount() {
+		return finalTriangleCount;
+	}
+
+	/**
+	 * Returns the number of vertices of the last triangulation that were
+	 * triangulated again in the merge step, 0 if it fell back to a
+	 * sequential one.
+	 */
+	public int getBoundaryVertexCount() {
+		return boundaryVertexCount;
+	}
+
+	/**
+	 * Triangulates the vertices of the target, with the same result as
+	 * {@link IndexedTriangulation#triangulate(Rectangle2D)} with the bounding
+	 * box of its vertices. Returns false if the strips did not match and the
+	 * target was triangulated sequentially by that method instead.
+	 *
+	 * Either way each triangle is handed to the sink of the target once,
+	 * after the whole mesh is built. The strips insert their vertices along
+	 * the hilbert curve; an {@link InsertionOrders.InsertionOrder} set on the
+	 * target is only used by the sequential fallback.
+	 */
+	public boolean triangulate(final IndexedTriangulation target) throws InvalidVertexException {
+		finalTriangleCount = 0;
+		boundaryVertexCount = 0;
+		int vertexCount = target.getVertexCount();
+		if (vertexCount == 0) {
+			return true;
+		}
+		final Rectangle2D bounds = target.getBoundingBox();
+		Strip[] strips = createStrips(target);
+
+		target.getDebugLogger().debug("Triangulating " + strips.length + " Strips");
+		forEach(strips, new StripTask() {
+			public void run(Strip strip) throws InvalidVertexException {
+				strip.triangulate(target, bounds);
+			}
+		});
+
+		final boolean[] boundary = new boolean[vertexCount];
+		forEach(strips, new StripTask() {
+			public void run(Strip strip) {
+				strip.classify(boundary);
+			}
+		});
+
+		target.getDebugLogger().debug("Merging Strips");
+		LongIntMap frontier = new LongIntMap(16);
+		for (Strip strip : strips) {
+			strip.offset = finalTriangleCount;
+			finalTriangleCount += strip.finalCount;
+			strip.addFrontier(frontier);
+		}
+
+		Merge merge = new Merge(target, boundary);
+		if (mergeFailing || !merge.triangulate(bounds, frontier)) {
+			target.getDebugLogger().debug("Strips do not match, triangulating sequentially");
+			finalTriangleCount = 0;
+			target.triangulate(bounds);
+			return false;
+		}
+		boundaryVertexCount = merge.globals.length;
+
+		final int[] tris = new int[(finalTriangleCount + merge.keptCount) * 3];
+		final int[] neighbors = new int[tris.length];
+		final Merge m = merge;
+		final int base = finalTriangleCount;
+		forEach(strips, new StripTask() {
+			public void run(Strip strip) {
+				strip.copyFinal(m, base, tris, neighbors);
+			}
+		});
+		merge.copyKept(frontier, finalTriangleCount, tris, neighbors);
+
+		target.loadMesh(new Mesh(tris, neighbors), bounds);
+		if (!target.isKeepSuperTriangle()) {
+			target.removeSuperTriangle();
+		}
+		if (target.getTriangleSink() != null) {
+			new TriangleSweep(target, new int[0], target.getTriangleSink()).finish();
+		}
+		target.getDebugLogger().debug("Triangulation Complete");
+		return true;
+	}
+
+	/*
+	 * Divides the vertices into strips at x quantiles of a sample. Vertices
+	 * with equal x coordinates always fall into the same strip.
+	 */
+	private Strip[] createStrips(IndexedTriangulation target) {
+		int n = target.getVertexCount();
+		int sampleCount = Math.min(n, stripCount * SAMPLES_PER_STRIP);
+		double[] sample = new double[sampleCount];
+		for (int i = 0; i < sampleCount; i++) {
+			sample[i] = target.getX((int) ((long) i * n / sampleCount));
+		}
+		Arrays.sort(sample);
+		double[] cuts = new double[stripCount - 1];
+		for (int i = 0; i < cuts.length; i++) {
+			cuts[i] = sample[(i + 1) * sampleCount / stripCount];
+		}
+
+		int[] stripOf = new int[n];
+		int[] counts = new int[stripCount];
+		for (int v = 0; v < n; v++) {
+			int s = upperBound(cuts, target.getX(v));
+			stripOf[v] = s;
+			counts[s]++;
+		}
+		Strip[] strips = new Strip[stripCount];
+		for (int s = 0; s < stripCount; s++) {
+			double lo = s == 0 ? Double.NEGATIVE_INFINITY : cuts[s - 1];
+			double hi = s == stripCount - 1 ? Double.POSITIVE_INFINITY : cuts[s];
+			strips[s] = new Strip(new int[counts[s]], lo, hi);
+			counts[s] = 0;
+		}
+		for (int v = 0; v < n; v++) {
+			Strip strip = strips[stripOf[v]];
+			strip.globals[counts[stripOf[v]]++] = v;
+		}
+		return strips;
+	}
+
+	private static int upperBound(double[] values, double x) {
+		int lo = 0;
+		int hi = values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] <= x) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/*
+	 * Writes the center and the radius of the circumcircle of a triangle with
+	 * only finite vertices, widened by a tolerance for rounding. Returns false
+	 * if the triangle is too flat for the tolerance to hold.
+	 */
+	static boolean getCircumcircle(IndexedTriangulation mesh, int t, double[] circle) {
+		int a = mesh.getTriangleVertex(t, 0);
+		int b = mesh.getTriangleVertex(t, 1);
+		int c = mesh.getTriangleVertex(t, 2);
+		double ax = mesh.getX(a);
+		double ay = mesh.getY(a);
+		double bx = mesh.getX(b) - ax;
+		double by = mesh.getY(b) - ay;
+		double cx = mesh.getX(c) - ax;
+		double cy = mesh.getY(c) - ay;
+		double b2 = bx * bx + by * by;
+		double c2 = cx * cx + cy * cy;
+		double d = 2 * (bx * cy - by * cx);
+		double longest = Math.max(Math.max(b2, c2), (cx - bx) * (cx - bx) + (cy - by) * (cy - by));
+		if (!(Math.abs(d) > FLATNESS_BOUND * longest)) {
+			return false;
+		}
+		double ux = (cy * b2 - by * c2) / d;
+		double uy = (bx * c2 - cx * b2) / d;
+		double r = Math.sqrt(ux * ux + uy * uy);
+		circle[0] = ax + ux;
+		circle[1] = ay + uy;
+		circle[2] = r + CIRCLE_TOLERANCE * (r + Math.abs(ax) + Math.abs(ay));
+		return true;
+	}
+
+	private static IndexedTriangulation createLike(IndexedTriangulation target, int expectedVertices) {
+		IndexedTriangulation tri = new IndexedTriangulation(expectedVertices);
+		tri.setKeepSuperTriangle(true);
+		tri.setHilbertOrder(target.getHilbertOrder());
+		tri.setSuperTriangleScale(target.getSuperTriangleScale());
+		tri.setGhostTriangles(target.isGhostTriangles());
+		tri.setVertexExceptionStrategy(target.getVertexExceptionStrategy());
+		return tri;
+	}
+
+	private static long edgeKey(int from, int to) {
+		return ((long) from << 32) | (to & 0xFFFFFFFFL);
+	}
+
+	private static interface StripTask {
+		public void run(Strip strip) throws InvalidVertexException;
+	}
+
+	private void forEach(Strip[] strips, final StripTask task) throws InvalidVertexException {
+		final List<RecursiveAction> actions = Lists.newArrayList();
+		for (final Strip strip : strips) {
+			actions.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					try {
+						task.run(strip);
+					} catch (InvalidVertexException e) {
+						strip.exception = e;
+					}
+				}
+			});
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(actions);
+			}
+		});
+		for (Strip strip : strips) {
+			if (strip.exception != null) {
+				throw strip.exception;
+			}
+		}
+	}
+
+	/*
+	 * The vertices with x coordinates in [lo, hi) and their triangulation.
+	 */
+	private static class Strip {
+		private final int[] globals;
+		private final double lo;
+		private final double hi;
+		private IndexedTriangulation mesh;
+		private int[] finalIds = new int[0];
+		private int finalCount = 0;
+		private int offset = 0;
+		private InvalidVertexException exception = null;
+		private final double[] circle = new double[3];
+
+		public Strip(int[] globals, double lo, double hi) {
+			this.globals = globals;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		public void triangulate(IndexedTriangulation target, Rectangle2D bounds) throws InvalidVertexException {
+			mesh = createLike(target, globals.length);
+			for (int v : globals) {
+				mesh.addVertex(target.getX(v), target.getY(v));
+			}
+			mesh.triangulate(bounds);
+		}
+
+		/*
+		 * Numbers the final triangles and marks the vertices of all others as
+		 * boundary vertices.
+		 */
+		public void classify(boolean[] boundary) {
+			finalIds = new int[mesh.getTriangleSlots()];
+			finalCount = 0;
+			for (int t = 0; t < finalIds.length; t++) {
+				finalIds[t] = NONE;
+				if (!mesh.isTriangle(t)) {
+					continue;
+				}
+				if (isFinal(t)) {
+					finalIds[t] = finalCount++;
+				} else {
+					for (int i = 0; i < 3; i++) {
+						int v = mesh.getTriangleVertex(t, i);
+						if (v >= 0) {
+							boundary[globals[v]] = true;
+						}
+					}
+				}
+			}
+		}
+
+		private boolean isFinal(int t) {
+			if (mesh.touchesSuperVertex(t)) {
+				return false;
+			}
+			if (!getCircumcircle(mesh, t, circle)) {
+				return false;
+			}
+			return circle[0] - circle[2] > lo && circle[0] + circle[2] < hi;
+		}
+
+		/*
+		 * Maps each directed edge of a final triangle that borders a
+		 * non-final triangle to the global index of the final triangle.
+		 */
+		public void addFrontier(LongIntMap frontier) {
+			for (int t = 0; t < finalIds.length; t++) {
+				if (finalIds[t] == NONE) {
+					continue;
+				}
+				for (int i = 0; i < 3; i++) {
+					int n = mesh.getNeighbor(t, i);
+					if (n == NONE || finalIds[n] == NONE) {
+						frontier.put(edgeKey(
+								globals[mesh.getTriangleVertex(t, (i + 1) % 3)],
+								globals[mesh.getTriangleVertex(t, (i + 2) % 3)]), offset + finalIds[t]);
+					}
+				}
+			}
+		}
+
+		public void copyFinal(Merge merge, int base, int[] tris, int[] neighbors) {
+			for (int t = 0; t < finalIds.length; t++) {
+				if (finalIds[t] == NONE) {
+					continue;
+				}
+				int g = (offset + finalIds[t]) * 3;
+				for (int i = 0; i < 3; i++) {
+					tris[g + i] = globals[mesh.getTriangleVertex(t, i)];
+					int n = mesh.getNeighbor(t, i);
+					if (n != NONE && finalIds[n] != NONE) {
+						neighbors[g + i] = offset + finalIds[n];
+					} else {
+						neighbors[g + i] = base + merge.getKept(
+								globals[mesh.getTriangleVertex(t, (i + 2) % 3)],
+								globals[mesh.getTriangleVertex(t, (i + 1) % 3)]);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * The triangulation of the boundary vertices of all strips.
+	 */
+	private static class Merge {
+		private final int[] globals;
+		private final IndexedTriangulation mesh;
+		private LongIntMap edges;
+		private int[] keptIds;
+		private int keptCount = 0;
+
+		public Merge(IndexedTriangulation target, boolean[] boundary) {
+			int count = 0;
+			for (boolean b : boundary) {
+				if (b) {
+					count++;
+				}
+			}
+			globals = new int[count];
+			mesh = createLike(target, count);
+			for (int v = 0, i = 0; v < boundary.length; v++) {
+				if (boundary[v]) {
+					globals[i++] = v;
+					mesh.addVertex(target.getX(v), target.getY(v));
+				}
+			}
+		}
+
+		private int toGlobal(int v) {
+			return v >= 0 ? globals[v] : v;
+		}
+
+		/*
+		 * Triangulates the boundary vertices and keeps the triangles that are
+		 * reached from the frontier or the super triangle without crossing the
+		 * frontier. Returns false if the triangulation does not fit the
+		 * frontier.
+		 */
+		public boolean triangulate(Rectangle2D bounds, LongIntMap frontier) {
+			try {
+				mesh.triangulate(bounds);
+			} catch (InvalidVertexException e) {
+				return false;
+			}
+			for (int v = 0; v < globals.length; v++) {
+				if (!mesh.isInserted(v)) {
+					return false;
+				}
+			}
+
+			int slots = mesh.getTriangleSlots();
+			edges = new LongIntMap(mesh.getTriangleCount() * 3);
+			for (int t = 0; t < slots; t++) {
+				if (mesh.isTriangle(t)) {
+					for (int i = 0; i < 3; i++) {
+						edges.put(edgeKey(
+								toGlobal(mesh.getTriangleVertex(t, i)),
+								toGlobal(mesh.getTriangleVertex(t, (i + 1) % 3))), t);
+					}
+				}
+			}
+
+			keptIds = new int[slots];
+			Arrays.fill(keptIds, NONE);
+			int[] stack = new int[slots];
+			int top = 0;
+			for (int t = 0; t < slots; t++) {
+				if (mesh.isTriangle(t) && mesh.touchesSuperVertex(t)) {
+					keptIds[t] = keptCount++;
+					stack[top++] = t;
+				}
+			}
+			for (long key : frontier.keys()) {
+				if (key == LongIntMap.EMPTY) {
+					continue;
+				}
+				int t = edges.get((key << 32) | (key >>> 32));
+				if (t == NONE) {
+					return false;
+				}
+				if (keptIds[t] == NONE) {
+					keptIds[t] = keptCount++;
+					stack[top++] = t;
+				}
+			}
+			while (top > 0) {
+				int t = stack[--top];
+				for (int i = 0; i < 3; i++) {
+					int n = mesh.getNeighbor(t, i);
+					if (n == NONE || keptIds[n] != NONE || frontier.get(edgeKey(
+							toGlobal(mesh.getTriangleVertex(t, (i + 2) % 3)),
+							toGlobal(mesh.getTriangleVertex(t, (i + 1) % 3)))) != NONE) {
+						continue;
+					}
+					keptIds[n] = keptCount++;
+					stack[top++] = n;
+				}
+			}
+			return true;
+		}
+
+		/*
+		 * Returns the rank of the kept triangle holding the directed edge.
+		 */
+		public int getKept(int from, int to) {
+			return keptIds[edges.get(edgeKey(from, to))];
+		}
+
+		public void copyKept(LongIntMap frontier, int base, int[] tris, int[] neighbors) {
+			for (int t = 0; t < keptIds.length; t++) {
+				if (keptIds[t] == NONE) {
+					continue;
+				}
+				int g = (base + keptIds[t]) * 3;
+				for (int i = 0; i < 3; i++) {
+					tris[g + i] = toGlobal(mesh.getTriangleVertex(t, i));
+					int f = frontier.get(edgeKey(
+							toGlobal(mesh.getTriangleVertex(t, (i + 2) % 3)),
+							toGlobal(mesh.getTriangleVertex(t, (i + 1) % 3))));
+					if (f != NONE) {
+						neighbors[g + i] = f;
+					} else {
+						int n = mesh.getNeighbor(t, i);
+						neighbors[g + i] = n == NONE ? NONE : base + keptIds[n];
+					}
+				}
+			}
+		}
+	}
+}
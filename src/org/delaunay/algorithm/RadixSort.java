@@ -0,0 +1,61 @@
+package org.delaunay.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * A least significant digit radix sort of non-negative long keys, each of
+ * which carries an int value. It makes one counting pass per 11 bits of key,
+ * and skips the digits in which all keys agree, so sorting hilbert indices
+ * takes a few linear passes instead of O(n log n) comparisons.
+ */
+public class RadixSort {
+	private static final int DIGIT_BITS = 11;
+	private static final int DIGITS = 1 << DIGIT_BITS;
+
+	/**
+	 * Sorts the keys in ascending order and moves the values with them. The
+	 * sort is stable. Keys must be less than 2^keyBits.
+	 */
+	public static void sort(long[] keys, int[] values, int keyBits) {
+		int n = keys.length;
+		if (values.length != n) {
+			throw new IllegalArgumentException("keys and values must have the same length");
+		}
+		long[] keyBuffer = new long[n];
+		int[] valueBuffer = new int[n];
+		int[] counts = new int[DIGITS];
+
+		long[] srcKeys = keys, dstKeys = keyBuffer;
+		int[] srcValues = values, dstValues = valueBuffer;
+		for (int shift = 0; shift < keyBits; shift += DIGIT_BITS) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; i++) {
+				counts[(int) (srcKeys[i] >>> shift) & (DIGITS - 1)]++;
+			}
+			if (n == 0 || counts[(int) (srcKeys[0] >>> shift) & (DIGITS - 1)] == n) {
+				continue;
+			}
+			int sum = 0;
+			for (int d = 0; d < DIGITS; d++) {
+				int c = counts[d];
+				counts[d] = sum;
+				sum += c;
+			}
+			for (int i = 0; i < n; i++) {
+				int p = counts[(int) (srcKeys[i] >>> shift) & (DIGITS - 1)]++;
+				dstKeys[p] = srcKeys[i];
+				dstValues[p] = srcValues[i];
+			}
+			long[] k = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = k;
+			int[] v = srcValues;
+			srcValues = dstValues;
+			dstValues = v;
+		}
+		if (srcKeys != keys) {
+			System.arraycopy(srcKeys, 0, keys, 0, n);
+			System.arraycopy(srcValues, 0, values, 0, n);
+		}
+	}
+}
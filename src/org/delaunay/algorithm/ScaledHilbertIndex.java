@@ -1,26 +1,51 @@
 package org.delaunay.algorithm;
 
-import java.awt.Point;
 import java.awt.geom.Rectangle2D;
 
 
 public class ScaledHilbertIndex {
-	private final Rectangle2D scales;
+	private final double minX;
+	private final double minY;
+	private final double scaleX;
+	private final double scaleY;
+	private final int max;
 	private final HilbertTableIndex index;
 	
 	public ScaledHilbertIndex(int order, Rectangle2D bbox) {
-		long side = 1 << order;
-		this.scales = new Rectangle2D.Double(
-				bbox.getMinX(),
-				bbox.getMinY(),
-				side / bbox.getWidth(),
-				side / bbox.getHeight());
 		this.index = new HilbertTableIndex(order);
+		double side = 1L << order;
+		this.minX = bbox.getMinX();
+		this.minY = bbox.getMinY();
+		this.scaleX = bbox.getWidth() > 0 ? side / bbox.getWidth() : 0;
+		this.scaleY = bbox.getHeight() > 0 ? side / bbox.getHeight() : 0;
+		this.max = (int) ((1L << order) - 1);
 	}
 	
-	public int toIndex(double x, double y){
-		return index.getIndex(new Point(
-				(int)((x - scales.getX()) * scales.getWidth()),
-				(int)((y - scales.getY()) * scales.getHeight())));
+	/**
+	 * Returns the index along the curve of the cell containing the point.
+	 * Points outside the bounding box, including those on its far edges, are
+	 * clamped into the nearest cell, so the index is never negative.
+	 */
+	public long toIndex(double x, double y){
+		return index.getIndex(getColumn(x), getRow(y));
+	}
+
+	/**
+	 * Returns the column of the cell containing the x coordinate, clamped
+	 * like {@link #toIndex(double, double)}.
+	 */
+	public int getColumn(double x) {
+		return clamp((x - minX) * scaleX);
+	}
+
+	public int getRow(double y) {
+		return clamp((y - minY) * scaleY);
+	}
+
+	private int clamp(double d) {
+		if (!(d > 0)) {
+			return 0;
+		}
+		return d >= max ? max : (int) d;
 	}
 }
@@ -0,0 +1,197 @@
+package org.delaunay.algorithm;
+
+import java.util.Arrays;
+
+import org.delaunay.model.Predicates;
+
+/**
+ * Triangulates the hole left by removing a vertex from a Delaunay
+ * triangulation. The corners of the hole are the neighbors of the removed
+ * vertex, added counter-clockwise around it. If the vertex was on the
+ * boundary of the mesh, the polygon is open: its first and last corners are
+ * not connected, and the chain between them may remain as the new boundary.
+ *
+ * The hole is filled by clipping ears. An ear is a convex corner whose
+ * triangle with its two neighbors has no corner strictly inside its
+ * circumcircle; such a triangle belongs to the Delaunay triangulation of the
+ * corners, and only the corners can be inside the circumcircle of a triangle
+ * inside the hole, so every clipped triangle is Delaunay. Removing a vertex
+ * with k neighbors takes O(k^2) predicates, and the buffers are reused, so
+ * nothing is allocated once they are large enough. Corners may be super
+ * vertices at infinity, see {@link GhostPredicates}.
+ */
+strictfp final class StarPolygon {
+	private double[] xy = new double[32];
+	private int[] directions = new int[16];
+	private int[] prev = new int[16];
+	private int[] next = new int[16];
+	private boolean[] ears = new boolean[16];
+	private int[] triangles = new int[3 * 16];
+	private int size = 0;
+	private int triangleCount = 0;
+	private boolean closed = true;
+
+	public void reset(boolean closed) {
+		this.closed = closed;
+		size = 0;
+		triangleCount = 0;
+	}
+
+	public void add(double x, double y) {
+		add(x, y, -1);
+	}
+
+	/**
+	 * Adds a corner with the direction of a super vertex at infinity, or -1.
+	 */
+	public void add(double x, double y, int direction) {
+		if (size == prev.length) {
+			int capacity = size * 2;
+			xy = Arrays.copyOf(xy, capacity * 2);
+			directions = Arrays.copyOf(directions, capacity);
+			prev = Arrays.copyOf(prev, capacity);
+			next = Arrays.copyOf(next, capacity);
+			ears = Arrays.copyOf(ears, capacity);
+			triangles = Arrays.copyOf(triangles, capacity * 3);
+		}
+		xy[size * 2] = x;
+		xy[size * 2 + 1] = y;
+		directions[size] = direction;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Fills the polygon with triangles and returns their number. For a
+	 * closed polygon with k corners this is k - 2.
+	 */
+	public int triangulate() {
+		triangleCount = 0;
+		for (int i = 0; i < size; i++) {
+			prev[i] = i - 1;
+			next[i] = i + 1;
+		}
+		if (closed) {
+			prev[0] = size - 1;
+			next[size - 1] = 0;
+		} else {
+			next[size - 1] = -1;
+		}
+		for (int i = 0; i < size; i++) {
+			ears[i] = isEar(i);
+		}
+
+		int remaining = size;
+		int cursor = 0;
+		while (remaining > (closed ? 3 : 2)) {
+			// The first corner of an open chain is never clipped, so the
+			// search starts there
+			int ear = findEar(closed ? cursor : 0, remaining);
+			if (ear < 0) {
+				if (!closed) {
+					// The rest of the chain is the new boundary
+					break;
+				}
+				// Only possible through degenerate input, clip any convex corner
+				ear = findConvex(closed ? cursor : 0, remaining);
+				if (ear < 0) {
+					break;
+				}
+			}
+			int p = prev[ear];
+			int n = next[ear];
+			addTriangle(p, ear, n);
+			next[p] = n;
+			prev[n] = p;
+			remaining--;
+			ears[p] = isEar(p);
+			ears[n] = isEar(n);
+			cursor = p;
+		}
+		if (closed && remaining == 3) {
+			addTriangle(prev[cursor], cursor, next[cursor]);
+		}
+		return triangleCount;
+	}
+
+	/**
+	 * Returns corner {@code i} of triangle {@code t}, as the index of the
+	 * point in the order it was added. The corners are counter-clockwise.
+	 */
+	public int getCorner(int t, int i) {
+		return triangles[t * 3 + i];
+	}
+
+	private int findEar(int start, int remaining) {
+		for (int i = start, k = 0; k < remaining; i = next[i], k++) {
+			if (i < 0) {
+				break;
+			}
+			if (ears[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int findConvex(int start, int remaining) {
+		for (int i = start, k = 0; k < remaining; i = next[i], k++) {
+			if (i < 0) {
+				break;
+			}
+			if (prev[i] >= 0 && next[i] >= 0 && orient(prev[i], i, next[i]) > 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Every corner is tested, including the ones that were already clipped,
+	 * since they are vertices of the mesh as well.
+	 */
+	private boolean isEar(int i) {
+		int a = prev[i];
+		int c = next[i];
+		if (a < 0 || c < 0 || orient(a, i, c) <= 0) {
+			return false;
+		}
+		for (int d = 0; d < size; d++) {
+			if (d != a && d != i && d != c && incircle(a, i, c, d) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * The directions of finite corners are -1, so their bitwise and is
+	 * negative only if every corner is finite.
+	 */
+	private double orient(int a, int b, int c) {
+		if ((directions[a] & directions[b] & directions[c]) >= 0) {
+			return GhostPredicates.orient(xy[a * 2], xy[a * 2 + 1], directions[a],
+					xy[b * 2], xy[b * 2 + 1], directions[b], xy[c * 2], xy[c * 2 + 1], directions[c]);
+		}
+		return Predicates.orient2d(xy[a * 2], xy[a * 2 + 1], xy[b * 2], xy[b * 2 + 1], xy[c * 2], xy[c * 2 + 1]);
+	}
+
+	private double incircle(int a, int b, int c, int d) {
+		if ((directions[a] & directions[b] & directions[c] & directions[d]) >= 0) {
+			return GhostPredicates.incircle(xy[a * 2], xy[a * 2 + 1], directions[a], xy[b * 2], xy[b * 2 + 1], directions[b],
+					xy[c * 2], xy[c * 2 + 1], directions[c], xy[d * 2], xy[d * 2 + 1], directions[d]);
+		}
+		return Predicates.incircle(xy[a * 2], xy[a * 2 + 1], xy[b * 2], xy[b * 2 + 1],
+				xy[c * 2], xy[c * 2 + 1], xy[d * 2], xy[d * 2 + 1]);
+	}
+
+	private void addTriangle(int a, int b, int c) {
+		triangles[triangleCount * 3] = a;
+		triangles[triangleCount * 3 + 1] = b;
+		triangles[triangleCount * 3 + 2] = c;
+		triangleCount++;
+	}
+}
@@ -0,0 +1,493 @@
+package org.delaunay.algorithm;
+
+import java.awt.Point;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.delaunay.algorithm.IndexedTriangulation.Mesh;
+import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+import org.delaunay.algorithm.Triangulation.NonDelaunayException;
+
+/**
+ * Triangulates a stream of points that is too large to keep in memory, after
+ * Isenburg et al., "Streaming Computation of Delaunay Triangulations".
+ *
+ * The bounds are divided into the cells of a {@link ScaledHilbertIndex}. The
+ * stream interleaves points with finalization tags: once a cell is finalized,
+ * no later point may fall into it. A triangle whose circumcircle is covered
+ * by finalized cells can then never be replaced, so on each
+ * {@link #flush()} such triangles are written out and dropped, along with
+ * the vertices left without a triangle. Only the triangles near unfinalized
+ * cells stay in memory, so for a stream in spatial order the resident set is
+ * bounded by the front between finalized and unfinalized space rather than by
+ * the number of points.
+ *
+ * The resident mesh uses ghost triangles, see
+ * {@link IndexedTriangulation#setGhostTriangles(boolean)}, so the written
+ * triangles are exactly those of the Delaunay triangulation of all points.
+ * Dropped triangles leave holes in the mesh; since their circumcircles hold
+ * no later point, no insertion ever reaches them.
+ *
+ * {@link #triangulate(File, File, int, int, MeshWriter)} builds such a
+ * stream from a file of points on local disk.
+ */
+public strictfp class StreamingTriangulator {
+	private static final int NONE = IndexedTriangulation.NONE;
+	private static final int MAX_OPEN_FILES = 256;
+
+	/**
+	 * Receives the output. Vertices are numbered from zero in the order they
+	 * are inserted, and each vertex is written before any triangle that uses
+	 * it. Triangles are counter-clockwise.
+	 */
+	public static interface MeshWriter {
+		public void vertex(long id, double x, double y) throws IOException;
+
+		public void triangle(long a, long b, long c) throws IOException;
+	}
+
+	private final Rectangle2D bounds;
+	private final ScaledHilbertIndex cells;
+	private final int side;
+	private final boolean[] finalized;
+	private final int[] coverage;
+	private final MeshWriter writer;
+	private final double[] circle = new double[3];
+
+	private IndexedTriangulation mesh;
+	private long[] ids = new long[16];
+	private long vertexCount = 0;
+	private long triangleCount = 0;
+	private long droppedVertexCount = 0;
+	private long scanCount = 0;
+	private int maxResidentTriangles = 0;
+	private boolean finished = false;
+
+	/**
+	 * @param order
+	 *            the order of the hilbert curve of the cells; the bounds are
+	 *            divided into 2^order by 2^order cells
+	 */
+	public StreamingTriangulator(Rectangle2D bounds, int order, MeshWriter writer) {
+		if (order < 1 || order > 10) {
+			throw new IllegalArgumentException("order must be between 1 and 10");
+		}
+		this.bounds = bounds;
+		this.cells = new ScaledHilbertIndex(order, bounds);
+		this.side = 1 << order;
+		this.finalized = new boolean[side * side];
+		this.coverage = new int[(side + 1) * (side + 1)];
+		this.writer = writer;
+		this.mesh = createMesh(16);
+		mesh.createSuperTriangle(bounds);
+	}
+
+	/**
+	 * Inserts the point, and writes it if it is not a duplicate. Returns its
+	 * id, or -1 if it was dropped.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the cell of the point is already finalized
+	 */
+	public long addVertex(double x, double y) throws IOException {
+		checkNotFinished();
+		if (finalized[getCell(cells.getColumn(x), cells.getRow(y))]) {
+			throw new IllegalArgumentException(String.format("The cell of (%f, %f) is already finalized", x, y));
+		}
+		int v = mesh.addVertex(x, y);
+		int t;
+		try {
+			t = mesh.locate(x, y);
+		} catch (NonDelaunayException e) {
+			t = NONE;
+		}
+		if (t == NONE) {
+			// The walk was stopped by the hole of a dropped triangle
+			scanCount++;
+			t = mesh.scanLocate(x, y);
+		}
+		try {
+			if (t == NONE || !mesh.insertVertex(v, t)) {
+				droppedVertexCount++;
+				return -1;
+			}
+		} catch (InvalidVertexException e) {
+			droppedVertexCount++;
+			return -1;
+		}
+		if (v >= ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(v + 1, ids.length * 2));
+		}
+		long id = vertexCount++;
+		ids[v] = id;
+		writer.vertex(id, mesh.getX(v), mesh.getY(v));
+		maxResidentTriangles = Math.max(maxResidentTriangles, mesh.getTriangleCount());
+		return id;
+	}
+
+	/**
+	 * Promises that no later point falls into the cell. Takes effect on the
+	 * next {@link #flush()}.
+	 */
+	public void finalizeCell(int column, int row) {
+		if (column < 0 || column >= side || row < 0 || row >= side) {
+			throw new IllegalArgumentException(String.format("No cell at (%d, %d)", column, row));
+		}
+		finalized[getCell(column, row)] = true;
+	}
+
+	public boolean isFinalized(int column, int row) {
+		return finalized[getCell(column, row)];
+	}
+
+	/**
+	 * Writes the triangles whose circumcircles are covered by finalized cells,
+	 * and drops them and their unused vertices from memory.
+	 */
+	public void flush() throws IOException {
+		checkNotFinished();
+		updateCoverage();
+		int slots = mesh.getTriangleSlots();
+		boolean[] written = new boolean[slots];
+		int kept = 0;
+		for (int t = 0; t < slots; t++) {
+			if (!mesh.isTriangle(t)) {
+				continue;
+			}
+			if (isFinal(t)) {
+				writeTriangle(t);
+				written[t] = true;
+			} else {
+				kept++;
+			}
+		}
+		compact(written, kept);
+	}
+
+	/**
+	 * Writes all remaining triangles. No points may be added afterward.
+	 */
+	public void finish() throws IOException {
+		checkNotFinished();
+		for (int t = 0; t < mesh.getTriangleSlots(); t++) {
+			if (mesh.isTriangle(t) && !mesh.touchesSuperVertex(t)) {
+				writeTriangle(t);
+			}
+		}
+		mesh = createMesh(16);
+		ids = new long[0];
+		finished = true;
+	}
+
+	public long getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Returns the number of triangles written so far.
+	 */
+	public long getTriangleCount() {
+		return triangleCount;
+	}
+
+	/**
+	 * Returns the number of points dropped as duplicates.
+	 */
+	public long getDroppedVertexCount() {
+		return droppedVertexCount;
+	}
+
+	/**
+	 * Returns the number of vertices and triangles in memory.
+	 */
+	public int getResidentVertexCount() {
+		return mesh.getVertexCount();
+	}
+
+	public int getResidentTriangleCount() {
+		return mesh.getTriangleCount();
+	}
+
+	/**
+	 * Returns the largest number of triangles that were in memory at once.
+	 */
+	public int getMaxResidentTriangleCount() {
+		return maxResidentTriangles;
+	}
+
+	/**
+	 * Returns the number of points that were located by testing every
+	 * resident triangle, because a walk ran into a hole.
+	 */
+	public long getScanCount() {
+		return scanCount;
+	}
+
+	private IndexedTriangulation createMesh(int expectedVertices) {
+		IndexedTriangulation tri = new IndexedTriangulation(expectedVertices);
+		tri.setKeepSuperTriangle(true);
+		tri.setGhostTriangles(true);
+		return tri;
+	}
+
+	private void checkNotFinished() {
+		if (finished) {
+			throw new IllegalStateException("The stream is finished");
+		}
+	}
+
+	private int getCell(int column, int row) {
+		return row * side + column;
+	}
+
+	/*
+	 * Builds the table of the number of finalized cells below and left of
+	 * each corner of the grid.
+	 */
+	private void updateCoverage() {
+		int stride = side + 1;
+		for (int row = 0; row < side; row++) {
+			int sum = 0;
+			for (int column = 0; column < side; column++) {
+				sum += finalized[getCell(column, row)] ? 1 : 0;
+				coverage[(row + 1) * stride + column + 1] = coverage[row * stride + column + 1] + sum;
+			}
+		}
+	}
+
+	/*
+	 * A triangle is final if every cell that the bounding box of its
+	 * circumcircle touches is finalized. Cells are clamped like the points,
+	 * so space outside the bounds belongs to the nearest cell.
+	 */
+	private boolean isFinal(int t) {
+		if (mesh.touchesSuperVertex(t) || !ParallelTriangulator.getCircumcircle(mesh, t, circle)) {
+			return false;
+		}
+		int column0 = cells.getColumn(circle[0] - circle[2]);
+		int column1 = cells.getColumn(circle[0] + circle[2]);
+		int row0 = cells.getRow(circle[1] - circle[2]);
+		int row1 = cells.getRow(circle[1] + circle[2]);
+		int stride = side + 1;
+		int count = coverage[(row1 + 1) * stride + column1 + 1]
+				- coverage[row0 * stride + column1 + 1]
+				- coverage[(row1 + 1) * stride + column0]
+				+ coverage[row0 * stride + column0];
+		return count == (column1 - column0 + 1) * (row1 - row0 + 1);
+	}
+
+	private void writeTriangle(int t) throws IOException {
+		writer.triangle(
+				ids[mesh.getTriangleVertex(t, 0)],
+				ids[mesh.getTriangleVertex(t, 1)],
+				ids[mesh.getTriangleVertex(t, 2)]);
+		triangleCount++;
+	}
+
+	/*
+	 * Copies the kept triangles and their vertices into a new mesh. Edges to
+	 * written triangles are left without a neighbor.
+	 */
+	private void compact(boolean[] written, int kept) {
+		int slots = written.length;
+		int[] triangleIds = new int[slots];
+		int[] vertexIds = new int[mesh.getVertexCount()];
+		Arrays.fill(vertexIds, NONE);
+		int[] tris = new int[kept * 3];
+		int[] neighbors = new int[kept * 3];
+		int next = 0;
+		for (int t = 0; t < slots; t++) {
+			triangleIds[t] = mesh.isTriangle(t) && !written[t] ? next++ : NONE;
+		}
+
+		IndexedTriangulation compacted = createMesh(mesh.getVertexCount());
+		long[] compactedIds = new long[16];
+		for (int t = 0; t < slots; t++) {
+			int k = triangleIds[t];
+			if (k == NONE) {
+				continue;
+			}
+			for (int i = 0; i < 3; i++) {
+				int v = mesh.getTriangleVertex(t, i);
+				if (v >= 0) {
+					if (vertexIds[v] == NONE) {
+						vertexIds[v] = compacted.addVertex(mesh.getX(v), mesh.getY(v));
+						if (vertexIds[v] >= compactedIds.length) {
+							compactedIds = Arrays.copyOf(compactedIds, compactedIds.length * 2);
+						}
+						compactedIds[vertexIds[v]] = ids[v];
+					}
+					v = vertexIds[v];
+				}
+				tris[k * 3 + i] = v;
+				int n = mesh.getNeighbor(t, i);
+				neighbors[k * 3 + i] = n == NONE ? NONE : triangleIds[n];
+			}
+		}
+		compacted.loadMesh(new Mesh(tris, neighbors), bounds);
+		mesh = compacted;
+		ids = compactedIds;
+	}
+
+	/**
+	 * Triangulates a file of points, each a pair of big-endian doubles as
+	 * written by {@link DataOutputStream#writeDouble(double)}, with at most
+	 * chunkVertices points in memory at once.
+	 *
+	 * The file is read three times: for the bounds, for the number of points
+	 * in each cell of the hilbert curve of the given order, and to divide the
+	 * points into chunks along the curve, each written to a file in the work
+	 * directory. The points are ordered by cell and, within a cell, as they
+	 * come in the file, and each chunk takes the next chunkVertices of them,
+	 * so a cell with many points spans several chunks. The chunks are then
+	 * streamed in order, each followed by the tags of the cells whose last
+	 * point it holds.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if chunkVertices is not positive, or too large to read a
+	 *             chunk into a single array
+	 */
+	public static StreamingTriangulator triangulate(File points, File workDirectory, int order, int chunkVertices, MeshWriter writer) throws IOException {
+		if (chunkVertices < 1 || chunkVertices > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("chunkVertices must be between 1 and " + Integer.MAX_VALUE / 2);
+		}
+		Rectangle2D bounds = null;
+		DataInputStream in = open(points);
+		try {
+			double[] xy = new double[2];
+			while (read(in, xy)) {
+				if (bounds == null) {
+					bounds = new Rectangle2D.Double(xy[0], xy[1], 0, 0);
+				} else {
+					bounds.add(xy[0], xy[1]);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		if (bounds == null) {
+			bounds = new Rectangle2D.Double();
+		}
+		StreamingTriangulator streaming = new StreamingTriangulator(bounds, order, writer);
+		ScaledHilbertIndex cells = new ScaledHilbertIndex(order, bounds);
+
+		// Counts the points of each cell, then sums them into the position
+		// along the curve of the first point of each cell
+		long[] starts = new long[(1 << (2 * order)) + 1];
+		in = open(points);
+		try {
+			double[] xy = new double[2];
+			while (read(in, xy)) {
+				starts[(int) cells.toIndex(xy[0], xy[1]) + 1]++;
+			}
+		} finally {
+			in.close();
+		}
+		for (int h = 1; h < starts.length; h++) {
+			starts[h] += starts[h - 1];
+		}
+		long total = starts[starts.length - 1];
+		long chunkCount = Math.max((total + chunkVertices - 1) / chunkVertices, 1);
+		if (chunkCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("%d points make too many chunks of %d", total, chunkVertices));
+		}
+		int chunks = (int) chunkCount;
+
+		File[] files = new File[chunks];
+		for (int c = 0; c < chunks; c++) {
+			files[c] = new File(workDirectory, "chunk-" + c + ".bin");
+		}
+		try {
+			for (int first = 0; first < chunks; first += MAX_OPEN_FILES) {
+				bucket(points, cells, starts, chunkVertices, files, first, Math.min(first + MAX_OPEN_FILES, chunks));
+			}
+
+			HilbertTableIndex curve = new HilbertTableIndex(order);
+			InsertionOrders.HilbertInsertionOrder insertionOrder = InsertionOrders.createHilbert(16);
+			int h = 0;
+			for (int c = 0; c < chunks; c++) {
+				long end = Math.min((long) (c + 1) * chunkVertices, total);
+				int count = (int) (end - (long) c * chunkVertices);
+				double[] xy = new double[count * 2];
+				in = open(files[c]);
+				try {
+					for (int i = 0; i < xy.length; i++) {
+						xy[i] = in.readDouble();
+					}
+				} finally {
+					in.close();
+				}
+				files[c].delete();
+				for (int i : insertionOrder.getOrder(xy, xy.length / 2, bounds)) {
+					streaming.addVertex(xy[i * 2], xy[i * 2 + 1]);
+				}
+				// A cell is finalized once all its points have been streamed
+				for (; h < starts.length - 1 && starts[h + 1] <= end; h++) {
+					Point cell = curve.getPoint(h);
+					streaming.finalizeCell(cell.x, cell.y);
+				}
+				streaming.flush();
+			}
+		} finally {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		streaming.finish();
+		return streaming;
+	}
+
+	/*
+	 * Appends the points of the chunks in [first, last) to their files. The
+	 * chunk of a point follows from its position along the curve, the start
+	 * of its cell plus the number of points of the cell read before it.
+	 */
+	private static void bucket(File points, ScaledHilbertIndex cells, long[] starts, int chunkVertices, File[] files, int first, int last) throws IOException {
+		DataOutputStream[] outs = new DataOutputStream[last - first];
+		long[] positions = Arrays.copyOf(starts, starts.length - 1);
+		DataInputStream in = open(points);
+		try {
+			for (int c = first; c < last; c++) {
+				outs[c - first] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[c]), 1 << 14));
+			}
+			double[] xy = new double[2];
+			while (read(in, xy)) {
+				long c = positions[(int) cells.toIndex(xy[0], xy[1])]++ / chunkVertices;
+				if (c >= first && c < last) {
+					outs[(int) c - first].writeDouble(xy[0]);
+					outs[(int) c - first].writeDouble(xy[1]);
+				}
+			}
+		} finally {
+			in.close();
+			for (DataOutputStream out : outs) {
+				if (out != null) {
+					out.close();
+				}
+			}
+		}
+	}
+
+	private static DataInputStream open(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	private static boolean read(DataInputStream in, double[] xy) throws IOException {
+		try {
+			xy[0] = in.readDouble();
+		} catch (EOFException e) {
+			return false;
+		}
+		xy[1] = in.readDouble();
+		return true;
+	}
+}
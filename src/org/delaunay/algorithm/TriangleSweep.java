@@ -0,0 +1,154 @@
+package org.delaunay.algorithm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.delaunay.algorithm.IndexedTriangulation.TriangleSink;
+
+/**
+ * Hands the triangles of a mesh under construction to a {@link TriangleSink}
+ * as soon as they are final. If the vertices are inserted in order along the
+ * x or the y axis, each vertex inserted moves a sweep line, and no vertex is
+ * inserted behind it afterward, so a triangle whose circumcircle lies behind
+ * the line can never be replaced. The triangles are queued by how far their
+ * circumcircles reach along the axis, and leave the queue as the line passes
+ * them. Whatever is left is handed over when the mesh is finished.
+ */
+strictfp final class TriangleSweep {
+	private static final int NONE = IndexedTriangulation.NONE;
+
+	private final IndexedTriangulation mesh;
+	private final TriangleSink sink;
+	private final int axis;
+	private final double direction;
+
+	/*
+	 * The reach of the triangle queued for each slot, NaN if none is, so
+	 * that the entries of replaced triangles are recognized and skipped.
+	 */
+	private double[] reaches = new double[64];
+	private final BitSet emitted = new BitSet();
+	private final DistanceQueue queue = new DistanceQueue();
+	private final double[] circle = new double[3];
+	private int emittedCount = 0;
+
+	/**
+	 * Creates a sweep for vertices inserted in the given order, which only
+	 * finishes the mesh if the order does not move along an axis.
+	 */
+	public TriangleSweep(IndexedTriangulation mesh, int[] order, TriangleSink sink) {
+		this.mesh = mesh;
+		this.sink = sink;
+		int axis = NONE;
+		double direction = 1;
+		for (int candidate = 0; candidate < 4 && axis == NONE; candidate++) {
+			if (isSorted(order, candidate >> 1, (candidate & 1) == 0 ? 1 : -1)) {
+				axis = candidate >> 1;
+				direction = (candidate & 1) == 0 ? 1 : -1;
+			}
+		}
+		this.axis = axis;
+		this.direction = direction;
+		Arrays.fill(reaches, Double.NaN);
+	}
+
+	public boolean isSweeping() {
+		return axis != NONE;
+	}
+
+	/**
+	 * Returns the number of triangles handed to the sink so far.
+	 */
+	public int getEmittedCount() {
+		return emittedCount;
+	}
+
+	/**
+	 * Queues the triangles made by inserting the vertex, then hands over
+	 * those that the sweep line has passed.
+	 */
+	public void inserted(int v) {
+		if (axis == NONE) {
+			return;
+		}
+		// The triangles around a vertex just inserted are all new
+		int start = mesh.getVertexTriangle(v);
+		for (int rotation = 1; rotation <= 2; rotation++) {
+			int t = start;
+			do {
+				queue(t, v);
+				t = mesh.getNeighbor(t, (indexOf(t, v) + rotation) % 3);
+			} while (t != NONE && t != start);
+			if (t == start) {
+				break;
+			}
+		}
+
+		double line = position(v);
+		while (!queue.isEmpty() && queue.peekKey() < line) {
+			double reach = queue.peekKey();
+			queue.poll();
+			int t = queue.getPolledTriangle();
+			if (reaches[t] == reach && mesh.isTriangle(t) && !emitted.get(t)) {
+				emit(t);
+			}
+		}
+	}
+
+	/**
+	 * Hands over every triangle of the finished mesh that has not been yet.
+	 */
+	public void finish() {
+		for (int t = 0; t < mesh.getTriangleSlots(); t++) {
+			if (mesh.isTriangle(t) && !emitted.get(t)) {
+				emit(t);
+			}
+		}
+		queue.clear();
+	}
+
+	private void queue(int t, int v) {
+		if (t >= reaches.length) {
+			int length = reaches.length;
+			reaches = Arrays.copyOf(reaches, Math.max(length * 2, t + 1));
+			Arrays.fill(reaches, length, reaches.length, Double.NaN);
+		}
+		// Triangles at the super vertices and flat triangles wait for the end
+		if (mesh.touchesSuperVertex(t) || !ParallelTriangulator.getCircumcircle(mesh, t, circle)) {
+			reaches[t] = Double.NaN;
+			return;
+		}
+		reaches[t] = circle[axis] * direction + circle[2];
+		queue.add(reaches[t], v, t);
+	}
+
+	private void emit(int t) {
+		emitted.set(t);
+		emittedCount++;
+		sink.triangle(mesh.getTriangleVertex(t, 0), mesh.getTriangleVertex(t, 1), mesh.getTriangleVertex(t, 2));
+	}
+
+	private int indexOf(int t, int v) {
+		for (int i = 0; i < 3; i++) {
+			if (mesh.getTriangleVertex(t, i) == v) {
+				return i;
+			}
+		}
+		throw new Triangulation.NonDelaunayException();
+	}
+
+	private double position(int v) {
+		return (axis == 0 ? mesh.getX(v) : mesh.getY(v)) * direction;
+	}
+
+	private boolean isSorted(int[] order, int axis, double direction) {
+		for (int i = 1; i < order.length; i++) {
+			double previous = (axis == 0 ? mesh.getX(order[i - 1]) : mesh.getY(order[i - 1])) * direction;
+			double next = (axis == 0 ? mesh.getX(order[i]) : mesh.getY(order[i])) * direction;
+			if (next < previous) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,13 +1,17 @@
 package org.delaunay.algorithm;
 
 import java.awt.geom.Rectangle2D;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import org.delaunay.algorithm.IndexedTriangulation.ContentionStatistics;
+import org.delaunay.algorithm.InsertionOrders.InsertionOrder;
 import org.delaunay.model.Edge;
 import org.delaunay.model.Triangle;
 import org.delaunay.model.Vector;
@@ -15,9 +19,9 @@ import org.delaunay.model.Vectors;
 import org.delaunay.model.Vertex;
 
 import com.google.common.base.Function;
-import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -35,7 +39,55 @@ public strictfp class Triangulation {
 	public static interface DebugLogger{
 		public void debug(String str);
 	}
+
+	/**
+	 * Receives the triangles of a triangulation as they become final, see
+	 * {@link Triangulation#setTriangleSink(TriangleSink)}.
+	 */
+	public static interface TriangleSink {
+		/**
+		 * Receives a triangle of the finished triangulation, with its
+		 * vertices wound counter-clockwise.
+		 */
+		public void triangle(Vertex a, Vertex b, Vertex c);
+	}
 	
+	/*
+	 * A reusable list of triangles. Traversals fill it instead of allocating
+	 * new collections, and it counts how often its backing array has grown.
+	 */
+	private static class TriangleBuffer extends AbstractList<Triangle> {
+		private Triangle[] items = new Triangle[64];
+		private int size = 0;
+		private int allocations = 1;
+
+		@Override
+		public boolean add(Triangle t) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+				allocations++;
+			}
+			items[size++] = t;
+			return true;
+		}
+
+		@Override
+		public Triangle get(int index) {
+			return items[index];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void clear() {
+			Arrays.fill(items, 0, size, null);
+			size = 0;
+		}
+	}
+
 	public static enum VertexExceptionStrategy{
 		THROW_EXCEPTION,
 		CATCH_AND_DROP_VERTEX,
@@ -46,20 +98,45 @@ public strictfp class Triangulation {
 	private LinkedHashSet<Triangle> triangles = Sets.newLinkedHashSet();
 	private LinkedHashSet<Vertex> inputVertices = Sets.newLinkedHashSet();
 	private LinkedHashSet<Vertex> vertices = Sets.newLinkedHashSet();
-	private Triangle lastLocatedTriangle = null;
-	private int hopCount = 0;
-	private int locateCount = 0;
+	private final LocateContext locator = new LocateContext();
+	private int cavitySearchCount = 0;
+	private long cavityTriangleCount = 0;
+	private int maxCavitySize = 0;
+	private int mark = 0;
+	private final TriangleBuffer cavity = new TriangleBuffer();
+	private final StarPolygon polygon = new StarPolygon();
 	private boolean keepSuperTriangle = false;
+	private boolean useLocatorGrid = false;
+	private boolean useLocatorHierarchy = false;
+	private LocatorGrid locatorGrid = null;
+	private Vertex[] gridVertices = null;
 	private VertexExceptionStrategy vertexExceptionStrategy = VertexExceptionStrategy.THROW_EXCEPTION; 
 
+	/*
+	 * When the indexed engine is used, the mesh lives in an
+	 * IndexedTriangulation and the Triangle and Vertex objects returned by
+	 * this class are views that are created on demand.
+	 */
+	private boolean useIndexedEngine = false;
+	private boolean ghostTriangles = false;
+	private int parallelThreshold = Integer.MAX_VALUE;
+	private ForkJoinPool forkJoinPool = null;
+	private boolean concurrentInsertion = false;
+	private TriangleSink triangleSink = null;
+	private IndexedTriangulation indexed = null;
+	private Vertex[] indexedVertices = new Vertex[] {};
+	private volatile Triangle[] indexedTriangles = null;
+
 	/*
 	 * The hilbert order determines the granularity of the hilbert curve. For
 	 * example, a value of 16 produces a square with with length and width 2^16,
 	 * resulting in 2^16 * 2^16 = 2^32 cells. This is typically good enough for
-	 * a triangulation up to 4 Billion vertices. Running time for coordinate
-	 * conversion would be O(16).
+	 * a triangulation up to 4 Billion vertices. The conversion handles four
+	 * levels per table lookup, so it takes 4 steps. Orders up to 31 are
+	 * supported.
 	 */
 	private int hilbertOrder = 16;
+	private InsertionOrder insertionOrder = null;
 
 	/*
 	 * Determines the scale of the super triangle. Increase this number if you
@@ -75,11 +152,40 @@ public strictfp class Triangulation {
 	};
 
 	public int getHopCount() {
-		return hopCount;
+		return indexed == null ? (int) locator.getHopCount() : indexed.getHopCount();
 	}
 
 	public int getLocateCount() {
-		return locateCount;
+		return indexed == null ? locator.getLocateCount() : indexed.getLocateCount();
+	}
+
+	/**
+	 * Returns the number of circumcircle cavity searches, one per inserted
+	 * vertex and one per nearest vertex locate.
+	 */
+	public int getCavitySearchCount() {
+		return cavitySearchCount;
+	}
+
+	/**
+	 * Returns the total number of triangles replaced by vertex insertions. The
+	 * average cavity size is this divided by the number of vertices.
+	 */
+	public long getCavityTriangleCount() {
+		return indexed == null ? cavityTriangleCount : indexed.getCavityTriangleCount();
+	}
+
+	public int getMaxCavitySize() {
+		return indexed == null ? maxCavitySize : indexed.getMaxCavitySize();
+	}
+
+	/**
+	 * Returns the number of times a scratch buffer used by the cavity search
+	 * had to be allocated. This stays constant once the buffers are large
+	 * enough for the largest cavity.
+	 */
+	public int getScratchAllocationCount() {
+		return indexed == null ? cavity.allocations : indexed.getScratchAllocationCount();
 	}
 
 	public void setDebugLogger(DebugLogger log) {
@@ -105,18 +211,112 @@ public strictfp class Triangulation {
 	}
 	
 	public LinkedHashSet<Vertex> getVertices() {
+		validateIndexedViews();
 		return vertices;
 	}
 
-	public List<Vertex> getVerticesInBounds(final Rectangle2D rect) {
-		return Lists.newArrayList(Iterables.filter(getVertices(), new Predicate<Vertex>() {
-			public boolean apply(Vertex v) {
-				return rect.contains(v.toPoint());
+	/**
+	 * Returns the vertices in the rectangle, found by a flood over the
+	 * triangles that overlap it from the triangle of its center.
+	 *
+	 * @see IndexedTriangulation#getVerticesInBounds(Rectangle2D, int[])
+	 */
+	public List<Vertex> getVerticesInBounds(Rectangle2D rect) {
+		return getVerticesInBounds(rect, locator);
+	}
+
+	/**
+	 * Like {@link #getVerticesInBounds(Rectangle2D)}, but with a context of
+	 * its own, see {@link #locate(Vector, LocateContext)}.
+	 */
+	public List<Vertex> getVerticesInBounds(Rectangle2D rect, LocateContext context) {
+		List<Vertex> inBounds = Lists.newArrayList();
+		if (indexed != null) {
+			int[] indices = context.getIndices(16);
+			int count;
+			while ((count = indexed.getVerticesInBounds(rect, indices, context)) > indices.length) {
+				indices = context.getIndices(count);
 			}
-		}));
+			for (int i = 0; i < count; i++) {
+				inBounds.add(indexedVertices[indices[i]]);
+			}
+			return inBounds;
+		}
+
+		if (rect.isEmpty()) {
+			return inBounds;
+		}
+		Triangle located = locate(new Vector(rect.getCenterX(), rect.getCenterY()), context);
+		if (located == null) {
+			// There is no triangle to flood from
+			return scanVerticesInBounds(rect, inBounds);
+		}
+
+		// The cavity buffer serves as the stack of the flood
+		List<Triangle> stack = context.cavity;
+		Set<Triangle> visited = context.visited;
+		Set<Vertex> seen = context.seen;
+		stack.clear();
+		visited.clear();
+		seen.clear();
+		stack.add(located);
+		visited.add(located);
+		while (!stack.isEmpty()) {
+			Triangle t = stack.remove(stack.size() - 1);
+			for (int i = 0; i < 3; i++) {
+				Vertex v = i == 0 ? t.a : i == 1 ? t.b : t.c;
+				if (rect.contains(v.x, v.y) && !isSuperVertex(v) && seen.add(v)) {
+					inBounds.add(v);
+				}
+				Triangle n = t.getOpposite(i);
+				if (n == null && overlaps(v, i == 0 ? t.b : i == 1 ? t.c : t.a, rect)) {
+					// The boundary may be concave, see IndexedTriangulation
+					stack.clear();
+					visited.clear();
+					seen.clear();
+					inBounds.clear();
+					return scanVerticesInBounds(rect, inBounds);
+				}
+				if (n != null && visited.add(n) && overlaps(n, rect)) {
+					stack.add(n);
+				}
+			}
+		}
+		stack.clear();
+		visited.clear();
+		seen.clear();
+		return inBounds;
+	}
+
+	private List<Vertex> scanVerticesInBounds(Rectangle2D rect, List<Vertex> inBounds) {
+		for (Vertex v : vertices) {
+			if (rect.contains(v.x, v.y)) {
+				inBounds.add(v);
+			}
+		}
+		return inBounds;
+	}
+
+	/*
+	 * True if the bounding box of the edge from a to b overlaps the rectangle.
+	 */
+	private static boolean overlaps(Vertex a, Vertex b, Rectangle2D rect) {
+		return Math.max(a.x, b.x) >= rect.getMinX() && Math.min(a.x, b.x) <= rect.getMaxX()
+				&& Math.max(a.y, b.y) >= rect.getMinY() && Math.min(a.y, b.y) <= rect.getMaxY();
+	}
+
+	/*
+	 * True if the bounding box of the triangle overlaps the rectangle.
+	 */
+	private static boolean overlaps(Triangle t, Rectangle2D rect) {
+		return Math.max(t.a.x, Math.max(t.b.x, t.c.x)) >= rect.getMinX()
+				&& Math.min(t.a.x, Math.min(t.b.x, t.c.x)) <= rect.getMaxX()
+				&& Math.max(t.a.y, Math.max(t.b.y, t.c.y)) >= rect.getMinY()
+				&& Math.min(t.a.y, Math.min(t.b.y, t.c.y)) <= rect.getMaxY();
 	}
 
 	public LinkedHashSet<Triangle> getTriangles() {
+		validateIndexedViews();
 		return triangles;
 	}
 
@@ -129,44 +329,574 @@ public strictfp class Triangulation {
 		this.keepSuperTriangle = keepSuperTriangle;
 	}
 
+	public void setVertexExceptionStrategy(VertexExceptionStrategy vertexExceptionStrategy) {
+		this.vertexExceptionStrategy = vertexExceptionStrategy;
+	}
+
+	/**
+	 * Sets the strategy for the order in which {@link #triangulate()} inserts
+	 * the vertices. If null, they are inserted along a hilbert curve.
+	 *
+	 * @see InsertionOrders
+	 */
+	public void setInsertionOrder(InsertionOrder insertionOrder) {
+		this.insertionOrder = insertionOrder;
+	}
+
+	/**
+	 * Sets the order of the hilbert curve used to sort the vertices before
+	 * insertion, from 1 to {@link HilbertTableIndex#MAX_ORDER}. Higher orders
+	 * separate vertices that are closer together.
+	 */
+	public void setHilbertOrder(int hilbertOrder) {
+		if (hilbertOrder < 1 || hilbertOrder > HilbertTableIndex.MAX_ORDER) {
+			throw new IllegalArgumentException("hilbert order must be between 1 and " + HilbertTableIndex.MAX_ORDER);
+		}
+		this.hilbertOrder = hilbertOrder;
+	}
+
+	/**
+	 * If set to true, {@link #triangulate()} finishes by building a locator
+	 * grid, see {@link #buildLocatorGrid()}.
+	 */
+	public void setLocatorGrid(boolean useLocatorGrid) {
+		this.useLocatorGrid = useLocatorGrid;
+	}
+
+	/**
+	 * Builds a uniform grid over the vertices that keeps a nearby triangle
+	 * for each cell. {@link #locate(Vector)} then jumps to the triangle of
+	 * the cell of the point and walks from there, which takes a few hops
+	 * even when consecutive points are far apart, instead of O(sqrt(n)).
+	 * Vertices added, removed or moved afterwards update the grid.
+	 *
+	 * @see IndexedTriangulation#buildLocatorGrid()
+	 */
+	public void buildLocatorGrid() {
+		if (indexed != null) {
+			indexed.buildLocatorGrid();
+			return;
+		}
+		if (vertices.isEmpty()) {
+			return;
+		}
+		locatorGrid = new LocatorGrid(Vectors.boundingBox(vertices),
+				vertices.size() / IndexedTriangulation.VERTICES_PER_CELL);
+		gridVertices = new Vertex[locatorGrid.getCellCount()];
+		for (Vertex v : vertices) {
+			gridVertices[locatorGrid.getCell(v.x, v.y)] = v;
+		}
+		Vertex previous = null;
+		for (int c = 0; c < gridVertices.length; c++) {
+			if (gridVertices[c] == null) {
+				gridVertices[c] = previous;
+			} else {
+				previous = gridVertices[c];
+			}
+		}
+		for (int c = 0; c < gridVertices.length && gridVertices[c] == null; c++) {
+			gridVertices[c] = previous;
+		}
+	}
+
+	private void patchLocatorGrid(Vector location, Vertex v) {
+		if (gridVertices != null) {
+			gridVertices[locatorGrid.getCell(location.x, location.y)] = v;
+		}
+	}
+
+	/*
+	 * Returns a triangle of the vertex of the grid cell of the point, or
+	 * null.
+	 */
+	private Triangle getGridTriangle(Vector v) {
+		if (gridVertices == null) {
+			return null;
+		}
+		Vertex cell = gridVertices[locatorGrid.getCell(v.x, v.y)];
+		if (cell != null && vertices.contains(cell)) {
+			for (Triangle t : cell.getNeighborTriangles()) {
+				if (triangles.contains(t)) {
+					return t;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * If set to true, {@link #triangulate()} finishes by building a Delaunay
+	 * hierarchy, so that locating any point takes O(log n) hops even on
+	 * clustered vertices, where a uniform grid is too coarse. This implies
+	 * the indexed engine.
+	 *
+	 * @see IndexedTriangulation#buildLocatorHierarchy()
+	 */
+	public void setLocatorHierarchy(boolean useLocatorHierarchy) {
+		this.useLocatorHierarchy = useLocatorHierarchy;
+	}
+
+	/**
+	 * If set to true, the super vertices are points at infinity instead of
+	 * the corners of a scaled triangle, so the mesh covers the whole plane and
+	 * the triangles that do not touch a super vertex cover exactly the convex
+	 * hull of the vertices. The views of the super vertices keep the
+	 * coordinates of the scaled triangle. This implies the indexed engine.
+	 *
+	 * @see IndexedTriangulation#setGhostTriangles(boolean)
+	 */
+	public void setGhostTriangles(boolean ghostTriangles) {
+		this.ghostTriangles = ghostTriangles;
+	}
+
+	/**
+	 * If set to true, {@link #triangulate()} stores the mesh in an
+	 * {@link IndexedTriangulation}, which uses primitive arrays instead of
+	 * {@link Triangle} and {@link Vertex} objects. The objects returned by
+	 * {@link #getTriangles()} and {@link #locate(Vector)} are then views that
+	 * are created the first time they are requested, so code that only
+	 * locates nearest vertices never pays for them.
+	 */
+	public void setIndexedEngine(boolean useIndexedEngine) {
+		this.useIndexedEngine = useIndexedEngine;
+	}
+
+	/*
+	 * True if the indexed engine is set, or implied by another setting, so
+	 * that turning that setting off again also turns the engine off.
+	 */
+	private boolean isIndexedEngine() {
+		return useIndexedEngine || ghostTriangles || triangleSink != null || concurrentInsertion;
+	}
+
+	/**
+	 * Sets a sink that {@link #triangulate()} hands each triangle to as soon
+	 * as it is final: during the sweep if the insertion order moves along an
+	 * axis, such as {@link InsertionOrders#createInputOrder()} of vertices
+	 * sorted by x, and otherwise at the end. This implies the indexed engine.
+	 *
+	 * @see IndexedTriangulation#setTriangleSink(IndexedTriangulation.TriangleSink)
+	 */
+	public void setTriangleSink(TriangleSink triangleSink) {
+		this.triangleSink = triangleSink;
+	}
+
+	/**
+	 * Triangulates in parallel on the given fork/join pool, or the common pool
+	 * if it is null, when there are at least {@code parallelThreshold} input
+	 * vertices. This implies the indexed engine.
+	 *
+	 * @see IndexedTriangulation#setParallelThreshold(int, ForkJoinPool)
+	 */
+	public void setParallelThreshold(int parallelThreshold, ForkJoinPool forkJoinPool) {
+		this.parallelThreshold = parallelThreshold;
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * If set to true, {@link #addVertexToTriangulation(Vertex)} may be called
+	 * from several threads at once to insert vertices into the same mesh,
+	 * once it has been created by {@link #triangulate()} or
+	 * {@link #createSuperTriangle(Rectangle2D)}. This implies the indexed
+	 * engine. Nothing else may be called while vertices are being inserted.
+	 *
+	 * @see IndexedTriangulation#setConcurrentInsertion(boolean)
+	 */
+	public void setConcurrentInsertion(boolean concurrentInsertion) {
+		this.concurrentInsertion = concurrentInsertion;
+		if (indexed != null) {
+			indexed.setConcurrentInsertion(concurrentInsertion);
+		}
+	}
+
+	/**
+	 * Returns the counts of conflicts between threads inserting vertices
+	 * concurrently.
+	 */
+	public ContentionStatistics getContentionStatistics() {
+		return indexed == null ? new ContentionStatistics(0, 0, 0, 0) : indexed.getContentionStatistics();
+	}
+
+	/**
+	 * Returns the array backed mesh if the indexed engine is in use, or null.
+	 */
+	public IndexedTriangulation getIndexedTriangulation() {
+		return indexed;
+	}
+
 	public Vertex locateNearestVertex(Vector v) {
-		Triangle located = locate(v);
+		if (indexed != null) {
+			int nearest = indexed.locateNearestVertex(v.x, v.y);
+			return nearest == IndexedTriangulation.NONE ? null : getIndexedVertex(nearest);
+		}
+		return locateNearestVertex(v, locator);
+	}
+
+	/**
+	 * Like {@link #locateNearestVertex(Vector)}, but with a context of its
+	 * own, see {@link #locate(Vector, LocateContext)}.
+	 */
+	public Vertex locateNearestVertex(Vector v, LocateContext context) {
+		if (indexed != null) {
+			int nearest = indexed.locateNearestVertex(v.x, v.y, context);
+			return nearest == IndexedTriangulation.NONE ? null : getIndexedVertex(nearest);
+		}
+
+		Triangle located = locate(v, context);
 		if (located == null) {
 			return null;
 		}
-		
+		return walkToNearestVertex(located, v);
+	}
+
+	/*
+	 * In a Delaunay triangulation a vertex that is not the nearest always has
+	 * a neighbor that is nearer, so it is enough to step to nearer neighbors
+	 * until there are none.
+	 */
+	private Vertex walkToNearestVertex(Triangle located, Vector v) {
 		Vertex bestVertex = null;
 		double dist = Double.MAX_VALUE;
-		
-		for (Triangle tri : getCircumcircleTriangles(v, located)) {
-			for (Vertex vert : tri.getVertices()) {
+		for (Vertex vert : located.getVertices()) {
+			double d = vert.subtract(v).lengthSquared();
+			if (d < dist) {
+				bestVertex = vert;
+				dist = d;
+			}
+		}
+		for (boolean improved = true; improved;) {
+			improved = false;
+			for (Vertex vert : bestVertex.getNeighborVertices()) {
 				double d = vert.subtract(v).lengthSquared();
 				if (d < dist) {
 					bestVertex = vert;
 					dist = d;
+					improved = true;
 				}
 			}
 		}
 		return bestVertex;
 	}
+
+	/**
+	 * Writes the {@code k} vertices nearest to the point to {@code result},
+	 * nearest first, and returns their number, which is less than {@code k}
+	 * only if the mesh has fewer vertices. The result array must hold at least
+	 * {@code k} entries. Super vertices are never returned.
+	 *
+	 * Points outside the mesh are searched from the triangle where the walk
+	 * left it. The results are exact if the super triangle is kept or ghost
+	 * triangles are used. Removing the super triangle also removes the hull
+	 * edges that it cut off, and then points outside or near the hull may
+	 * miss a vertex.
+	 *
+	 * @see IndexedTriangulation#kNearest(double, double, int, int[])
+	 */
+	public int kNearest(Vector v, int k, Vertex[] result) {
+		return kNearest(v, k, result, locator);
+	}
+
+	/**
+	 * Like {@link #kNearest(Vector, int, Vertex[])}, but with a context of
+	 * its own, see {@link #locate(Vector, LocateContext)}.
+	 */
+	public int kNearest(Vector v, int k, Vertex[] result, LocateContext context) {
+		return searchNearest(v, k, Double.POSITIVE_INFINITY, result, context);
+	}
+
+	/**
+	 * Writes the vertices closer to the point than {@code radius} to
+	 * {@code result}, nearest first, and returns their number. If there are
+	 * more than fit in the array, only the nearest ones are written, so a full
+	 * array means there may be more.
+	 *
+	 * @see IndexedTriangulation#withinRadius(double, double, double, int[])
+	 */
+	public int withinRadius(Vector v, double radius, Vertex[] result) {
+		return withinRadius(v, radius, result, locator);
+	}
+
+	/**
+	 * Like {@link #withinRadius(Vector, double, Vertex[])}, but with a
+	 * context of its own, see {@link #locate(Vector, LocateContext)}.
+	 */
+	public int withinRadius(Vector v, double radius, Vertex[] result, LocateContext context) {
+		return searchNearest(v, result.length, radius * radius, result, context);
+	}
+
+	/*
+	 * A best-first search over the neighbors of the vertices, starting from
+	 * the vertex nearest to the point, see
+	 * IndexedTriangulation.searchNearest. The queue holds indices into the
+	 * list of queued vertices.
+	 */
+	private int searchNearest(Vector v, int max, double radiusSquared, Vertex[] result, LocateContext context) {
+		if (indexed != null) {
+			int[] indices = context.getIndices(max);
+			int count = indexed.searchNearest(v.x, v.y, max, radiusSquared, indices, context);
+			for (int i = 0; i < count; i++) {
+				result[i] = getIndexedVertex(indices[i]);
+			}
+			return count;
+		}
+
+		if (max <= 0) {
+			return 0;
+		}
+		Triangle located = locate(v, context);
+		if (located == null) {
+			// The point is outside the mesh, but the nearest vertex can be
+			// found from the triangle where the walk left it
+			located = context.lastTriangle;
+			if (located == null || !triangles.contains(located)) {
+				return 0;
+			}
+		}
+		Vertex nearest = walkToNearestVertex(located, v);
+		DistanceQueue queue = context.queue;
+		List<Vertex> queued = context.queued;
+		Set<Vertex> seen = context.seen;
+		queue.clear();
+		queued.clear();
+		seen.clear();
+		queued.add(nearest);
+		seen.add(nearest);
+		queue.add(nearest.subtract(v).lengthSquared(), 0, IndexedTriangulation.NONE);
+
+		int count = 0;
+		while (!queue.isEmpty() && count < max && queue.peekKey() < radiusSquared) {
+			queue.poll();
+			Vertex vert = queued.get(queue.getPolledVertex());
+			if (!isSuperVertex(vert)) {
+				result[count++] = vert;
+			}
+			for (Vertex neighbor : vert.getNeighborVertices()) {
+				if (seen.add(neighbor)) {
+					queued.add(neighbor);
+					queue.add(neighbor.subtract(v).lengthSquared(), queued.size() - 1, IndexedTriangulation.NONE);
+				}
+			}
+		}
+		queued.clear();
+		seen.clear();
+		return count;
+	}
 	
-	public Set<Vertex> getVerticesInRadius(Vertex v, double radius) {
-		Set<Vertex> checked = Sets.newHashSet(v);
-		Set<Vertex> inRadius = Sets.newHashSet(v);
-		Set<Vertex> toCheck = Sets.newHashSet(v.getNeighborVertices());
+	/**
+	 * Locates many points at once, writing the triangle containing point
+	 * {@code (xs[i], ys[i])}, or null, to {@code triangles[i]}. The points
+	 * are located in the order of a hilbert curve through them, so each walk
+	 * starts next to the previous point. The indexed engine divides large
+	 * batches among several threads.
+	 *
+	 * @see IndexedTriangulation#locateAll(double[], double[], int[])
+	 */
+	public void locateAll(double[] xs, double[] ys, Triangle[] triangles) {
+		if (indexed != null) {
+			validateIndexedViews();
+			int[] located = new int[xs.length];
+			indexed.locateAll(xs, ys, located);
+			for (int i = 0; i < located.length; i++) {
+				triangles[i] = located[i] == IndexedTriangulation.NONE ? null : indexedTriangles[located[i]];
+			}
+			return;
+		}
+		for (int i : IndexedTriangulation.sortAlongHilbertCurve(xs, ys, hilbertOrder)) {
+			triangles[i] = locate(new Vector(xs[i], ys[i]));
+		}
+	}
 
-		while (toCheck.size() > 0) {
-			Vertex check = Iterables.getFirst(toCheck, null);
-			toCheck.remove(check);
-			checked.add(check);
+	/**
+	 * Finds the nearest vertices of many points at once, like
+	 * {@link #locateAll(double[], double[], Triangle[])}.
+	 *
+	 * @see IndexedTriangulation#nearestAll(double[], double[], int[])
+	 */
+	public void nearestAll(double[] xs, double[] ys, Vertex[] vertices) {
+		if (indexed != null) {
+			int[] nearest = new int[xs.length];
+			indexed.nearestAll(xs, ys, nearest);
+			for (int i = 0; i < nearest.length; i++) {
+				vertices[i] = nearest[i] == IndexedTriangulation.NONE ? null : getIndexedVertex(nearest[i]);
+			}
+			return;
+		}
+		for (int i : IndexedTriangulation.sortAlongHilbertCurve(xs, ys, hilbertOrder)) {
+			vertices[i] = locateNearestVertex(new Vector(xs[i], ys[i]));
+		}
+	}
 
-			if (v.subtract(check).length() < radius) {
-				inRadius.add(check);
-				toCheck.addAll(check.getNeighborVertices());
-				toCheck.removeAll(checked);
+	/**
+	 * Returns an immutable copy of the mesh, which threads may query while
+	 * this triangulation is modified, see {@link TriangulationSnapshot}.
+	 * Afterwards the index of each input vertex, see {@link Vertex#getIndex()},
+	 * is its index in the snapshot, or -1 if it is not in the mesh.
+	 *
+	 * The indexed engine keeps the indices of the vertices and triangles that
+	 * an edit does not touch, so its snapshots share most pages with
+	 * {@code previous}. The object graph is numbered in iteration order, which
+	 * shifts after every edit.
+	 *
+	 * @see IndexedTriangulation#freeze(TriangulationSnapshot)
+	 */
+	public TriangulationSnapshot freeze(TriangulationSnapshot previous) {
+		if (indexed != null) {
+			return indexed.freeze(previous);
+		}
+
+		for (Vertex v : inputVertices) {
+			v.setIndex(IndexedTriangulation.NONE);
+		}
+		double[] coords = new double[vertices.size() * 2];
+		int index = 0;
+		for (Vertex v : vertices) {
+			v.setIndex(index);
+			coords[index * 2] = v.x;
+			coords[index * 2 + 1] = v.y;
+			index++;
+		}
+		double[] superCoords = new double[6];
+		for (int i = 0; i < superVerts.length; i++) {
+			superVerts[i].setIndex(IndexedTriangulation.SUPER_VERTEX - i);
+			superCoords[i * 2] = superVerts[i].x;
+			superCoords[i * 2 + 1] = superVerts[i].y;
+		}
+
+		Map<Triangle, Integer> triangleIndices = Maps.newHashMapWithExpectedSize(triangles.size());
+		for (Triangle t : triangles) {
+			triangleIndices.put(t, triangleIndices.size());
+		}
+		int[] vertexTriangles = new int[vertices.size()];
+		Arrays.fill(vertexTriangles, IndexedTriangulation.NONE);
+		int[] triangleVertices = new int[triangles.size() * 3];
+		int[] triangleNeighbors = new int[triangles.size() * 3];
+		// Triangles are clockwise, so a, c, b is counter-clockwise, and the
+		// edges opposite those corners are BC, AB and CA
+		int[] edges = { 1, 0, 2 };
+		for (Triangle t : triangles) {
+			int i = triangleIndices.get(t);
+			Vertex[] corners = { t.a, t.c, t.b };
+			for (int k = 0; k < 3; k++) {
+				int v = corners[k].getIndex();
+				triangleVertices[i * 3 + k] = v;
+				if (v >= 0) {
+					vertexTriangles[v] = i;
+				}
+				Integer n = triangleIndices.get(t.getOpposite(edges[k]));
+				triangleNeighbors[i * 3 + k] = n == null ? IndexedTriangulation.NONE : n;
 			}
 		}
+		return new TriangulationSnapshot(previous, coords, vertexTriangles, vertices.size(),
+				triangleVertices, triangleNeighbors, triangles.size(),
+				superCoords, superVerts.length > 0, false, null, null);
+	}
 
+	/**
+	 * Returns an immutable copy of the mesh in the native memory of the
+	 * arena, see {@link OffHeapTriangulation}. The indices of the input
+	 * vertices are set as by {@link #freeze(TriangulationSnapshot)}. Without
+	 * the indexed engine the mesh is frozen into a snapshot on the heap
+	 * first, which takes about as much heap again while it is copied.
+	 */
+	public OffHeapTriangulation freezeOffHeap(MeshArena arena) {
+		if (indexed != null) {
+			return indexed.freezeOffHeap(arena);
+		}
+		return OffHeapTriangulation.copyOf(freeze(null), arena);
+	}
+
+	/**
+	 * Puts the mesh in hilbert order, so that passes over all of its
+	 * triangles and vertices, such as computing densities or drawing edges,
+	 * read memory in order instead of in the order of insertions and
+	 * removals. With the indexed engine the arrays are renumbered, see
+	 * {@link IndexedTriangulation#reorder()}, the index of each vertex
+	 * changes, and the triangle views are created again, next to each other,
+	 * in the new order. With the object graph, the triangles are created
+	 * again in hilbert order, so they are allocated next to each other, and
+	 * {@link #getVertices()} and {@link #getTriangles()} iterate in that
+	 * order, as does the numbering of a snapshot. The vertices stay where
+	 * they are. Either way, triangles obtained before are no longer part of
+	 * the mesh.
+	 */
+	public void reorder() {
+		if (indexed != null) {
+			int[] order = indexed.reorder();
+			Vertex[] moved = new Vertex[indexedVertices.length];
+			for (int i = 0; i < order.length; i++) {
+				moved[i] = indexedVertices[order[i]];
+				moved[i].setIndex(i);
+			}
+			indexedVertices = moved;
+			indexedTriangles = null;
+			return;
+		}
+		if (vertices.isEmpty()) {
+			return;
+		}
+
+		List<Vertex> vertexList = Lists.newArrayList(vertices);
+		double[] xy = new double[vertexList.size() * 2];
+		for (int i = 0; i < vertexList.size(); i++) {
+			xy[i * 2] = vertexList.get(i).x;
+			xy[i * 2 + 1] = vertexList.get(i).y;
+		}
+		int[] order = InsertionOrders.createHilbert(hilbertOrder).getOrder(xy, vertexList.size(),
+				Vectors.boundingBox(vertexList));
+		Map<Vertex, Integer> ranks = Maps.newHashMapWithExpectedSize(order.length);
+		vertices = Sets.newLinkedHashSet();
+		for (int i : order) {
+			ranks.put(vertexList.get(i), ranks.size());
+			vertices.add(vertexList.get(i));
+		}
+
+		// Sorts the triangles by their first vertex, super vertices last
+		List<List<Triangle>> buckets = Lists.newArrayListWithCapacity(order.length + 1);
+		for (int i = 0; i <= order.length; i++) {
+			buckets.add(null);
+		}
+		for (Triangle t : triangles) {
+			int first = Math.min(rank(ranks, t.a), Math.min(rank(ranks, t.b), rank(ranks, t.c)));
+			if (buckets.get(first) == null) {
+				buckets.set(first, Lists.<Triangle> newArrayListWithCapacity(4));
+			}
+			buckets.get(first).add(t);
+		}
+
+		// New triangles, allocated in order, lie next to each other in memory
+		List<Triangle> created = Lists.newArrayListWithCapacity(triangles.size());
+		for (List<Triangle> bucket : buckets) {
+			if (bucket != null) {
+				for (Triangle t : bucket) {
+					created.add(new Triangle(t.a, t.b, t.c));
+				}
+			}
+		}
+		removeTriangles(Lists.newArrayList(triangles));
+		triangles = Sets.newLinkedHashSet();
+		addTriangles(created);
+		clearLocator();
+	}
+
+	private static int rank(Map<Vertex, Integer> ranks, Vertex v) {
+		Integer rank = ranks.get(v);
+		return rank == null ? ranks.size() : rank;
+	}
+
+	/**
+	 * Returns the vertex and the vertices closer to it than the radius.
+	 *
+	 * @see #withinRadius(Vector, double, Vertex[])
+	 */
+	public Set<Vertex> getVerticesInRadius(Vertex v, double radius) {
+		Vertex[] result = new Vertex[16];
+		int count;
+		while ((count = withinRadius(v, radius, result)) == result.length) {
+			result = new Vertex[result.length * 2];
+		}
+		Set<Vertex> inRadius = Sets.newLinkedHashSet();
+		inRadius.add(v);
+		inRadius.addAll(Arrays.asList(result).subList(0, count));
 		return inRadius;
 	}
 
@@ -215,6 +945,17 @@ public strictfp class Triangulation {
 			return;
 		}
 
+		if (isIndexedEngine() || useLocatorHierarchy || inputVertices.size() >= parallelThreshold) {
+			triangulateIndexed();
+			if (useLocatorGrid) {
+				indexed.buildLocatorGrid();
+			}
+			if (useLocatorHierarchy) {
+				indexed.buildLocatorHierarchy();
+			}
+			return;
+		}
+
 		/*
 		 * Determine the supertriangle.
 		 */
@@ -222,10 +963,12 @@ public strictfp class Triangulation {
 
 		/*
 		 * Sort vertices using hilbert curve to linearize triangulation
-		 * performance.
+		 * performance, unless another insertion order is set.
 		 */
 		log.debug("Linearizing with Hilbert Space-filling Curve");
-		List<Vertex> sortedVertices = getHilbertSortedVertices(inputVertices);
+		List<Vertex> sortedVertices = insertionOrder == null
+				? getHilbertSortedVertices(inputVertices)
+				: getInsertionSortedVertices(inputVertices);
 
 		/*
 		 * Add vertices one at a time, updating the triangulation as we go.
@@ -250,6 +993,9 @@ public strictfp class Triangulation {
 		if (!keepSuperTriangle) {
 			removeSuperTriangle();
 		}
+		if (useLocatorGrid) {
+			buildLocatorGrid();
+		}
 
 		log.debug("Triangulation Complete");
 	}
@@ -262,33 +1008,256 @@ public strictfp class Triangulation {
 	private void resetTriangulation() {
 		triangles = Sets.newLinkedHashSet();
 		vertices = Sets.newLinkedHashSet();
+		indexed = null;
+		indexedVertices = new Vertex[] {};
+		indexedTriangles = null;
+		locatorGrid = null;
+		gridVertices = null;
 		clearLocator();
 	}
 
+	private void triangulateIndexed() throws InvalidVertexException {
+		indexed = createIndexedTriangulation(inputVertices.size());
+		indexedVertices = new Vertex[inputVertices.size()];
+		for (Vertex v : inputVertices) {
+			int index = indexed.addVertex(v.x, v.y);
+			indexedVertices[index] = v;
+			v.setIndex(index);
+		}
+		indexed.setKeepSuperTriangle(keepSuperTriangle);
+		if (triangleSink != null) {
+			indexed.setTriangleSink(new IndexedTriangulation.TriangleSink() {
+				public void triangle(int a, int b, int c) {
+					// The super triangle is only known once insertion starts
+					if (superVerts == null) {
+						createSuperVertexViews();
+					}
+					triangleSink.triangle(getIndexedVertex(a), getIndexedVertex(b), getIndexedVertex(c));
+				}
+			});
+		}
+		superVerts = null;
+		try {
+			indexed.triangulate();
+		} finally {
+			if (superVerts == null) {
+				createSuperVertexViews();
+			}
+		}
+		indexed.setConcurrentInsertion(concurrentInsertion);
+		indexedTriangles = null;
+	}
+
+	private IndexedTriangulation createIndexedTriangulation(int expectedVertices) {
+		IndexedTriangulation tri = new IndexedTriangulation(expectedVertices);
+		tri.setHilbertOrder(hilbertOrder);
+		tri.setInsertionOrder(insertionOrder);
+		tri.setSuperTriangleScale(superTriangleScale);
+		tri.setGhostTriangles(ghostTriangles);
+		tri.setVertexExceptionStrategy(vertexExceptionStrategy);
+		tri.setDebugLogger(log);
+		tri.setParallelThreshold(parallelThreshold, forkJoinPool);
+		return tri;
+	}
+
+	private void createSuperVertexViews() {
+		if (!indexed.hasSuperTriangle()) {
+			superVerts = new Vertex[] {};
+			return;
+		}
+		superVerts = new Vertex[3];
+		for (int i = 0; i < 3; i++) {
+			int s = IndexedTriangulation.SUPER_VERTEX - i;
+			superVerts[i] = new Vertex(indexed.getX(s), indexed.getY(s));
+			superVerts[i].setSuperVertex(true);
+		}
+	}
+
+	private Vertex getIndexedVertex(int v) {
+		return IndexedTriangulation.isSuperVertex(v)
+				? superVerts[IndexedTriangulation.SUPER_VERTEX - v]
+				: indexedVertices[v];
+	}
+
+	/*
+	 * Creates the Triangle and Vertex views of the indexed mesh, if they are
+	 * out of date. The neighbor sets of the vertices are rebuilt as well, so
+	 * that the views can be used exactly like the object graph.
+	 */
+	private void validateIndexedViews() {
+		if (indexed == null || indexedTriangles != null) {
+			return;
+		}
+		// Readers with a context of their own may get here at once
+		synchronized (this) {
+			if (indexedTriangles == null) {
+				createIndexedViews();
+			}
+		}
+	}
+
+	/*
+	 * The views are published by the write to indexedTriangles, once they are
+	 * complete.
+	 */
+	private void createIndexedViews() {
+		removeTriangles(Lists.newArrayList(triangles));
+		triangles = Sets.newLinkedHashSet();
+		vertices = Sets.newLinkedHashSet();
+
+		for (int v = 0; v < indexed.getVertexCount(); v++) {
+			if (indexed.isInserted(v)) {
+				vertices.add(indexedVertices[v]);
+			}
+		}
+
+		Triangle[] created = new Triangle[indexed.getTriangleSlots()];
+		List<Triangle> views = Lists.newArrayListWithCapacity(indexed.getTriangleCount());
+		for (int t = 0; t < indexed.getTriangleSlots(); t++) {
+			if (indexed.isTriangle(t)) {
+				created[t] = new Triangle(
+						getIndexedVertex(indexed.getTriangleVertex(t, 0)),
+						getIndexedVertex(indexed.getTriangleVertex(t, 1)),
+						getIndexedVertex(indexed.getTriangleVertex(t, 2)));
+				views.add(created[t]);
+			}
+		}
+		addTriangles(views);
+		clearLocator();
+		indexedTriangles = created;
+	}
+
+	/*
+	 * Replaces only the views of the triangles around a vertex just inserted,
+	 * if the views exist. The new triangles reuse the slots of those they
+	 * replace, so the old views are found at the same slots. If the slots do
+	 * not add up, the views are created again when next needed.
+	 */
+	private synchronized void patchIndexedViews(int v, Vertex vertex) {
+		Triangle[] views = indexedTriangles;
+		if (views == null) {
+			return;
+		}
+		List<Integer> star = Lists.newArrayList();
+		int start = indexed.getVertexTriangle(v);
+		for (int rotation = 1; rotation <= 2; rotation++) {
+			int t = start;
+			do {
+				if (rotation == 1 || t != start) {
+					star.add(t);
+				}
+				t = indexed.getNeighbor(t, (indexOf(t, v) + rotation) % 3);
+			} while (t != IndexedTriangulation.NONE && t != start);
+			if (t == start) {
+				break;
+			}
+		}
+
+		if (views.length < indexed.getTriangleSlots()) {
+			views = Arrays.copyOf(views, indexed.getTriangleSlots());
+		}
+		List<Triangle> removed = Lists.newArrayList();
+		List<Triangle> added = Lists.newArrayListWithCapacity(star.size());
+		for (int t : star) {
+			if (views[t] != null) {
+				removed.add(views[t]);
+			}
+			views[t] = new Triangle(
+					getIndexedVertex(indexed.getTriangleVertex(t, 0)),
+					getIndexedVertex(indexed.getTriangleVertex(t, 1)),
+					getIndexedVertex(indexed.getTriangleVertex(t, 2)));
+			added.add(views[t]);
+		}
+		removeTriangles(removed);
+		addTriangles(added);
+		vertices.add(vertex);
+		clearLocator();
+		indexedTriangles = triangles.size() == indexed.getTriangleCount() ? views : null;
+	}
+
+	private int indexOf(int t, int v) {
+		for (int i = 0; i < 3; i++) {
+			if (indexed.getTriangleVertex(t, i) == v) {
+				return i;
+			}
+		}
+		throw new NonDelaunayException();
+	}
+
+	private List<Vertex> getInsertionSortedVertices(Collection<Vertex> verts) {
+		List<Vertex> vertexList = Lists.newArrayList(verts);
+		double[] xy = new double[vertexList.size() * 2];
+		for (int i = 0; i < vertexList.size(); i++) {
+			xy[i * 2] = vertexList.get(i).x;
+			xy[i * 2 + 1] = vertexList.get(i).y;
+		}
+		Rectangle2D bbox = Vectors.boundingBox(Lists.newArrayList(superVerts));
+		List<Vertex> sortedVertices = Lists.newArrayListWithCapacity(vertexList.size());
+		for (int i : insertionOrder.getOrder(xy, vertexList.size(), bbox)) {
+			sortedVertices.add(vertexList.get(i));
+		}
+		return sortedVertices;
+	}
+
 	private List<Vertex> getHilbertSortedVertices(Iterable<? extends Vertex> verts) {
 		Rectangle2D bbox = Vectors.boundingBox(Lists.newArrayList(superVerts));
-		ScaledHilbertIndex  hilbert = new ScaledHilbertIndex(hilbertOrder, bbox);
-		for (Vertex v : verts) {
-			v.setHilbertIndex(hilbert.toIndex(v.x, v.y));
+		ScaledHilbertIndex hilbert = new ScaledHilbertIndex(hilbertOrder, bbox);
+		List<Vertex> vertexList = Lists.newArrayList(verts);
+		long[] keys = new long[vertexList.size()];
+		int[] order = new int[vertexList.size()];
+		for (int i = 0; i < keys.length; i++) {
+			Vertex v = vertexList.get(i);
+			keys[i] = hilbert.toIndex(v.x, v.y);
+			order[i] = i;
+			v.setHilbertIndex(keys[i]);
+		}
+		RadixSort.sort(keys, order, 2 * hilbertOrder);
+		List<Vertex> sortedVertices = Lists.newArrayListWithCapacity(order.length);
+		for (int i : order) {
+			sortedVertices.add(vertexList.get(i));
 		}
-		List<Vertex> sortedVertices = Lists.newArrayList(verts);
-		Collections.sort(sortedVertices, new Comparator<Vertex>() {
-			public int compare(Vertex v1, Vertex v2) {
-				return v1.getHilbertIndex().compareTo(v2.getHilbertIndex());
-			}
-		});
 		return sortedVertices;
 	}
 
-	public void addVertexToTriangulation(Vertex vertex) throws InvalidVertexException {
-		Collection<Triangle> toRemove = null, toAdd = null;
+	/**
+	 * Inserts a vertex into the triangulation. Returns false if the vertex was
+	 * dropped because it is outside the triangulation or would cause a
+	 * degenerate triangle, in which case the triangulation is unchanged.
+	 *
+	 * @throws InvalidVertexException
+	 *             if the vertex overlaps an existing vertex, or the
+	 *             triangulation is no longer Delaunay.
+	 */
+	public boolean addVertexToTriangulation(Vertex vertex) throws InvalidVertexException {
+		if (indexed != null) {
+			int v;
+			synchronized (this) {
+				v = indexed.addVertex(vertex.x, vertex.y);
+				if (v >= indexedVertices.length) {
+					indexedVertices = Arrays.copyOf(indexedVertices, Math.max(16, v * 2));
+				}
+				indexedVertices[v] = vertex;
+			}
+			vertex.setIndex(v);
+			if (!indexed.insertVertex(v)) {
+				return false;
+			}
+			if (indexed.isConcurrentInsertion()) {
+				indexedTriangles = null;
+			} else {
+				patchIndexedViews(v, vertex);
+			}
+			return true;
+		}
+
+		List<Triangle> toRemove = null, toAdd = null;
 
 		try {
 			/*
 			 * Get the set of triangles for which the vertex lies in its
 			 * circumcircle.
 			 */
-			toRemove = getCircumcircleTriangles(vertex);
+			toRemove = getCavity(vertex);
 		} catch (NonDelaunayException e) {
 			/*
 			 * Unfortunately, we cannot recover from this state since the
@@ -299,9 +1268,17 @@ public strictfp class Triangulation {
 			throw new InvalidVertexException();
 		} catch (InvalidVertexException e) {
 			log.debug(String.format("Dropping vertex %s because it outside the triangulation!\nMaybe something went wrong when computing the super triangle?", vertex));
-			return;
+			return false;
 		}
 
+		cavityTriangleCount += toRemove.size();
+		maxCavitySize = Math.max(maxCavitySize, toRemove.size());
+
+		/*
+		 * The located triangle is always the first triangle of the cavity.
+		 */
+		checkOverlap(vertex, toRemove.get(0));
+
 		/*
 		 * Compute the set of edges that represent the convex hull of the
 		 * cavity left by removing the triangles.
@@ -321,18 +1298,177 @@ public strictfp class Triangulation {
 			toAdd = createTriangles(edgeSet, vertex);
 			addTriangles(toAdd);
 			vertices.add(vertex);
+			patchLocatorGrid(vertex, vertex);
+			return true;
 		} catch (NonDelaunayException e) {
 			log.debug(String.format("Dropping vertex %s because it causes degeneracy.\nYou may need to use exact math on this vertex.", vertex));
 			removeTriangles(toAdd);
 			addTriangles(toRemove);
+			return false;
 		}
 	}
     
+	/**
+	 * Removes a vertex from the triangulation, and from the input vertices, by
+	 * retriangulating the polygon formed by its neighbors. The cost depends on
+	 * the number of neighbors rather than the size of the triangulation.
+	 * Returns false if the vertex is not part of the triangulation.
+	 *
+	 * If the super triangle was removed, the convex hull is not restored when
+	 * a vertex on it is removed; keep the super triangle if vertices on the
+	 * hull will be removed or moved.
+	 *
+	 * @see StarPolygon
+	 */
+	public boolean removeVertex(Vertex vertex) {
+		if (indexed != null) {
+			int v = getIndexedVertexIndex(vertex);
+			if (v == IndexedTriangulation.NONE || !indexed.removeVertex(v)) {
+				return false;
+			}
+			inputVertices.remove(vertex);
+			indexedTriangles = null;
+			return true;
+		}
+
+		if (Arrays.asList(superVerts).contains(vertex)) {
+			throw new IllegalArgumentException("Can not remove a vertex of the super triangle");
+		}
+		if (!vertices.remove(vertex)) {
+			return false;
+		}
+		inputVertices.remove(vertex);
+		// The vertex may be shared with the views of another triangulation
+		List<Triangle> star = Lists.newArrayList();
+		for (Triangle t : vertex.getNeighborTriangles()) {
+			if (triangles.contains(t)) {
+				star.add(t);
+			}
+		}
+		List<Vertex> corners = getStarCorners(vertex, star);
+		boolean closed = corners.size() == star.size();
+
+		polygon.reset(closed);
+		for (Vertex corner : corners) {
+			polygon.add(corner.x, corner.y);
+		}
+		List<Triangle> toAdd = Lists.newArrayList();
+		int count = polygon.triangulate();
+		for (int t = 0; t < count; t++) {
+			toAdd.add(new Triangle(
+					corners.get(polygon.getCorner(t, 0)),
+					corners.get(polygon.getCorner(t, 1)),
+					corners.get(polygon.getCorner(t, 2))));
+		}
+		removeTriangles(star);
+		addTriangles(toAdd);
+		patchLocatorGrid(vertex, corners.get(0));
+		return true;
+	}
+
+	/**
+	 * Moves a vertex to (x, y) and returns the vertex at its new location.
+	 * {@link Vertex}s can not change their coordinates, so this is always a
+	 * new vertex, which replaces the old one in the triangulation and the
+	 * input vertices. The indexed engine keeps the mesh as it is if the
+	 * triangles around the vertex are still Delaunay at the new location, see
+	 * {@link IndexedTriangulation#moveVertex(int, double, double)}, and
+	 * otherwise the vertex is removed and inserted again.
+	 *
+	 * @throws InvalidVertexException
+	 *             if the vertex can not be inserted at the new location. It
+	 *             is then left at its old location.
+	 */
+	public Vertex moveVertex(Vertex vertex, double x, double y) throws InvalidVertexException {
+		Vertex moved = new Vertex(x, y);
+		if (indexed != null) {
+			int v = getIndexedVertexIndex(vertex);
+			if (v == IndexedTriangulation.NONE) {
+				throw new InvalidVertexException();
+			}
+			indexed.moveVertex(v, x, y);
+			indexedVertices[v] = moved;
+			moved.setIndex(v);
+			indexedTriangles = null;
+		} else {
+			if (!removeVertex(vertex)) {
+				throw new InvalidVertexException();
+			}
+			InvalidVertexException error = null;
+			try {
+				addVertexToTriangulation(moved);
+			} catch (InvalidVertexException e) {
+				error = e;
+			}
+			if (error != null || !vertices.contains(moved)) {
+				addVertexToTriangulation(vertex);
+				inputVertices.add(vertex);
+				throw error != null ? error : new InvalidVertexException();
+			}
+		}
+		inputVertices.remove(vertex);
+		inputVertices.add(moved);
+		return moved;
+	}
+
+	/*
+	 * Returns the neighbors of a vertex counter-clockwise around it. If the
+	 * vertex is on the boundary, the first and last neighbor are the ones on
+	 * the boundary, and there is one more neighbor than triangles.
+	 */
+	private List<Vertex> getStarCorners(Vertex vertex, List<Triangle> star) {
+		// Triangles are clockwise, so each one gives the edge from the
+		// vertex after the center to the one before it.
+		Map<Vertex, Vertex> next = Maps.newHashMap();
+		for (Triangle t : star) {
+			Vertex before = t.a == vertex ? t.c : (t.b == vertex ? t.a : t.b);
+			Vertex after = t.a == vertex ? t.b : (t.b == vertex ? t.c : t.a);
+			next.put(before, after);
+		}
+		Vertex first = next.keySet().iterator().next();
+		for (Vertex v : next.keySet()) {
+			if (!next.containsValue(v)) {
+				first = v;
+			}
+		}
+		List<Vertex> corners = Lists.newArrayList();
+		for (Vertex v = first; v != null && (corners.isEmpty() || v != first); v = next.get(v)) {
+			corners.add(v);
+		}
+		return corners;
+	}
+
+	/*
+	 * Returns the index of the vertex in the indexed engine, or NONE.
+	 */
+	private int getIndexedVertexIndex(Vertex vertex) {
+		int v = vertex.getIndex();
+		if (v >= 0 && v < indexed.getVertexCount() && indexedVertices[v] == vertex) {
+			return v;
+		}
+		v = indexed.locateNearestVertex(vertex.x, vertex.y);
+		if (v >= 0 && indexedVertices[v].equals(vertex)) {
+			return v;
+		}
+		return IndexedTriangulation.NONE;
+	}
+
 	public void createSuperTriangle(Iterable<? extends Vertex> verts) {
 		createSuperTriangle(Vectors.boundingBox(verts));
 	}
 
 	public void createSuperTriangle(Rectangle2D rect) {
+		if (isIndexedEngine()) {
+			if (indexed == null) {
+				indexed = createIndexedTriangulation(16);
+			}
+			indexed.createSuperTriangle(rect);
+			indexed.setConcurrentInsertion(concurrentInsertion);
+			createSuperVertexViews();
+			indexedTriangles = null;
+			return;
+		}
+
 		double dmax = Math.max(rect.getWidth(), rect.getHeight());
 		double xmid = rect.getCenterX();
 		double ymid = rect.getCenterY();
@@ -342,12 +1478,22 @@ public strictfp class Triangulation {
 				new Vertex(xmid, ymid + dmax * superTriangleScale),
 				new Vertex(xmid + dmax * superTriangleScale, ymid - dmax)
 				};
+		for (Vertex v : superVerts) {
+			v.setSuperVertex(true);
+		}
 
 		triangles = Sets.newLinkedHashSet();
 		triangles.add(new Triangle(superVerts[0], superVerts[1], superVerts[2]));
 	}
 
 	public void removeSuperTriangle() {
+		if (indexed != null) {
+			indexed.removeSuperTriangle();
+			superVerts = new Vertex[] {};
+			indexedTriangles = null;
+			return;
+		}
+
 		Set<Triangle> touching = Sets.newHashSet();
 		for (Vertex v : superVerts) {
 			touching.addAll(v.getNeighborTriangles());
@@ -357,31 +1503,70 @@ public strictfp class Triangulation {
 	}
 
 	public boolean touchesSuperVertex(Triangle tri) {
-		for (Vertex v : superVerts) {
-			if (tri.getVertices().contains(v)) {
-				return true;
-			}
-		}
-		return false;
+		return tri.touchesSuperVertex();
 	}
 	
+	private boolean isSuperVertex(Vertex vert) {
+		return vert.isSuperVertex();
+	}
+
+	/**
+	 * True if the vertex is a super vertex or a corner of a triangle that
+	 * touches one. Both are flags of the vertex, so this takes constant time.
+	 */
 	public boolean neighborsSuperVertex(Vertex vert) {
-		for (Triangle tri : vert.getNeighborTriangles()) {
-			if (touchesSuperVertex(tri)) {
-				return true;
-			}
-		}
-		if (Sets.newHashSet(superVerts).contains(vert)) {
-			return true;
-		}
-		return false;
+		return vert.isSuperVertex() || vert.isOnHull();
 	}
 
 	private void clearLocator() {
-		lastLocatedTriangle = null;
+		locator.lastTriangle = null;
 	}
 
+	/**
+	 * Returns a new list of the triangles for which the vertex lies in their
+	 * circumcircle.
+	 */
 	public Collection<Triangle> getCircumcircleTriangles(Vector vertex) throws InvalidVertexException, NonDelaunayException {
+		return Lists.newArrayList(getCavity(vertex));
+	}
+
+	/**
+	 * Like {@link #getCircumcircleTriangles(Vector)}, but with a context of
+	 * its own, see {@link #locate(Vector, LocateContext)}. The search keeps
+	 * the triangles it visited in the context instead of marking them, so it
+	 * only reads the mesh.
+	 */
+	public Collection<Triangle> getCircumcircleTriangles(Vector vertex, LocateContext context) throws InvalidVertexException, NonDelaunayException {
+		Triangle t = locate(vertex, context);
+		if (t == null) {
+			throw new InvalidVertexException();
+		}
+		List<Triangle> found = context.cavity;
+		Set<Triangle> visited = context.visited;
+		found.clear();
+		visited.clear();
+		found.add(t);
+		visited.add(t);
+		for (int i = 0; i < found.size(); i++) {
+			for (int edge = 0; edge < 3; edge++) {
+				Triangle n = found.get(i).getOpposite(edge);
+				if (n != null && visited.add(n) && n.isInCircum(vertex)) {
+					found.add(n);
+				}
+			}
+		}
+		List<Triangle> result = Lists.newArrayList(found);
+		found.clear();
+		visited.clear();
+		return result;
+	}
+
+	/*
+	 * Same as getCircumcircleTriangles, but returns the reusable cavity
+	 * buffer, which is only valid until the next cavity search.
+	 */
+	private List<Triangle> getCavity(Vector vertex) throws InvalidVertexException, NonDelaunayException {
+		validateIndexedViews();
 		Triangle t = locate(vertex);
 		if (t == null) {
 			throw new InvalidVertexException();
@@ -389,29 +1574,56 @@ public strictfp class Triangulation {
 		return getCircumcircleTriangles(vertex, t);
 	}
 
-	private Collection<Triangle> getCircumcircleTriangles(Vector vertex, Triangle t) {
-		Set<Triangle> checked = Sets.newHashSet(t);
-		Set<Triangle> inCircum = Sets.newHashSet(t);
-
-		// Initialize "to check" set with neighbors
-		Set<Triangle> toCheck = Sets.newHashSet(t.getNeighbors());
+	/*
+	 * A vertex that overlaps an existing one lies on the circumcircle of all
+	 * of its triangles, and would replace it in the triangulation.
+	 */
+	private void checkOverlap(Vertex vertex, Triangle t) throws InvalidVertexException {
+		if (vertex.equals(t.a) || vertex.equals(t.b) || vertex.equals(t.c)) {
+			throw new InvalidVertexException();
+		}
+	}
 
-		// For first triangle in "to check" set, check if
-		// the vertex is in its circum circle.
-		while (toCheck.size() > 0) {
-			t = Iterables.getFirst(toCheck, null);
-			toCheck.remove(t);
+	/*
+	 * Collects the cavity with a breadth first search over the edge neighbors
+	 * of the located triangle. The cavity buffer doubles as the work queue,
+	 * and visited triangles are marked with a stamp that is unique to this
+	 * search, so nothing is allocated once the buffer is large enough.
+	 */
+	private List<Triangle> getCircumcircleTriangles(Vector vertex, Triangle t) {
+		cavitySearchCount += 1;
+		int inCircum = nextMark();
+		int checked = nextMark();
+		cavity.clear();
 
-			if (t.isInCircum(vertex)) {
-				inCircum.add(t);
-				// If it is, add *its* neighbors to the "to check" set.
-				toCheck.addAll(t.getNeighbors());
-				toCheck.removeAll(checked);
+		t.setMark(inCircum);
+		cavity.add(t);
+		for (int i = 0; i < cavity.size(); i++) {
+			Triangle tri = cavity.get(i);
+			for (int edge = 0; edge < 3; edge++) {
+				Triangle n = tri.getOpposite(edge);
+				if (n == null || n.getMark() == inCircum || n.getMark() == checked) {
+					continue;
+				}
+				if (n.isInCircum(vertex)) {
+					n.setMark(inCircum);
+					cavity.add(n);
+				} else {
+					n.setMark(checked);
+				}
 			}
-			checked.add(t);
 		}
+		return cavity;
+	}
 
-		return inCircum;
+	private int nextMark() {
+		if (mark == Integer.MAX_VALUE) {
+			for (Triangle t : triangles) {
+				t.setMark(0);
+			}
+			mark = 0;
+		}
+		return ++mark;
 	}
 	
 	/*
@@ -421,28 +1633,59 @@ public strictfp class Triangulation {
 	 * 
 	 * It is possible that if the triangulation breaks due to floating point
 	 * errors, it will cause errors during locate. In this case, we throw a
-	 * NonDelaunayException.
+	 * NonDelaunayException. A walk that does not cycle visits each triangle at
+	 * most once, so we detect cycles by counting hops rather than by
+	 * remembering the visited triangles.
 	 * 
 	 * If the vertices are near each other, such as when iterating over a
 	 * hilbert linearization or running a scanline of locations, this should be
 	 * pretty fast.
 	 */
 	public Triangle locate(Vector v) throws NonDelaunayException {
-		locateCount += 1;
-		Triangle t = lastLocatedTriangle == null ? Iterables.getFirst(triangles, null) : lastLocatedTriangle;
+		if (indexed != null) {
+			validateIndexedViews();
+			int t = indexed.locate(v.x, v.y);
+			return t == IndexedTriangulation.NONE ? null : indexedTriangles[t];
+		}
+		return locate(v, locator);
+	}
+
+	/**
+	 * Like {@link #locate(Vector)}, but the walk starts where the last walk
+	 * with the context ended, and its hops are counted in the context instead
+	 * of this triangulation. This only reads the mesh, so while it is not
+	 * modified, any number of threads may locate at once, each with its own
+	 * context.
+	 */
+	public Triangle locate(Vector v, LocateContext context) throws NonDelaunayException {
+		if (indexed != null) {
+			validateIndexedViews();
+			int t = indexed.locate(v.x, v.y, context);
+			return t == IndexedTriangulation.NONE ? null : indexedTriangles[t];
+		}
+
+		context.locates += 1;
+		Triangle t = context.lastTriangle;
+		if (t == null || (context != locator && !triangles.contains(t))) {
+			// The mesh changed since the last walk with this context
+			t = Iterables.getFirst(triangles, null);
+		}
+		Triangle cell = getGridTriangle(v);
+		if (cell != null) {
+			t = cell;
+		}
 		if (t == null) {
 			return null;
 		}
 		boolean done = false;
 
-		Set<Triangle> seen = Sets.<Triangle> newHashSet();
-		while (!done) {
-			hopCount += 1;
-			lastLocatedTriangle = t;
-			if (seen.contains(t)) {
+		int maxHops = triangles.size();
+		for (int hops = 0; !done; hops++) {
+			context.hops += 1;
+			context.lastTriangle = t;
+			if (hops > maxHops) {
 				throw new NonDelaunayException();
 			}
-			seen.add(t);
 			Triangle tNext = t.nextWalk(v);
 			if (tNext == null) {
 				return null;
@@ -456,7 +1699,7 @@ public strictfp class Triangulation {
 		 * But, it can be useful to store this if we are locating points in the
 		 * triangulation after it's constructed.
 		 */
-		lastLocatedTriangle = t;
+		context.lastTriangle = t;
 		return t;
 	}
 
@@ -489,7 +1732,7 @@ public strictfp class Triangulation {
 			}
 			triangles.add(t);
 		}
-		lastLocatedTriangle = Iterables.getFirst(tris, null);
+		locator.lastTriangle = Iterables.getFirst(tris, null);
 
 		// uncomment to debug robustness issues at the cost of performance
 		// triangles.each { |t| raise NonDelaunayException unless t.delaunay? }
@@ -502,6 +1745,6 @@ public strictfp class Triangulation {
 			}
 			triangles.remove(t);
 		}
-		lastLocatedTriangle = null;
+		locator.lastTriangle = null;
 	}
 }
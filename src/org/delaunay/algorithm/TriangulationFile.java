@@ -0,0 +1,264 @@
+package org.delaunay.algorithm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A finished triangulation stored in a file that is queried in place.
+ *
+ * The file holds the arrays of an {@link OffHeapTriangulation} in the byte
+ * order and layout it uses in memory, so {@link #write} copies its buffers
+ * straight to disk, and {@link #map(File, MeshArena)} maps the file with
+ * {@link FileChannel#map} and wraps the mapped buffers without reading or
+ * converting anything. Opening a file of any size takes about as long as a
+ * few system calls; pages are read from disk as the queries first touch
+ * them.
+ *
+ * The file is little-endian. A 128 byte header holds the magic number, the
+ * format version, flags, the counts, the super vertices and the locator grid.
+ * It is followed by the sections, each starting at a multiple of 8 bytes:
+ * the coordinates (x and y per vertex), a triangle of each vertex, the flags
+ * of each vertex, the triangles (three vertices and three neighbors each),
+ * the locator grid and the densities, the last two only if present.
+ */
+public final class TriangulationFile {
+	/**
+	 * The version written by {@link #write}. Files of later versions are
+	 * rejected.
+	 */
+	public static final int VERSION = 1;
+
+	private static final long MAGIC = 0x4853454D594E4C44L; // "DLNYMESH"
+	private static final int HEADER_BYTES = 128;
+	private static final int HAS_SUPER_TRIANGLE = 1;
+	private static final int GHOST_TRIANGLES = 2;
+	private static final int HAS_GRID = 4;
+	private static final int HAS_DENSITIES = 8;
+
+	private final OffHeapTriangulation triangulation;
+	private final ByteBuffer[] densityBuffers;
+
+	private TriangulationFile(OffHeapTriangulation triangulation, ByteBuffer[] densityBuffers) {
+		this.triangulation = triangulation;
+		this.densityBuffers = densityBuffers;
+	}
+
+	/**
+	 * Returns the mesh, which reads the mapped file.
+	 */
+	public OffHeapTriangulation getTriangulation() {
+		return triangulation;
+	}
+
+	public boolean hasDensities() {
+		return densityBuffers != null;
+	}
+
+	/**
+	 * Returns the density stored for the vertex, or 0 if the file has none.
+	 */
+	public double getDensity(int v) {
+		triangulation.getArena().acquire();
+		try {
+			if (densityBuffers == null || v < 0 || v >= triangulation.getVertexCount()) {
+				return 0;
+			}
+			return densityBuffers[v >>> OffHeapTriangulation.VERTEX_SHIFT]
+					.getDouble((v & ((1 << OffHeapTriangulation.VERTEX_SHIFT) - 1)) * 8);
+		} finally {
+			triangulation.getArena().release();
+		}
+	}
+
+	/**
+	 * Writes the mesh and, if not null, the density of each vertex, in one
+	 * sequential pass.
+	 */
+	public static void write(OffHeapTriangulation mesh, double[] densities, File file) throws IOException {
+		mesh.getArena().acquire();
+		try {
+			writeMesh(mesh, densities, file);
+		} finally {
+			mesh.getArena().release();
+		}
+	}
+
+	private static void writeMesh(OffHeapTriangulation mesh, double[] densities, File file) throws IOException {
+		if (densities != null && densities.length < mesh.getVertexCount()) {
+			throw new IllegalArgumentException("There must be a density for each vertex");
+		}
+		LocatorGrid grid = mesh.getLocatorGrid();
+		ByteBuffer gridVertices = mesh.getGridVertices();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(MAGIC);
+		header.putInt(VERSION);
+		header.putInt((mesh.hasSuperTriangle() ? HAS_SUPER_TRIANGLE : 0)
+				| (mesh.isGhostTriangles() ? GHOST_TRIANGLES : 0)
+				| (gridVertices != null ? HAS_GRID : 0)
+				| (densities != null ? HAS_DENSITIES : 0));
+		header.putInt(mesh.getVertexCount());
+		header.putInt(mesh.getTriangleSlots());
+		header.putInt(mesh.getTriangleCount());
+		header.putInt(mesh.getStartTriangle());
+		header.putInt(gridVertices != null ? gridVertices.capacity() / 4 : 0);
+		header.putInt(grid != null ? grid.getColumns() : 0);
+		header.putInt(grid != null ? grid.getRows() : 0);
+		header.putInt(0);
+		for (double c : mesh.getSuperCoordinates()) {
+			header.putDouble(c);
+		}
+		header.putDouble(grid != null ? grid.getMinX() : 0);
+		header.putDouble(grid != null ? grid.getMinY() : 0);
+		header.putDouble(grid != null ? grid.getScaleX() : 0);
+		header.putDouble(grid != null ? grid.getScaleY() : 0);
+		header.flip();
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			writeFully(channel, header);
+			writeSection(channel, mesh.getCoordBuffers());
+			writeSection(channel, mesh.getVertexTriangleBuffers());
+			writeSection(channel, mesh.getFlagBuffers());
+			writeSection(channel, mesh.getTriangleBuffers());
+			if (gridVertices != null) {
+				writeSection(channel, new ByteBuffer[] { gridVertices });
+			}
+			if (densities != null) {
+				ByteBuffer block = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+				for (int v = 0; v < mesh.getVertexCount(); v++) {
+					if (!block.hasRemaining()) {
+						block.flip();
+						writeFully(channel, block);
+						block.clear();
+					}
+					block.putDouble(densities[v]);
+				}
+				block.flip();
+				writeFully(channel, block);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Maps the file into the arena. The file must not be changed while the
+	 * arena is open.
+	 *
+	 * @throws IOException
+	 *             if the file is not a triangulation file of a supported
+	 *             version, or is truncated
+	 */
+	public static TriangulationFile map(File file, MeshArena arena) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// Reads the whole header
+			}
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getLong() != MAGIC) {
+				throw new IOException(file + " is not a triangulation file");
+			}
+			int version = header.getInt();
+			if (version > VERSION) {
+				throw new IOException(String.format("%s has version %d, only %d and earlier are supported", file, version, VERSION));
+			}
+			int flags = header.getInt();
+			int vertexCount = header.getInt();
+			int triangleSlots = header.getInt();
+			int triangleCount = header.getInt();
+			int startTriangle = header.getInt();
+			int gridCells = header.getInt();
+			int gridColumns = header.getInt();
+			int gridRows = header.getInt();
+			header.getInt();
+			double[] superCoords = new double[6];
+			for (int i = 0; i < superCoords.length; i++) {
+				superCoords[i] = header.getDouble();
+			}
+			double gridMinX = header.getDouble();
+			double gridMinY = header.getDouble();
+			double gridScaleX = header.getDouble();
+			double gridScaleY = header.getDouble();
+
+			int vertexShift = OffHeapTriangulation.VERTEX_SHIFT;
+			long[] offset = { HEADER_BYTES };
+			ByteBuffer[] coords = mapSection(channel, arena, offset, vertexCount, vertexShift, OffHeapTriangulation.COORD_BYTES);
+			ByteBuffer[] vertexTriangles = mapSection(channel, arena, offset, vertexCount, vertexShift, 4);
+			ByteBuffer[] vertexFlags = mapSection(channel, arena, offset, vertexCount, vertexShift, 1);
+			ByteBuffer[] triangles = mapSection(channel, arena, offset, triangleSlots,
+					OffHeapTriangulation.TRIANGLE_SHIFT, OffHeapTriangulation.TRIANGLE_BYTES);
+			LocatorGrid grid = null;
+			ByteBuffer gridVertices = null;
+			if ((flags & HAS_GRID) != 0) {
+				grid = new LocatorGrid(gridMinX, gridMinY, gridScaleX, gridScaleY, gridColumns, gridRows);
+				gridVertices = mapSection(channel, arena, offset, gridCells, 30, 4)[0];
+			}
+			ByteBuffer[] densities = null;
+			if ((flags & HAS_DENSITIES) != 0) {
+				densities = mapSection(channel, arena, offset, vertexCount, vertexShift, 8);
+			}
+
+			OffHeapTriangulation mesh = new OffHeapTriangulation(arena, vertexCount, triangleSlots,
+					triangleCount, startTriangle, superCoords,
+					(flags & HAS_SUPER_TRIANGLE) != 0, (flags & GHOST_TRIANGLES) != 0,
+					coords, vertexTriangles, vertexFlags, triangles, grid, gridVertices);
+			return new TriangulationFile(mesh, densities);
+		} finally {
+			// The mappings stay valid after the channel is closed
+			in.close();
+		}
+	}
+
+	/*
+	 * Writes the buffers of a section, then pads it to a multiple of 8 bytes.
+	 */
+	private static void writeSection(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+		long bytes = 0;
+		for (ByteBuffer buffer : buffers) {
+			ByteBuffer all = buffer.duplicate();
+			all.clear();
+			bytes += all.remaining();
+			writeFully(channel, all);
+		}
+		writeFully(channel, ByteBuffer.allocate(padding(bytes)));
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/*
+	 * Maps the buffers of a section of count records, 2^shift records to a
+	 * buffer, and moves the offset past it.
+	 */
+	private static ByteBuffer[] mapSection(FileChannel channel, MeshArena arena, long[] offset,
+			int count, int shift, int recordBytes) throws IOException {
+		long bytes = (long) count * recordBytes;
+		if (offset[0] + bytes > channel.size()) {
+			throw new IOException("The triangulation file is truncated");
+		}
+		ByteBuffer[] buffers = new ByteBuffer[(int) (((long) count + (1L << shift) - 1) >>> shift)];
+		for (int i = 0; i < buffers.length; i++) {
+			long records = Math.min(1L << shift, (long) count - ((long) i << shift));
+			buffers[i] = arena.map(channel, offset[0] + ((long) i << shift) * recordBytes, (int) (records * recordBytes));
+		}
+		offset[0] += bytes + padding(bytes);
+		return buffers;
+	}
+
+	private static int padding(long bytes) {
+		return (int) (-bytes & 7);
+	}
+}
@@ -0,0 +1,459 @@
+package org.delaunay.algorithm;
+
+import org.delaunay.algorithm.Triangulation.NonDelaunayException;
+
+/**
+ * An immutable copy of a mesh, made by {@link IndexedTriangulation#freeze} or
+ * {@link Triangulation#freeze}. It uses the indices and conventions of
+ * {@link IndexedTriangulation}, and keeps each triangle's vertices and
+ * neighbors next to each other, so a walk reads one cache line per hop.
+ *
+ * Nothing is modified after construction, so any number of threads may
+ * query a snapshot, each with its own {@link LocateContext}, while a writer
+ * keeps editing the mesh it came from or builds the next one. Publishing the
+ * next snapshot is then a single reference swap, for example through an
+ * {@link java.util.concurrent.atomic.AtomicReference}.
+ *
+ * The arrays, and the cells of the locator grid, are split into pages of
+ * {@link #PAGE_SIZE} entries. A snapshot made with the previous snapshot of
+ * the same mesh shares each page that has not changed since, so only the
+ * pages touched by edits are copied. Edits keep the indices of the other
+ * vertices and triangles, so after a few live insertions or removals nearly
+ * all pages are shared; a full triangulation renumbers everything and shares
+ * nothing.
+ *
+ * {@link IndexedTriangulation} keeps track of the pages it writes, so when
+ * {@code previous} is the last snapshot made from it, only those pages are
+ * read, and a freeze takes time in proportion to the edits since, plus a
+ * flag per page. With any other previous snapshot, with
+ * {@link Triangulation} without the indexed engine, or after
+ * {@link IndexedTriangulation#triangulate()},
+ * {@link IndexedTriangulation#reorder()} or concurrent insertion, every page
+ * is compared instead, which takes time in proportion to the mesh.
+ */
+public strictfp final class TriangulationSnapshot implements MeshReader {
+	public static final int PAGE_SIZE = 1 << 10;
+
+	static final int PAGE_SHIFT = 10;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int NONE = IndexedTriangulation.NONE;
+	private static final int FREE = IndexedTriangulation.FREE;
+
+	private final long version;
+	private final int vertexCount;
+	private final int triangleSlots;
+	private final int triangleCount;
+	private final int startTriangle;
+	private final double[] superCoords;
+	private final boolean hasSuperTriangle;
+	private final boolean ghostTriangles;
+
+	/*
+	 * coordPages hold x, y for each vertex, trianglePages the three vertices
+	 * and then the three neighbors of each triangle.
+	 */
+	private final double[][] coordPages;
+	private final int[][] vertexTrianglePages;
+	private final int[][] trianglePages;
+	private final int sharedPages;
+
+	private final LocatorGrid locatorGrid;
+	private final int[][] gridPages;
+
+	/*
+	 * Copies the arrays, sharing the pages that are equal to those of the
+	 * previous snapshot.
+	 */
+	TriangulationSnapshot(TriangulationSnapshot previous,
+			double[] coords, int[] vertexTriangles, int vertexCount,
+			int[] triangleVertices, int[] triangleNeighbors, int triangleSlots,
+			double[] superCoords, boolean hasSuperTriangle, boolean ghostTriangles,
+			LocatorGrid locatorGrid, int[] gridVertices) {
+		this.version = previous == null ? 1 : previous.version + 1;
+		this.vertexCount = vertexCount;
+		this.triangleSlots = triangleSlots;
+		this.superCoords = superCoords.clone();
+		this.hasSuperTriangle = hasSuperTriangle;
+		this.ghostTriangles = ghostTriangles;
+		this.locatorGrid = gridVertices == null ? null : locatorGrid;
+
+		int shared = 0;
+		coordPages = new double[pageCount(vertexCount)][];
+		vertexTrianglePages = new int[coordPages.length][];
+		for (int p = 0; p < coordPages.length; p++) {
+			int from = p * PAGE_SIZE;
+			int size = Math.min(PAGE_SIZE, vertexCount - from);
+
+			double[] coordPage = previous == null ? null : previous.getCoordPage(p, size);
+			if (coordPage == null || !equalRange(coordPage, coords, from * 2)) {
+				coordPage = new double[size * 2];
+				System.arraycopy(coords, from * 2, coordPage, 0, size * 2);
+			} else {
+				shared++;
+			}
+			coordPages[p] = coordPage;
+
+			int[] trianglePage = previous == null ? null : previous.getVertexTrianglePage(p, size);
+			if (trianglePage == null || !equalRange(trianglePage, vertexTriangles, from)) {
+				trianglePage = new int[size];
+				System.arraycopy(vertexTriangles, from, trianglePage, 0, size);
+			} else {
+				shared++;
+			}
+			vertexTrianglePages[p] = trianglePage;
+		}
+
+		int count = 0;
+		int start = NONE;
+		trianglePages = new int[pageCount(triangleSlots)][];
+		for (int p = 0; p < trianglePages.length; p++) {
+			int from = p * PAGE_SIZE;
+			int size = Math.min(PAGE_SIZE, triangleSlots - from);
+			int[] page = previous == null ? null : previous.getTrianglePage(p, size);
+			if (page == null || !equalTriangles(page, triangleVertices, triangleNeighbors, from, size)) {
+				page = new int[size * 6];
+				for (int i = 0; i < size; i++) {
+					System.arraycopy(triangleVertices, (from + i) * 3, page, i * 6, 3);
+					System.arraycopy(triangleNeighbors, (from + i) * 3, page, i * 6 + 3, 3);
+				}
+			} else {
+				shared++;
+			}
+			trianglePages[p] = page;
+			for (int i = 0; i < size; i++) {
+				if (page[i * 6] != FREE) {
+					count++;
+					if (start == NONE) {
+						start = from + i;
+					}
+				}
+			}
+		}
+		this.triangleCount = count;
+		this.startTriangle = start;
+
+		gridPages = gridVertices == null ? null : new int[pageCount(gridVertices.length)][];
+		for (int p = 0; gridPages != null && p < gridPages.length; p++) {
+			int from = p * PAGE_SIZE;
+			int size = Math.min(PAGE_SIZE, gridVertices.length - from);
+			int[] page = previous == null ? null : previous.getGridPage(p, size);
+			if (page == null || !equalRange(page, gridVertices, from)) {
+				page = new int[size];
+				System.arraycopy(gridVertices, from, page, 0, size);
+			} else {
+				shared++;
+			}
+			gridPages[p] = page;
+		}
+		this.sharedPages = shared;
+	}
+
+	/*
+	 * Reads the pages of the mesh that are flagged as written since previous,
+	 * the last snapshot made from it, and shares the others. A page that has
+	 * grown since holds vertices or triangles added since, and is read as
+	 * well.
+	 */
+	TriangulationSnapshot(TriangulationSnapshot previous, IndexedTriangulation mesh,
+			boolean[] dirtyCoordPages, boolean[] dirtyVertexTrianglePages, boolean[] dirtyTrianglePages,
+			boolean[] dirtyGridPages) {
+		this.version = previous.version + 1;
+		this.vertexCount = mesh.getVertexCount();
+		this.triangleSlots = mesh.getTriangleSlots();
+		this.triangleCount = mesh.getTriangleCount();
+		this.superCoords = mesh.getSuperCoordinates().clone();
+		this.hasSuperTriangle = mesh.hasSuperTriangle();
+		this.ghostTriangles = mesh.isGhostTriangles();
+		int[] gridVertices = mesh.getGridVertices();
+		this.locatorGrid = gridVertices == null ? null : mesh.getLocatorGrid();
+
+		int shared = 0;
+		coordPages = new double[pageCount(vertexCount)][];
+		vertexTrianglePages = new int[coordPages.length][];
+		for (int p = 0; p < coordPages.length; p++) {
+			int from = p * PAGE_SIZE;
+			int size = Math.min(PAGE_SIZE, vertexCount - from);
+
+			double[] coordPage = dirtyCoordPages[p] ? null : previous.getCoordPage(p, size);
+			if (coordPage == null) {
+				coordPage = new double[size * 2];
+				for (int i = 0; i < size; i++) {
+					coordPage[i * 2] = mesh.getX(from + i);
+					coordPage[i * 2 + 1] = mesh.getY(from + i);
+				}
+			} else {
+				shared++;
+			}
+			coordPages[p] = coordPage;
+
+			int[] trianglePage = dirtyVertexTrianglePages[p] ? null : previous.getVertexTrianglePage(p, size);
+			if (trianglePage == null) {
+				trianglePage = new int[size];
+				for (int i = 0; i < size; i++) {
+					trianglePage[i] = mesh.getVertexTriangle(from + i);
+				}
+			} else {
+				shared++;
+			}
+			vertexTrianglePages[p] = trianglePage;
+		}
+
+		trianglePages = new int[pageCount(triangleSlots)][];
+		for (int p = 0; p < trianglePages.length; p++) {
+			int from = p * PAGE_SIZE;
+			int size = Math.min(PAGE_SIZE, triangleSlots - from);
+			int[] page = dirtyTrianglePages[p] ? null : previous.getTrianglePage(p, size);
+			if (page == null) {
+				page = new int[size * 6];
+				for (int i = 0; i < size; i++) {
+					for (int j = 0; j < 3; j++) {
+						page[i * 6 + j] = mesh.getTriangleVertex(from + i, j);
+						page[i * 6 + 3 + j] = mesh.getNeighbor(from + i, j);
+					}
+				}
+			} else {
+				shared++;
+			}
+			trianglePages[p] = page;
+		}
+
+		// A grid built again since has other cells
+		boolean sameGrid = locatorGrid == previous.locatorGrid;
+		gridPages = gridVertices == null ? null : new int[pageCount(gridVertices.length)][];
+		for (int p = 0; gridPages != null && p < gridPages.length; p++) {
+			int from = p * PAGE_SIZE;
+			int size = Math.min(PAGE_SIZE, gridVertices.length - from);
+			int[] page = dirtyGridPages[p] || !sameGrid ? null : previous.getGridPage(p, size);
+			if (page == null) {
+				page = new int[size];
+				System.arraycopy(gridVertices, from, page, 0, size);
+			} else {
+				shared++;
+			}
+			gridPages[p] = page;
+		}
+		this.sharedPages = shared;
+
+		// Any triangle will do as the start of the walks
+		int start = isTriangle(previous.startTriangle) ? previous.startTriangle : NONE;
+		for (int t = 0; start == NONE && t < triangleSlots; t++) {
+			if (isTriangle(t)) {
+				start = t;
+			}
+		}
+		this.startTriangle = start;
+	}
+
+	/**
+	 * Returns 1 for a snapshot made without a previous one, or one more than
+	 * the version of the previous snapshot.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getTriangleSlots() {
+		return triangleSlots;
+	}
+
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	public boolean hasSuperTriangle() {
+		return hasSuperTriangle;
+	}
+
+	/**
+	 * @see IndexedTriangulation#setGhostTriangles(boolean)
+	 */
+	public boolean isGhostTriangles() {
+		return ghostTriangles;
+	}
+
+	/**
+	 * Returns the number of pages, and the number of them that were shared
+	 * with the previous snapshot.
+	 */
+	public int getPageCount() {
+		return coordPages.length + vertexTrianglePages.length + trianglePages.length
+				+ (gridPages == null ? 0 : gridPages.length);
+	}
+
+	public int getSharedPageCount() {
+		return sharedPages;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the pages, counting
+	 * the shared ones as well.
+	 */
+	public long getMemoryBytes() {
+		long bytes = 8L * superCoords.length;
+		for (int p = 0; p < coordPages.length; p++) {
+			bytes += 8L * coordPages[p].length + 4L * vertexTrianglePages[p].length;
+		}
+		for (int[] page : trianglePages) {
+			bytes += 4L * page.length;
+		}
+		for (int p = 0; gridPages != null && p < gridPages.length; p++) {
+			bytes += 4L * gridPages[p].length;
+		}
+		return bytes;
+	}
+
+	public double getX(int v) {
+		return v >= 0
+				? coordPages[v >> PAGE_SHIFT][(v & PAGE_MASK) << 1]
+				: superCoords[(IndexedTriangulation.SUPER_VERTEX - v) << 1];
+	}
+
+	public double getY(int v) {
+		return v >= 0
+				? coordPages[v >> PAGE_SHIFT][((v & PAGE_MASK) << 1) + 1]
+				: superCoords[((IndexedTriangulation.SUPER_VERTEX - v) << 1) + 1];
+	}
+
+	public boolean isInserted(int v) {
+		return getVertexTriangle(v) != NONE;
+	}
+
+	/**
+	 * Returns a triangle incident to the vertex, or {@link IndexedTriangulation#NONE}
+	 * if the vertex is not in the mesh.
+	 */
+	public int getVertexTriangle(int v) {
+		return v >= 0 && v < vertexCount ? vertexTrianglePages[v >> PAGE_SHIFT][v & PAGE_MASK] : NONE;
+	}
+
+	public boolean isTriangle(int t) {
+		return t >= 0 && t < triangleSlots && getTriangleVertex(t, 0) != FREE;
+	}
+
+	public int getTriangleVertex(int t, int i) {
+		return trianglePages[t >> PAGE_SHIFT][(t & PAGE_MASK) * 6 + i];
+	}
+
+	/**
+	 * Returns the triangle across the edge opposite vertex {@code i}, or
+	 * {@link IndexedTriangulation#NONE}.
+	 */
+	public int getNeighbor(int t, int i) {
+		return trianglePages[t >> PAGE_SHIFT][(t & PAGE_MASK) * 6 + 3 + i];
+	}
+
+	/**
+	 * Returns the triangle in which the point resides, or
+	 * {@link IndexedTriangulation#NONE} if it is outside the mesh.
+	 *
+	 * @see IndexedTriangulation#locate(double, double, LocateContext)
+	 */
+	public int locate(double x, double y, LocateContext context) throws NonDelaunayException {
+		return MeshQueries.locate(this, startTriangle(x, y, context), x, y, context);
+	}
+
+	/**
+	 * Returns the vertex nearest to the point, or
+	 * {@link IndexedTriangulation#NONE} if it is outside the mesh.
+	 *
+	 * @see IndexedTriangulation#locateNearestVertex(double, double, LocateContext)
+	 */
+	public int locateNearestVertex(double x, double y, LocateContext context) {
+		int t = locate(x, y, context);
+		return t == NONE ? NONE : MeshQueries.walkToNearestVertex(this, t, x, y, context);
+	}
+
+	private int startTriangle(double x, double y, LocateContext context) {
+		if (gridPages != null) {
+			int cell = locatorGrid.getCell(x, y);
+			int t = getVertexTriangle(gridPages[cell >> PAGE_SHIFT][cell & PAGE_MASK]);
+			if (t != NONE) {
+				return t;
+			}
+		}
+		return isTriangle(context.last) ? context.last : startTriangle;
+	}
+
+	double[] getSuperCoordinates() {
+		return superCoords;
+	}
+
+	LocatorGrid getLocatorGrid() {
+		return locatorGrid;
+	}
+
+	/*
+	 * The vertex of each cell of the locator grid, or null.
+	 */
+	int[] getGridVertices() {
+		if (gridPages == null) {
+			return null;
+		}
+		int[] gridVertices = new int[locatorGrid.getCellCount()];
+		for (int p = 0; p < gridPages.length; p++) {
+			System.arraycopy(gridPages[p], 0, gridVertices, p * PAGE_SIZE, gridPages[p].length);
+		}
+		return gridVertices;
+	}
+
+	/*
+	 * The pages of the previous snapshot, if they have the given size.
+	 */
+	private double[] getCoordPage(int p, int size) {
+		return p < coordPages.length && coordPages[p].length == size * 2 ? coordPages[p] : null;
+	}
+
+	private int[] getVertexTrianglePage(int p, int size) {
+		return p < vertexTrianglePages.length && vertexTrianglePages[p].length == size ? vertexTrianglePages[p] : null;
+	}
+
+	private int[] getTrianglePage(int p, int size) {
+		return p < trianglePages.length && trianglePages[p].length == size * 6 ? trianglePages[p] : null;
+	}
+
+	private int[] getGridPage(int p, int size) {
+		return gridPages != null && p < gridPages.length && gridPages[p].length == size ? gridPages[p] : null;
+	}
+
+	static int pageCount(int size) {
+		return (size + PAGE_SIZE - 1) >> PAGE_SHIFT;
+	}
+
+	/*
+	 * Compares the bits, so that the NaN and signed zero coordinates of
+	 * unused slots match as well.
+	 */
+	private static boolean equalRange(double[] page, double[] src, int offset) {
+		for (int i = 0; i < page.length; i++) {
+			if (Double.doubleToRawLongBits(page[i]) != Double.doubleToRawLongBits(src[offset + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equalRange(int[] page, int[] src, int offset) {
+		for (int i = 0; i < page.length; i++) {
+			if (page[i] != src[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equalTriangles(int[] page, int[] vertices, int[] neighbors, int from, int size) {
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < 3; j++) {
+				if (page[i * 6 + j] != vertices[(from + i) * 3 + j]
+						|| page[i * 6 + 3 + j] != neighbors[(from + i) * 3 + j]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
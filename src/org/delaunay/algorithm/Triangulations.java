@@ -3,11 +3,57 @@ package org.delaunay.algorithm;
 import java.util.List;
 import java.util.Random;
 
+import org.delaunay.algorithm.IndexedTriangulation.Mesh;
+import org.delaunay.algorithm.Triangulation.InvalidVertexException;
 import org.delaunay.model.Vertex;
 
 import com.google.common.collect.Lists;
 
 public class Triangulations {
+	/**
+	 * Triangulates the points given as columnar coordinate arrays, without
+	 * creating an object per point. The vertex indices in the returned mesh
+	 * are indices into {@code xs} and {@code ys}.
+	 * 
+	 * @throws InvalidVertexException
+	 *             if any two points have the same location.
+	 */
+	public static Mesh triangulate(double[] xs, double[] ys) throws InvalidVertexException {
+		IndexedTriangulation t = new IndexedTriangulation(xs.length);
+		t.addVertices(xs, ys);
+		t.triangulate();
+		return t.toMesh();
+	}
+
+	/**
+	 * Triangulates the points given as an interleaved {x0, y0, x1, y1, ...}
+	 * array, without creating an object per point. The vertex index {@code i}
+	 * in the returned mesh refers to the point {@code (xy[2i], xy[2i + 1])}.
+	 * 
+	 * @throws InvalidVertexException
+	 *             if any two points have the same location.
+	 */
+	public static Mesh triangulate(double[] xy) throws InvalidVertexException {
+		IndexedTriangulation t = new IndexedTriangulation(xy.length / 2);
+		t.addVertices(xy);
+		t.triangulate();
+		return t.toMesh();
+	}
+
+	/**
+	 * Returns random vertices that are uniformly distributed over the
+	 * rectangle. Unlike {@link #randomVertices(int, int, int)}, whose
+	 * vertices crowd toward the origin, the density is the same everywhere.
+	 */
+	public static List<Vertex> uniformVertices(int n, int width, int height) {
+		Random random = new Random(System.currentTimeMillis());
+		List<Vertex> rands = Lists.newArrayList();
+		for (int i = 0; i < n; i++) {
+			rands.add(new Vertex(random.nextDouble() * width, random.nextDouble() * height));
+		}
+		return rands;
+	}
+
 	public static List<Vertex> randomVertices(int n, int width, int height) {
 		Random random = new Random(System.currentTimeMillis());
 		List<Vertex> rands = Lists.newArrayList();
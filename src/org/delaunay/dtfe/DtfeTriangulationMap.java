@@ -1,7 +1,13 @@
 package org.delaunay.dtfe;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.delaunay.Utils;
+import org.delaunay.algorithm.MeshArena;
+import org.delaunay.algorithm.OffHeapTriangulation;
 import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+import org.delaunay.algorithm.TriangulationFile;
 import org.delaunay.dtfe.interpolation.InterpolationStrategy;
 import org.delaunay.model.Triangle;
 import org.delaunay.model.TriangulationMap;
@@ -78,14 +84,59 @@ public class DtfeTriangulationMap<T extends DensityModel> extends TriangulationM
 		return relativeDensity * (neg ? -1 : 1);
 	}
 
+	/**
+	 * Writes the triangulation and the density of each vertex to the file,
+	 * which {@link TriangulationFile#map(File, MeshArena)} loads without
+	 * triangulating again.
+	 */
+	public void write(File file) throws IOException {
+		MeshArena arena = new MeshArena();
+		try {
+			OffHeapTriangulation mesh = getTriangulation().freezeOffHeap(arena);
+			double[] densities = new double[mesh.getVertexCount()];
+			for (Vertex v : getTriangulation().getVertices()) {
+				if (v.getIndex() >= 0 && v.getIndex() < densities.length) {
+					densities[v.getIndex()] = getDensity(v);
+				}
+			}
+			TriangulationFile.write(mesh, densities, file);
+		} finally {
+			arena.close();
+		}
+	}
+
+	/**
+	 * Only the new vertex and its neighbors have different triangles after a
+	 * live insertion, so only their densities are recomputed.
+	 */
+	@Override
+	protected void vertexInserted(Vertex vert) {
+		// Creates the views of an indexed mesh if they are out of date
+		getTriangulation().getVertices();
+		computeDensity(vert);
+		for (Vertex v : vert.getNeighborVertices()) {
+			computeDensity(v);
+		}
+		maxDensity = null;
+	}
+
 	private void computeDtfe() {
 		for (Vertex v : getTriangulation().getVertices()) {
-			double area = 0.0;
-			for (Triangle tri : v.getNeighborTriangles()) {
-				area += tri.getArea();
-			}
-			T model = get(v);
-			model.setDensity(area == 0 ? 0.0 : model.getWeight() / area);
+			computeDensity(v);
+		}
+		maxDensity = null;
+	}
+
+	private void computeDensity(Vertex v) {
+		T model = get(v);
+		if (model == null) {
+			// a vertex of the super triangle
+			return;
+		}
+		double area = 0.0;
+		for (Triangle tri : v.getNeighborTriangles()) {
+			area += tri.getArea();
 		}
+		model.setDensity(area == 0 ? 0.0 : model.getWeight() / area);
 	}
 }
\ No newline at end of file
@@ -9,7 +9,7 @@ import org.delaunay.model.Vertex;
 public final class BarycentricLinearInterpolationStrategy implements
 		InterpolationStrategy {
 	public double getDensity(DtfeTriangulationMap<? extends DensityModel> dtfe, Vector v) {
-		Triangle tri = dtfe.getTriangulation().locate(v);
+		Triangle tri = dtfe.getTriangulation().locate(v, dtfe.getLocateContext());
 
 		// Do not report density for triangles outside the convex hull of
 		// map vertices.
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.delaunay.algorithm.LocateContext;
 import org.delaunay.algorithm.Triangulation;
 import org.delaunay.algorithm.Triangulation.InvalidVertexException;
 import org.delaunay.algorithm.Triangulation.NonDelaunayException;
@@ -19,24 +20,41 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 public class NaturalNeighborInterpolationStrategy implements InterpolationStrategy {
+	/*
+	 * Threads that interpolate at once share the cache of cells. At worst two
+	 * of them create the same cell.
+	 */
 	private final Map<Vertex, Voronoi> voronoi;
 
 	public NaturalNeighborInterpolationStrategy() {
-		this.voronoi = Maps.newLinkedHashMap();
+		this.voronoi = Maps.newConcurrentMap();
 	}
 
 	public Voronoi getVoronoi(Vertex v) {
-		if (voronoi.containsKey(v)) {
-			return voronoi.get(v);
+		Voronoi cell = voronoi.get(v);
+		if (cell != null) {
+			return cell;
 		}
 
-		Voronoi cell = Voronoi.createFromTriangulation(v);
+		cell = Voronoi.createFromTriangulation(v);
 		voronoi.put(v, cell);
 		return cell;
 	}
 
 	public Voronoi getSecondOrderVoronoi(Triangulation triangulation, Vertex v) throws NonDelaunayException, InvalidVertexException {
-		Collection<Triangle> cavity = triangulation.getCircumcircleTriangles(v);
+		return createSecondOrderVoronoi(triangulation, v, triangulation.getCircumcircleTriangles(v));
+	}
+
+	/**
+	 * Like {@link #getSecondOrderVoronoi(Triangulation, Vertex)}, but only
+	 * reads the triangulation, see
+	 * {@link Triangulation#getCircumcircleTriangles(org.delaunay.model.Vector, LocateContext)}.
+	 */
+	public Voronoi getSecondOrderVoronoi(Triangulation triangulation, Vertex v, LocateContext context) throws NonDelaunayException, InvalidVertexException {
+		return createSecondOrderVoronoi(triangulation, v, triangulation.getCircumcircleTriangles(v, context));
+	}
+
+	private Voronoi createSecondOrderVoronoi(Triangulation triangulation, Vertex v, Collection<Triangle> cavity) {
 		List<Triangle> tris = triangulation.createTriangles(triangulation.getEdgeSet(cavity), v);
 		Set<Vertex> verts = Sets.newHashSet();
 		for (Triangle tri : tris) {
@@ -47,13 +65,13 @@ public class NaturalNeighborInterpolationStrategy implements InterpolationStrate
 	}
 
 	public double getDensity(DtfeTriangulationMap<? extends DensityModel> dtfe, Vector v) {
-		Triangle tri = dtfe.getTriangulation().locate(v);
+		Triangle tri = dtfe.getTriangulation().locate(v, dtfe.getLocateContext());
 		if (tri == null || dtfe.getTriangulation().touchesSuperVertex(tri)) {
 			return 0.0;
 		}
 
 		try {
-			Voronoi vor = getSecondOrderVoronoi(dtfe.getTriangulation(), new Vertex(v.x, v.y));
+			Voronoi vor = getSecondOrderVoronoi(dtfe.getTriangulation(), new Vertex(v.x, v.y), dtfe.getLocateContext());
 			double area = 0;
 			for (Vertex vert : vor.getNeighborVertices()) {
 				if (dtfe.getTriangulation().neighborsSuperVertex(vert)) {
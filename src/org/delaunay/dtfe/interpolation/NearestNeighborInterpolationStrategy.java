@@ -11,7 +11,7 @@ final class NearestNeighborInterpolationStrategy implements
 	public double getDensity(DtfeTriangulationMap<? extends DensityModel> dtfe, Vector v) {
 		Vertex vert;
 		try {
-			vert = dtfe.getTriangulation().locateNearestVertex(v);
+			vert = dtfe.getTriangulation().locateNearestVertex(v, dtfe.getLocateContext());
 		} catch (NonDelaunayException e) {
 			return 0;
 		}
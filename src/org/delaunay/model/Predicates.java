@@ -0,0 +1,372 @@
+package org.delaunay.model;
+
+/**
+ * Adaptive precision geometric predicates, after Jonathan Richard Shewchuk's
+ * "Adaptive Precision Floating-Point Arithmetic and Fast Robust Geometric
+ * Predicates". See: {@link http://www.cs.cmu.edu/~quake/robust.html}
+ *
+ * Each predicate first evaluates its determinant in plain floating point
+ * along with a bound on the rounding error. Only when the determinant is
+ * smaller than that bound, which happens for nearly co-linear or co-circular
+ * points, is it evaluated again with exact expansion arithmetic. The sign of
+ * the returned value is therefore always correct, while the common case costs
+ * no more than the naive determinant.
+ */
+public strictfp class Predicates {
+	private static final double EPSILON = 1.1102230246251565E-16; // 2^-53
+	private static final double SPLITTER = 134217729.0; // 2^27 + 1
+	private static final double CCW_ERROR_BOUND = (3.0 + 16.0 * EPSILON) * EPSILON;
+	private static final double ICC_ERROR_BOUND = (10.0 + 96.0 * EPSILON) * EPSILON;
+
+	/**
+	 * Returns a positive value if the points a, b and c occur in
+	 * counter-clockwise order, a negative value if they occur in clockwise
+	 * order, and zero if they are co-linear. The result is the determinant
+	 * |ax-cx ay-cy; bx-cx by-cy|, or a value with the same sign.
+	 */
+	public static double orient2d(double ax, double ay, double bx, double by, double cx, double cy) {
+		double detleft = (ax - cx) * (by - cy);
+		double detright = (ay - cy) * (bx - cx);
+		double det = detleft - detright;
+		double detsum;
+
+		if (detleft > 0.0) {
+			if (detright <= 0.0) {
+				return det;
+			}
+			detsum = detleft + detright;
+		} else if (detleft < 0.0) {
+			if (detright >= 0.0) {
+				return det;
+			}
+			detsum = -detleft - detright;
+		} else {
+			return det;
+		}
+
+		double errbound = CCW_ERROR_BOUND * detsum;
+		if (det >= errbound || -det >= errbound) {
+			return det;
+		}
+		return orient2dExact(ax, ay, bx, by, cx, cy);
+	}
+
+	/**
+	 * Returns a positive value if the point d lies inside the circle passing
+	 * through a, b and c, a negative value if it lies outside, and zero if the
+	 * four points are co-circular. The points a, b and c must be in
+	 * counter-clockwise order, or the sign is reversed.
+	 */
+	public static double incircle(
+			double ax, double ay,
+			double bx, double by,
+			double cx, double cy,
+			double dx, double dy) {
+		double adx = ax - dx;
+		double bdx = bx - dx;
+		double cdx = cx - dx;
+		double ady = ay - dy;
+		double bdy = by - dy;
+		double cdy = cy - dy;
+
+		double bdxcdy = bdx * cdy;
+		double cdxbdy = cdx * bdy;
+		double alift = adx * adx + ady * ady;
+
+		double cdxady = cdx * ady;
+		double adxcdy = adx * cdy;
+		double blift = bdx * bdx + bdy * bdy;
+
+		double adxbdy = adx * bdy;
+		double bdxady = bdx * ady;
+		double clift = cdx * cdx + cdy * cdy;
+
+		double det = alift * (bdxcdy - cdxbdy)
+				+ blift * (cdxady - adxcdy)
+				+ clift * (adxbdy - bdxady);
+
+		double permanent = (Math.abs(bdxcdy) + Math.abs(cdxbdy)) * alift
+				+ (Math.abs(cdxady) + Math.abs(adxcdy)) * blift
+				+ (Math.abs(adxbdy) + Math.abs(bdxady)) * clift;
+		double errbound = ICC_ERROR_BOUND * permanent;
+		if (det > errbound || -det > errbound) {
+			return det;
+		}
+		return incircleExact(ax, ay, bx, by, cx, cy, dx, dy);
+	}
+
+	/*
+	 * The determinant expands to six products of input coordinates, each of
+	 * which is exactly representable as a two component expansion.
+	 */
+	private static double orient2dExact(double ax, double ay, double bx, double by, double cx, double cy) {
+		double[] terms = new double[4];
+		double[] sum = new double[12];
+		double[] swap = new double[12];
+		int len = 0;
+
+		len = addProduct(ax, by, sum, len, swap, terms);
+		len = addProduct(-ax, cy, swap, len, sum, terms);
+		len = addProduct(-cx, by, sum, len, swap, terms);
+		len = addProduct(-ay, bx, swap, len, sum, terms);
+		len = addProduct(ay, cx, sum, len, swap, terms);
+		len = addProduct(cy, bx, swap, len, sum, terms);
+		return sum[len - 1];
+	}
+
+	/*
+	 * Adds the exact product a * b to the expansion e and writes the result to
+	 * h.
+	 */
+	private static int addProduct(double a, double b, double[] e, int elen, double[] h, double[] terms) {
+		twoProduct(a, b, terms, 0);
+		if (elen == 0) {
+			h[0] = terms[0];
+			h[1] = terms[1];
+			return 2;
+		}
+		return expansionSum(elen, e, 2, terms, h);
+	}
+
+	/*
+	 * A port of incircleexact, which evaluates the determinant without first
+	 * translating d to the origin, since that subtraction may be inexact.
+	 */
+	private static double incircleExact(
+			double ax, double ay,
+			double bx, double by,
+			double cx, double cy,
+			double dx, double dy) {
+		double[] ab = new double[4];
+		double[] bc = new double[4];
+		double[] cd = new double[4];
+		double[] da = new double[4];
+		double[] ac = new double[4];
+		double[] bd = new double[4];
+		twoTwoDiff(ax, by, bx, ay, ab);
+		twoTwoDiff(bx, cy, cx, by, bc);
+		twoTwoDiff(cx, dy, dx, cy, cd);
+		twoTwoDiff(dx, ay, ax, dy, da);
+		twoTwoDiff(ax, cy, cx, ay, ac);
+		twoTwoDiff(bx, dy, dx, by, bd);
+
+		double[] temp8 = new double[8];
+		double[] cda = new double[12];
+		double[] dab = new double[12];
+		double[] abc = new double[12];
+		double[] bcd = new double[12];
+
+		int temp8len = expansionSum(4, cd, 4, da, temp8);
+		int cdalen = expansionSum(temp8len, temp8, 4, ac, cda);
+		temp8len = expansionSum(4, da, 4, ab, temp8);
+		int dablen = expansionSum(temp8len, temp8, 4, bd, dab);
+		for (int i = 0; i < 4; i++) {
+			bd[i] = -bd[i];
+			ac[i] = -ac[i];
+		}
+		temp8len = expansionSum(4, ab, 4, bc, temp8);
+		int abclen = expansionSum(temp8len, temp8, 4, ac, abc);
+		temp8len = expansionSum(4, bc, 4, cd, temp8);
+		int bcdlen = expansionSum(temp8len, temp8, 4, bd, bcd);
+
+		double[] adet = new double[48];
+		double[] bdet = new double[48];
+		double[] cdet = new double[48];
+		double[] ddet = new double[48];
+		int alen = liftedTerm(bcdlen, bcd, ax, ay, 1.0, adet);
+		int blen = liftedTerm(cdalen, cda, bx, by, -1.0, bdet);
+		int clen = liftedTerm(dablen, dab, cx, cy, 1.0, cdet);
+		int dlen = liftedTerm(abclen, abc, dx, dy, -1.0, ddet);
+
+		double[] abdet = new double[96];
+		double[] cddet = new double[96];
+		double[] deter = new double[192];
+		int ablen = expansionSum(alen, adet, blen, bdet, abdet);
+		int cdlen = expansionSum(clen, cdet, dlen, ddet, cddet);
+		int deterlen = expansionSum(ablen, abdet, cdlen, cddet, deter);
+		return deter[deterlen - 1];
+	}
+
+	/*
+	 * Computes e * (sign * x^2 + sign * y^2) into h.
+	 */
+	private static int liftedTerm(int elen, double[] e, double x, double y, double sign, double[] h) {
+		double[] temp24 = new double[24];
+		double[] det24x = new double[24];
+		double[] det24y = new double[24];
+		int xlen = scaleExpansion(elen, e, x, temp24);
+		xlen = scaleExpansion(xlen, temp24, sign * x, det24x);
+		int ylen = scaleExpansion(elen, e, y, temp24);
+		ylen = scaleExpansion(ylen, temp24, sign * y, det24y);
+		return expansionSum(xlen, det24x, ylen, det24y, h);
+	}
+
+	/*
+	 * Exact arithmetic primitives. An expansion is an array of non-overlapping
+	 * doubles in order of increasing magnitude whose exact sum is the value it
+	 * represents, so its sign is the sign of its last component.
+	 */
+
+	/*
+	 * Writes a * b as the expansion {h[i], h[i + 1]}.
+	 */
+	private static void twoProduct(double a, double b, double[] h, int i) {
+		double x = a * b;
+
+		double c = SPLITTER * a;
+		double abig = c - a;
+		double ahi = c - abig;
+		double alo = a - ahi;
+
+		c = SPLITTER * b;
+		double bbig = c - b;
+		double bhi = c - bbig;
+		double blo = b - bhi;
+
+		double err1 = x - (ahi * bhi);
+		double err2 = err1 - (alo * bhi);
+		double err3 = err2 - (ahi * blo);
+		h[i] = (alo * blo) - err3;
+		h[i + 1] = x;
+	}
+
+	/*
+	 * Writes a * b - c * d as a four component expansion.
+	 */
+	private static void twoTwoDiff(double a, double b, double c, double d, double[] h) {
+		double[] p = new double[2];
+		double[] q = new double[2];
+		twoProduct(a, b, p, 0);
+		twoProduct(c, d, q, 0);
+		q[0] = -q[0];
+		q[1] = -q[1];
+
+		// Pad with zeros at the small end, which keeps the components in order
+		// of increasing magnitude.
+		double[] sum = new double[4];
+		int len = expansionSum(2, p, 2, q, sum);
+		for (int i = 0; i < 4; i++) {
+			h[i] = i < 4 - len ? 0.0 : sum[i - (4 - len)];
+		}
+	}
+
+	/*
+	 * Sums the expansions e and f into h, eliminating zero components, and
+	 * returns the length of h. This is fast_expansion_sum_zeroelim.
+	 */
+	private static int expansionSum(int elen, double[] e, int flen, double[] f, double[] h) {
+		double enow = e[0];
+		double fnow = f[0];
+		int eindex = 0;
+		int findex = 0;
+		double q;
+		if ((fnow > enow) == (fnow > -enow)) {
+			q = enow;
+			enow = ++eindex < elen ? e[eindex] : 0.0;
+		} else {
+			q = fnow;
+			fnow = ++findex < flen ? f[findex] : 0.0;
+		}
+
+		int hindex = 0;
+		double qnew, hh, bvirt;
+		if (eindex < elen && findex < flen) {
+			if ((fnow > enow) == (fnow > -enow)) {
+				qnew = enow + q;
+				bvirt = qnew - enow;
+				hh = q - bvirt;
+				enow = ++eindex < elen ? e[eindex] : 0.0;
+			} else {
+				qnew = fnow + q;
+				bvirt = qnew - fnow;
+				hh = q - bvirt;
+				fnow = ++findex < flen ? f[findex] : 0.0;
+			}
+			q = qnew;
+			if (hh != 0.0) {
+				h[hindex++] = hh;
+			}
+			while (eindex < elen && findex < flen) {
+				double b;
+				if ((fnow > enow) == (fnow > -enow)) {
+					b = enow;
+					enow = ++eindex < elen ? e[eindex] : 0.0;
+				} else {
+					b = fnow;
+					fnow = ++findex < flen ? f[findex] : 0.0;
+				}
+				qnew = q + b;
+				hh = twoSumTail(q, b, qnew);
+				q = qnew;
+				if (hh != 0.0) {
+					h[hindex++] = hh;
+				}
+			}
+		}
+		while (eindex < elen) {
+			qnew = q + enow;
+			hh = twoSumTail(q, enow, qnew);
+			enow = ++eindex < elen ? e[eindex] : 0.0;
+			q = qnew;
+			if (hh != 0.0) {
+				h[hindex++] = hh;
+			}
+		}
+		while (findex < flen) {
+			qnew = q + fnow;
+			hh = twoSumTail(q, fnow, qnew);
+			fnow = ++findex < flen ? f[findex] : 0.0;
+			q = qnew;
+			if (hh != 0.0) {
+				h[hindex++] = hh;
+			}
+		}
+		if (q != 0.0 || hindex == 0) {
+			h[hindex++] = q;
+		}
+		return hindex;
+	}
+
+	/*
+	 * Multiplies the expansion e by b into h, eliminating zero components, and
+	 * returns the length of h. This is scale_expansion_zeroelim.
+	 */
+	private static int scaleExpansion(int elen, double[] e, double b, double[] h) {
+		double[] product = new double[2];
+		twoProduct(e[0], b, product, 0);
+		double q = product[1];
+		int hindex = 0;
+		if (product[0] != 0.0) {
+			h[hindex++] = product[0];
+		}
+		for (int eindex = 1; eindex < elen; eindex++) {
+			twoProduct(e[eindex], b, product, 0);
+			double sum = q + product[0];
+			double hh = twoSumTail(q, product[0], sum);
+			if (hh != 0.0) {
+				h[hindex++] = hh;
+			}
+			q = product[1] + sum;
+			double bvirt = q - product[1];
+			hh = sum - bvirt;
+			if (hh != 0.0) {
+				h[hindex++] = hh;
+			}
+		}
+		if (q != 0.0 || hindex == 0) {
+			h[hindex++] = q;
+		}
+		return hindex;
+	}
+
+	/*
+	 * Returns the rounding error of x = a + b.
+	 */
+	private static double twoSumTail(double a, double b, double x) {
+		double bvirt = x - a;
+		double avirt = x - bvirt;
+		double bround = b - bvirt;
+		double around = a - avirt;
+		return around + bround;
+	}
+}
@@ -11,9 +11,9 @@ public strictfp class Triangle {
 	
 	public final Vertex a, b, c;
 	private final Vector circumCenter;
-	private final double rSquared;
 	private final LinkedHashSet<Vertex> vertices;
 	private final List<Edge> edges;
+	private final boolean touchesSuperVertex;
 	
 	public Triangle(Vertex v_a, Vertex v_b, Vertex v_c) {
 		// Enforce winding rule
@@ -24,6 +24,7 @@ public strictfp class Triangle {
 		this.c = swap ? v_b : v_c;
 
 		this.vertices = Sets.newLinkedHashSet(Lists.newArrayList(a, b, c));
+		this.touchesSuperVertex = a.isSuperVertex() || b.isSuperVertex() || c.isSuperVertex();
 		this.edges = Lists.newArrayList(
 				new Edge(a, b),
 				new Edge(c, a),
@@ -39,36 +40,58 @@ public strictfp class Triangle {
 				((a.x - c.x) * (a.x + c.x) + (a.y - c.y) * (a.y + c.y)) * (b.x - c.x))
 				/ d;
 		this.circumCenter = new Vector(c_x, c_y);
-		this.rSquared = (c.x - c_x) *  (c.x - c_x) + (c.y - c_y) *  (c.y - c_y);
 	}
 
 	public LinkedHashSet<Vertex> getVertices() {
 		return vertices;
 	}
 	
+	/**
+	 * True if a vertex of this triangle is a super vertex, see
+	 * {@link Vertex#setSuperVertex(boolean)}.
+	 */
+	public boolean touchesSuperVertex() {
+		return touchesSuperVertex;
+	}
+
 	public Vector getCircumCenter() {
 		return circumCenter;
 	}
 	
+	/**
+	 * Returns true if the vector lies inside or on the circumcircle. The test
+	 * is exact, see {@link Predicates#incircle}.
+	 */
 	public boolean isInCircum(Vector v){
-		v = v.subtract(circumCenter);
-		return v.lengthSquared() <= rSquared;
+		// The winding rule makes abc clockwise, which flips the sign
+		return Predicates.incircle(a.x, a.y, b.x, b.y, c.x, c.y, v.x, v.y) <= 0;
 	}
 	
 	public Triangle nextWalk(Vector v) {
 		if (v.orientation(b, c) > 0) {
-			validateOpposites();
-			return oppositeBC;
+			return getOpposites()[1];
 		} else if (v.orientation(c, a) > 0) {
-			validateOpposites();
-			return oppositeCA;
+			return getOpposites()[2];
 		} else if (v.orientation(a, b) > 0) {
-			validateOpposites();
-			return oppositeAB;
+			return getOpposites()[0];
 		}
 		return this;
 	}
 
+	/**
+	 * Returns the triangle across edge AB (0), BC (1) or CA (2), or null if
+	 * the edge is on the border of the triangulation.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the edge is not 0, 1 or 2
+	 */
+	public Triangle getOpposite(int edge) {
+		if (edge < 0 || edge > 2) {
+			throw new IllegalArgumentException("Can not get the opposite of edge " + edge + ", it must be 0, 1 or 2");
+		}
+		return getOpposites()[edge];
+	}
+
 	public Triangle opposite(Vertex a, Vertex b) {
 		for (Triangle t : a.getNeighborTriangles()) {
 			if (t != this && t.vertices.contains(b)) {
@@ -78,41 +101,40 @@ public strictfp class Triangle {
 		return null;
 	}
 
-	// Cache opposites for performance
-	private Triangle oppositeAB = null;
-	private Triangle oppositeBC = null;
-	private Triangle oppositeCA = null;
-	private boolean oppositesValid = false;
+	/*
+	 * The opposites across AB, BC and CA, and the neighbors, are cached for
+	 * performance. Each cache is built completely before it is published by a
+	 * single volatile write, so threads that read the mesh at once never see
+	 * a partial cache; at worst they build the same one twice.
+	 */
+	private volatile Triangle[] opposites = null;
+	private volatile Set<Triangle> neighbors = null;
 
-	private void validateOpposites() {
-		if (oppositesValid) {
-			return;
+	private Triangle[] getOpposites() {
+		Triangle[] cached = opposites;
+		if (cached == null) {
+			cached = new Triangle[] { opposite(a, b), opposite(b, c), opposite(c, a) };
+			opposites = cached;
 		}
-		oppositeAB = opposite(a, b);
-		oppositeBC = opposite(b, c);
-		oppositeCA = opposite(c, a);
-		oppositesValid = true;
+		return cached;
 	}
 
 	public void invalidateNeighbors() {
-		oppositesValid = false;
-		neighborsValid = false;
+		opposites = null;
+		neighbors = null;
 	}
 
-	private Set<Triangle> neighbors = null;
-	private boolean neighborsValid = false;
-
 	public Set<Triangle> getNeighbors() {
-		if (neighborsValid) {
-			return neighbors;
+		Set<Triangle> cached = neighbors;
+		if (cached == null) {
+			cached = Sets.newHashSet();
+			cached.addAll(a.getNeighborTriangles());
+			cached.addAll(b.getNeighborTriangles());
+			cached.addAll(c.getNeighborTriangles());
+			cached.remove(this);
+			neighbors = cached;
 		}
-		neighbors = Sets.newHashSet();
-		neighbors.addAll(a.getNeighborTriangles());
-		neighbors.addAll(b.getNeighborTriangles());
-		neighbors.addAll(c.getNeighborTriangles());
-		neighbors.remove(this);
-		neighborsValid = true;
-		return neighbors;
+		return cached;
 	}
 
 	public Iterable<Edge> getEdges() {
@@ -120,6 +142,20 @@ public strictfp class Triangle {
 	}
 	
 	private Double area = null;
+
+	/*
+	 * Scratch mark used by traversals of the triangulation to tell which
+	 * triangles they have already visited without allocating a set.
+	 */
+	private int mark = 0;
+
+	public int getMark() {
+		return mark;
+	}
+
+	public void setMark(int mark) {
+		this.mark = mark;
+	}
 	
 	public double getArea() {
 		if (area == null) {
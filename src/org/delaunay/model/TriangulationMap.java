@@ -1,7 +1,12 @@
 package org.delaunay.model;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.delaunay.algorithm.LocateContext;
 import org.delaunay.algorithm.Triangulation;
 import org.delaunay.algorithm.Triangulation.InvalidVertexException;
+import org.delaunay.algorithm.TriangulationSnapshot;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
@@ -12,6 +17,15 @@ import com.google.common.collect.HashBiMap;
 public class TriangulationMap<T> {
 	private final BiMap<Vertex, T> map = HashBiMap.create();
 	private final Triangulation triangulation = new Triangulation();
+	private final ThreadLocal<LocateContext> contexts = new ThreadLocal<LocateContext>() {
+		@Override
+		protected LocateContext initialValue() {
+			return new LocateContext();
+		}
+	};
+	private final AtomicReference<TriangulationMapSnapshot<T>> snapshot = new AtomicReference<TriangulationMapSnapshot<T>>();
+	private boolean live = false;
+	private boolean triangulated = false;
 
 	public TriangulationMap() {
 		triangulation.setKeepSuperTriangle(true);
@@ -20,27 +34,124 @@ public class TriangulationMap<T> {
 	public void clear() {
 		map.clear();
 		triangulation.clear();
+		triangulated = false;
+	}
+
+	/**
+	 * If set to true, once {@link #triangulate()} has built the mesh,
+	 * {@link #put(double, double, Object)} inserts each new vertex directly
+	 * into it instead of waiting for the next full triangulation. Only the
+	 * triangles around the new vertex change, so an update takes about as long
+	 * as a single vertex insertion.
+	 */
+	public void setLive(boolean live) {
+		this.live = live;
+	}
+
+	public boolean isLive() {
+		return live;
 	}
 
 	public boolean contains(double x, double y) {
 		return map.containsKey(new Vertex(x, y));
 	}
 
+	/**
+	 * Adds a vertex with the value. In live mode the vertex is inserted into
+	 * the mesh right away; a vertex at the location of an existing one only
+	 * replaces its value.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the vertex can not be inserted in live mode, for
+	 *             instance because it lies outside the super triangle. The
+	 *             value is not stored then.
+	 */
 	public Vertex put(double x, double y, T value) {
 		Vertex vert = new Vertex(x, y);
+		if (!live || !triangulated) {
+			triangulation.addVertex(vert);
+			map.put(vert, value);
+			return vert;
+		}
+
+		if (map.containsKey(vert)) {
+			Vertex existing = map.inverse().get(map.get(vert));
+			map.put(existing, value);
+			return existing;
+		}
+		boolean inserted;
+		try {
+			inserted = triangulation.addVertexToTriangulation(vert);
+		} catch (InvalidVertexException e) {
+			throw new IllegalArgumentException("Can not insert " + vert, e);
+		}
+		if (!inserted) {
+			throw new IllegalArgumentException("Can not insert " + vert + " outside the triangulation");
+		}
 		triangulation.addVertex(vert);
 		map.put(vert, value);
+		vertexInserted(vert);
 		return vert;
 	}
 
 	public void triangulate() throws InvalidVertexException {
 		triangulation.triangulate();
+		triangulated = true;
+	}
+
+	/**
+	 * Makes an immutable snapshot of the map and its triangulation and
+	 * publishes it, with a single atomic swap, as the one returned by
+	 * {@link #getSnapshot()}. Readers keep querying the snapshot they hold
+	 * while the map is edited or rebuilt. Pages that have not changed since
+	 * the current snapshot are shared with it, see
+	 * {@link TriangulationSnapshot}; this works best with the indexed engine
+	 * and live mode. The values are copied into a new array every time, which
+	 * takes time in proportion to the number of vertices.
+	 */
+	public TriangulationMapSnapshot<T> freeze() {
+		TriangulationMapSnapshot<T> previous = snapshot.get();
+		TriangulationSnapshot frozen = triangulation.freeze(previous == null ? null : previous.getTriangulation());
+		Object[] values = new Object[frozen.getVertexCount()];
+		for (Map.Entry<Vertex, T> entry : map.entrySet()) {
+			int v = entry.getKey().getIndex();
+			if (v >= 0 && v < values.length) {
+				values[v] = entry.getValue();
+			}
+		}
+		TriangulationMapSnapshot<T> next = new TriangulationMapSnapshot<T>(frozen, values);
+		snapshot.set(next);
+		return next;
+	}
+
+	/**
+	 * Returns the snapshot made by the last {@link #freeze()}, or null.
+	 */
+	public TriangulationMapSnapshot<T> getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * Called after a vertex has been inserted into the mesh in live mode and
+	 * its value has been stored.
+	 */
+	protected void vertexInserted(Vertex vert) {
+		// nothing to update
 	}
 	
 	public Triangulation getTriangulation() {
 		return triangulation;
 	}
 	
+	/**
+	 * Returns the locate context of the calling thread. Lookups through it
+	 * only read the triangulation, so once it is built, any number of threads
+	 * may locate at once.
+	 */
+	public LocateContext getLocateContext() {
+		return contexts.get();
+	}
+
 	public Vertex getVertex(T value){
 		return map.inverse().get(value);
 	}
@@ -50,7 +161,7 @@ public class TriangulationMap<T> {
 	}
 
 	public T locate(double x, double y) {
-		Vertex vert = triangulation.locateNearestVertex(new Vector(x, y));
+		Vertex vert = triangulation.locateNearestVertex(new Vector(x, y), getLocateContext());
 		return get(vert);
 	}
 }
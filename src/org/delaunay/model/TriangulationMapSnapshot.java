@@ -0,0 +1,54 @@
+package org.delaunay.model;
+
+import org.delaunay.algorithm.IndexedTriangulation;
+import org.delaunay.algorithm.LocateContext;
+import org.delaunay.algorithm.TriangulationSnapshot;
+
+/**
+ * An immutable copy of a {@link TriangulationMap}, made by
+ * {@link TriangulationMap#freeze()}. The values are stored by the index of
+ * their vertex in the {@link TriangulationSnapshot}, so a lookup is a walk
+ * and an array read. Any number of threads may look up values at once.
+ */
+public class TriangulationMapSnapshot<T> {
+	private final TriangulationSnapshot triangulation;
+	private final Object[] values;
+	private final ThreadLocal<LocateContext> contexts = new ThreadLocal<LocateContext>() {
+		@Override
+		protected LocateContext initialValue() {
+			return new LocateContext();
+		}
+	};
+
+	TriangulationMapSnapshot(TriangulationSnapshot triangulation, Object[] values) {
+		this.triangulation = triangulation;
+		this.values = values;
+	}
+
+	public TriangulationSnapshot getTriangulation() {
+		return triangulation;
+	}
+
+	public long getVersion() {
+		return triangulation.getVersion();
+	}
+
+	/**
+	 * Returns the value of the vertex with the index, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int v) {
+		return v >= 0 && v < values.length ? (T) values[v] : null;
+	}
+
+	/**
+	 * Returns the value of the vertex nearest to the point, or null if the
+	 * point is outside the mesh.
+	 *
+	 * @see TriangulationMap#locate(double, double)
+	 */
+	public T locate(double x, double y) {
+		int v = triangulation.locateNearestVertex(x, y, contexts.get());
+		return v == IndexedTriangulation.NONE ? null : get(v);
+	}
+}
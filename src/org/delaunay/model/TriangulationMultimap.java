@@ -3,6 +3,7 @@ package org.delaunay.model;
 import java.util.List;
 import java.util.Map;
 
+import org.delaunay.algorithm.LocateContext;
 import org.delaunay.algorithm.Triangulation;
 import org.delaunay.algorithm.Triangulation.InvalidVertexException;
 
@@ -14,6 +15,12 @@ public class TriangulationMultimap<T> {
 	private final ArrayListMultimap<Vertex, T> map = ArrayListMultimap.create();
 	private final Map<Vertex, Vertex> canonicalKeys = Maps.newHashMap();
 	private final Triangulation triangulation = new Triangulation();
+	private final ThreadLocal<LocateContext> contexts = new ThreadLocal<LocateContext>() {
+		@Override
+		protected LocateContext initialValue() {
+			return new LocateContext();
+		}
+	};
 	
 	public TriangulationMultimap() {
 		triangulation.setKeepSuperTriangle(true);
@@ -51,6 +58,15 @@ public class TriangulationMultimap<T> {
 		return canonicalKeys.get(new Vertex(x, y));
 	}
 
+	/**
+	 * Returns the locate context of the calling thread. Lookups through it
+	 * only read the triangulation, so once it is built, any number of threads
+	 * may locate at once.
+	 */
+	public LocateContext getLocateContext() {
+		return contexts.get();
+	}
+
 	public List<T> get(Vertex key) {
 		return map.get(key);
 	}
@@ -60,7 +76,7 @@ public class TriangulationMultimap<T> {
 	}
 
 	public List<T> locate(double x, double y) {
-		Vertex vert = triangulation.locateNearestVertex(new Vector(x, y));
+		Vertex vert = triangulation.locateNearestVertex(new Vector(x, y), getLocateContext());
 		if (vert == null) {
 			return Lists.newArrayList();
 		}
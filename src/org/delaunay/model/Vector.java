@@ -56,10 +56,12 @@ public strictfp class Vector {
 	 *   -1 = left
 	 *    0 = on
 	 *    1 = right
+	 *    
+	 * The sign is exact, see Predicates.
 	 */
 	public int orientation(Vector a, Vector b) {
-		double det = (a.x - x) * (b.y - y) - (b.x - x) * (a.y - y);
-		return (new Double(det).compareTo(0.0));
+		double det = Predicates.orient2d(a.x, a.y, b.x, b.y, x, y);
+		return det > 0 ? 1 : (det < 0 ? -1 : 0);
 	}
 	
 	public Point2D.Double toPoint() {
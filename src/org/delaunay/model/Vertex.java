@@ -7,7 +7,10 @@ import com.google.common.collect.Sets;
 public class Vertex extends Vector {
 	private final Set<Vertex> neighborVertices = Sets.newLinkedHashSet();
 	private final Set<Triangle> neighborTriangles = Sets.newLinkedHashSet();
-	private Integer hilbertIndex;
+	private long hilbertIndex;
+	private int index = -1;
+	private boolean superVertex = false;
+	private int superTriangleCount = 0;
 
 	public Vertex(double x, double y) {
 		super(x, y);
@@ -22,7 +25,9 @@ public class Vertex extends Vector {
 	}
 
 	public void addTriangle(Triangle tri) {
-		neighborTriangles.add(tri);
+		if (neighborTriangles.add(tri) && tri.touchesSuperVertex()) {
+			superTriangleCount++;
+		}
 		neighborVertices.addAll(tri.getVertices());
 		neighborVertices.remove(this);
 		for (Triangle t : neighborTriangles) {
@@ -31,18 +36,60 @@ public class Vertex extends Vector {
 	}
 
 	public void removeTriangle(Triangle tri) {
-		neighborTriangles.remove(tri);
+		if (neighborTriangles.remove(tri) && tri.touchesSuperVertex()) {
+			superTriangleCount--;
+		}
 		neighborVertices.removeAll(tri.getVertices());
 		for (Triangle t : neighborTriangles) {
 			t.invalidateNeighbors();
+			// An edge of the triangle that another triangle shares remains
+			neighborVertices.addAll(t.getVertices());
 		}
+		neighborVertices.remove(this);
 	}
 
-	public void setHilbertIndex(Integer hilbertIndex) {
+	public void setHilbertIndex(long hilbertIndex) {
 		this.hilbertIndex = hilbertIndex;
 	}
 
-	public Integer getHilbertIndex() {
+	public long getHilbertIndex() {
 		return hilbertIndex;
 	}
+
+	/**
+	 * Marks this vertex as a vertex of a super triangle. Must be set before
+	 * any triangle is made with it.
+	 */
+	public void setSuperVertex(boolean superVertex) {
+		this.superVertex = superVertex;
+	}
+
+	public boolean isSuperVertex() {
+		return superVertex;
+	}
+
+	/**
+	 * True if one of the triangles around this vertex touches a super vertex,
+	 * so that the vertex is on the hull of the mesh inside the super
+	 * triangle. The triangles are counted as they are added and removed, so
+	 * this takes constant time.
+	 */
+	public boolean isOnHull() {
+		return superTriangleCount > 0;
+	}
+
+	/**
+	 * Sets the index of this vertex in the array backed mesh it was last
+	 * added to, so that it can be found without a locate.
+	 */
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	/**
+	 * Returns the index set by {@link #setIndex(int)}, or -1.
+	 */
+	public int getIndex() {
+		return index;
+	}
 }